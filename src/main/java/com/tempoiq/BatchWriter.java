@@ -0,0 +1,269 @@
+package com.tempoiq;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.tempoiq.util.DaemonThreadFactory;
+import static com.tempoiq.util.Preconditions.*;
+
+/**
+ *  Buffers DataPoints and writes them to TempoIQ in batches.
+ *
+ *  <p>Writing one DataPoint per {@link Client#writeDataPoints(WriteRequest)} call costs a full
+ *  http round trip per point. A BatchWriter collects points from any number of threads and
+ *  sends them as a single WriteRequest once one of the following is reached:
+ *  <ul>
+ *    <li>the batch holds <tt>maxPoints</tt> DataPoints</li>
+ *    <li>the estimated size of the batch body reaches <tt>maxBytes</tt></li>
+ *    <li><tt>lingerMillis</tt> have passed since the first point entered the batch</li>
+ *  </ul>
+ *
+ *  <p>Every write returns a {@link WriteFuture} that completes with the {@link WriteResponse}
+ *  of the batch (or the merged responses of the batches) holding its points:
+ *
+ *  <p><pre>
+ *    BatchWriter writer = client.getBatchWriter();
+ *    WriteFuture future = writer.write(device, sensor, new DataPoint(new DateTime(), 12.34));
+ *    ...
+ *    Result&lt;WriteResponse&gt; result = future.get();
+ *  </pre>
+ *
+ *  <p>Points are spread over <tt>lanes</tt> by the hash of their Device key. Each lane
+ *  batches on its own and has at most one write request in flight, so up to <tt>lanes</tt>
+ *  requests run concurrently while the points of any one Device are still written in
+ *  the order they were submitted. The batch limits apply per lane.
+ *
+ *  <p>The BatchWriter is owned by its {@link Client} and is thread-safe. Call {@link #close()}
+ *  to write any buffered points before shutting down.
+ *  @since 1.3.0
+ */
+public class BatchWriter {
+
+  private static class Batch {
+    private final WriteRequest request = new WriteRequest();
+    private final List<WriteFuture> futures = new ArrayList<WriteFuture>();
+    private long bytes = 0;
+  }
+
+  /** A stripe of devices with its own open batch and a single sending thread. */
+  private static class Lane {
+    private final ExecutorService sender;
+    private Batch open = null;
+    private ScheduledFuture<?> linger = null;
+
+    private Lane(ExecutorService sender) {
+      this.sender = sender;
+    }
+  }
+
+  private final Client client;
+  private final int maxPoints;
+  private final long maxBytes;
+  private final long lingerMillis;
+  private final ScheduledExecutorService timer;
+  private final Lane[] lanes;
+
+  private boolean closed = false;
+
+  private static final int SUCCESS_CODE = 200;
+  private static final int GENERIC_ERROR_CODE = 600;
+
+  BatchWriter(Client client, int maxPoints, long maxBytes, long lingerMillis) {
+    this(client, maxPoints, maxBytes, lingerMillis, 1);
+  }
+
+  BatchWriter(Client client, int maxPoints, long maxBytes, long lingerMillis, int lanes) {
+    checkArgument(maxPoints > 0, "maxPoints must be positive.");
+    checkArgument(maxBytes > 0, "maxBytes must be positive.");
+    checkArgument(lingerMillis >= 0, "lingerMillis must not be negative.");
+    checkArgument(lanes > 0, "lanes must be positive.");
+    this.client = checkNotNull(client);
+    this.maxPoints = maxPoints;
+    this.maxBytes = maxBytes;
+    this.lingerMillis = lingerMillis;
+    this.timer = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("batch-writer"));
+    this.lanes = new Lane[lanes];
+    ThreadFactory senders = new DaemonThreadFactory("batch-writer-lane");
+    for (int i = 0; i < lanes; i++) {
+      this.lanes[i] = new Lane(Executors.newSingleThreadExecutor(senders));
+    }
+  }
+
+  /**
+   *  Buffers a single DataPoint for a Device and Sensor.
+   *
+   *  @param device The Device to write to.
+   *  @param sensor The Sensor to write to.
+   *  @param datapoint The DataPoint to write.
+   *  @return A future for the batch holding the DataPoint.
+   *  @throws IllegalStateException if the writer was closed.
+   *  @since 1.3.0
+   */
+  public WriteFuture write(Device device, Sensor sensor, DataPoint datapoint) {
+    return write(new WriteRequest().add(device, sensor, datapoint));
+  }
+
+  /**
+   *  Buffers all DataPoints of a WriteRequest.
+   *
+   *  <p>The points may end up in more than one batch. The returned future completes
+   *  once all of them are written and holds their merged {@link WriteResponse}.
+   *
+   *  @param request The DataPoints to write.
+   *  @return A future for the batches holding the DataPoints.
+   *  @throws IllegalStateException if the writer was closed.
+   *  @since 1.3.0
+   */
+  public synchronized WriteFuture write(WriteRequest request) {
+    checkNotNull(request);
+    checkOpen();
+    WriteFuture future = new WriteFuture();
+    for (WritableDataPoint point : request) {
+      append(point, future);
+    }
+    future.seal();
+    return future;
+  }
+
+  /**
+   *  Sends the buffered DataPoints without waiting for a batch limit.
+   *
+   *  @return A future that completes once the flushed batch, and every batch sent before it, is written.
+   *  @since 1.3.0
+   */
+  public synchronized WriteFuture flush() {
+    final WriteFuture future = new WriteFuture();
+    for (Lane lane : lanes) {
+      future.attach();
+      if (lane.open != null) {
+        lane.open.futures.add(future);
+        dispatch(lane);
+      } else if (!closed) {
+        // Nothing buffered; complete behind the batches already in flight
+        lane.sender.execute(new Runnable() {
+          public void run() {
+            completeEmpty(future);
+          }
+        });
+      } else {
+        completeEmpty(future);
+      }
+    }
+    future.seal();
+    return future;
+  }
+
+  /**
+   *  Writes any buffered DataPoints and waits for all pending batches to complete.
+   *  Further writes are rejected.
+   *  @since 1.3.0
+   */
+  public void close() {
+    synchronized(this) {
+      if (closed) {
+        return;
+      }
+      for (Lane lane : lanes) {
+        if (lane.open != null) {
+          dispatch(lane);
+        }
+      }
+      closed = true;
+    }
+    timer.shutdown();
+    for (Lane lane : lanes) {
+      lane.sender.shutdown();
+    }
+    try {
+      for (Lane lane : lanes) {
+        while (!lane.sender.awaitTermination(1, TimeUnit.SECONDS)) { }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("BatchWriter is closed.");
+    }
+  }
+
+  private Lane laneFor(Device device) {
+    int hash = device.getKey().hashCode();
+    // Spread the hash so keys differing only in their last characters use different lanes
+    hash ^= (hash >>> 16);
+    return lanes[(hash & Integer.MAX_VALUE) % lanes.length];
+  }
+
+  private void append(WritableDataPoint point, WriteFuture future) {
+    Lane lane = laneFor(point.getDevice());
+    if (lane.open == null) {
+      lane.open = new Batch();
+      scheduleLinger(lane, lane.open);
+    }
+    Batch open = lane.open;
+    open.request.add(point);
+    open.bytes += WriteSplitter.estimateBytes(point);
+    int last = open.futures.size() - 1;
+    if (last < 0 || open.futures.get(last) != future) {
+      future.attach();
+      open.futures.add(future);
+    }
+    if (open.request.size() >= maxPoints || open.bytes >= maxBytes) {
+      dispatch(lane);
+    }
+  }
+
+  private void scheduleLinger(final Lane lane, final Batch batch) {
+    lane.linger = timer.schedule(new Runnable() {
+      public void run() {
+        synchronized(BatchWriter.this) {
+          if (lane.open == batch) {
+            dispatch(lane);
+          }
+        }
+      }
+    }, lingerMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private void dispatch(Lane lane) {
+    final Batch batch = lane.open;
+    lane.open = null;
+    if (lane.linger != null) {
+      lane.linger.cancel(false);
+      lane.linger = null;
+    }
+    // A lane's sender runs one batch at a time, in dispatch order
+    lane.sender.execute(new Runnable() {
+      public void run() {
+        send(batch);
+      }
+    });
+  }
+
+  private void send(Batch batch) {
+    Result<WriteResponse> result;
+    try {
+      result = client.writeDataPoints(batch.request);
+    } catch (RuntimeException e) {
+      result = new Result<WriteResponse>(null, GENERIC_ERROR_CODE, e.getMessage());
+    }
+    for (WriteFuture future : batch.futures) {
+      future.complete(batch.request, result);
+    }
+  }
+
+  private static void completeEmpty(WriteFuture future) {
+    WriteResponse empty = new WriteResponse(new HashMap<String, DeviceStatus>());
+    future.complete(new WriteRequest(), new Result<WriteResponse>(empty, SUCCESS_CODE, "OK"));
+  }
+}
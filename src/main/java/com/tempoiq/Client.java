@@ -1,18 +1,33 @@
 package com.tempoiq;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.ByteArrayEntity;
 import org.joda.time.DateTime;
 
 import com.tempoiq.json.Json;
+import com.tempoiq.util.DaemonThreadFactory;
 import static com.tempoiq.util.Preconditions.*;
 
 /**
@@ -65,9 +80,37 @@ import static com.tempoiq.util.Preconditions.*;
 public class Client {
 
   private Executor runner;
+  private BatchWriter batchWriter = null;
+  private int batchMaxPoints = DEFAULT_BATCH_MAX_POINTS;
+  private long batchMaxBytes = DEFAULT_BATCH_MAX_BYTES;
+  private long batchLingerMillis = DEFAULT_BATCH_LINGER_MILLIS;
+  private int batchLanes = 1;
+  private WriteSplitter writeSplitter = null;
+  private int writeRetries = 0;
+  private long writeRetryBackoffMillis = 0;
+  private ExecutorService writePool = null;
+  private volatile WriteSpool writeSpool = null;
+  private Class<? extends RowSegment> rowSegmentClass = RowSegment.class;
+  private int readShards = DEFAULT_READ_SHARDS;
+  private QueryCache queryCache = null;
+  private RangeCache rangeCache = null;
+  private LatestValueCache latestCache = null;
+  private volatile SpoolReplayer spoolReplayer = null;
+
   public static final String VERSION = "1.2.0";
   private static final String API_VERSION2 = "v2";
   private static final int GENERIC_ERROR_CODE = 600;
+  private static final int SUCCESS_CODE = 200;
+  private static final int ACCEPTED_CODE = 202;
+  private static final int MULTI_STATUS_CODE = 207;
+  private static final int TOO_MANY_REQUESTS_CODE = 429;
+  static final int DEFAULT_BATCH_MAX_POINTS = 5000;
+  static final long DEFAULT_BATCH_MAX_BYTES = 1024 * 1024;  // 1 MB
+  static final long DEFAULT_BATCH_LINGER_MILLIS = 200;
+  static final int DEFAULT_READ_SHARDS = 4;
+  static final int MAX_WRITE_RETRIES = 20;
+  static final long MAX_RETRY_BACKOFF_MILLIS = 60 * 1000;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
 
   /**
    *  Base constructor for a Client object.
@@ -79,6 +122,7 @@ public class Client {
   public Client(Credentials credentials, InetSocketAddress host, String scheme) {
     checkArgument(scheme.equals("http") || scheme.equals("https"), "Scheme must be either \"http\" or \"https\".");
     this.runner = new Executor(credentials, host, scheme);
+    this.runner.ensureMaxConnections(readShards);
   }
 
   /**
@@ -192,7 +236,10 @@ public class Client {
       return result;
     }
 
-    return runner.put(uri, body, Device.class, contentType, mediaTypes);
+    Result<Device> updated = runner.put(uri, body, Device.class, contentType, mediaTypes);
+    // New attributes may change which devices a cached selection matches
+    invalidateRanges(Long.MIN_VALUE, Long.MAX_VALUE);
+    return updated;
   }
 
   /**
@@ -215,7 +262,13 @@ public class Client {
       throw new IllegalArgumentException(message, e);
     }
 
-    return runner.delete(uri, null, "", mediaTypes);
+    Result<DeleteSummary> result = runner.delete(uri, null, "", mediaTypes);
+    invalidateRanges(Long.MIN_VALUE, Long.MAX_VALUE);
+    LatestValueCache latest = this.latestCache;
+    if (latest != null) {
+      latest.forget(databaseKey(), device.getKey(), null);
+    }
+    return result;
   }
 
   /**
@@ -256,31 +309,39 @@ public class Client {
       return result;
     }
 
-    return runner.delete(uri, body, contentType, mediaTypes);
+    result = runner.delete(uri, body, contentType, mediaTypes);
+    invalidateRanges(Long.MIN_VALUE, Long.MAX_VALUE);
+    LatestValueCache latest = this.latestCache;
+    if (latest != null) {
+      // The deleted devices are not known here
+      latest.forget(databaseKey());
+    }
+    return result;
   }
 
   public Result<WriteResponse> writeDataPoints(Device device, MultiDataPoint data) {
     checkNotNull(device);
     checkNotNull(data);
-
-    WriteRequest wr = new WriteRequest();
-    for(Map.Entry<String, Number> entry : data.getData().entrySet()) {
-      wr.add(device, new Sensor(entry.getKey()), new DataPoint(data.getTimestamp(), entry.getValue()));
-    }
-
-    return writeDataPoints(wr);
+    return writeDataPoints(new DeviceWriteRequest(device, Collections.singletonList(data)));
   }
 
   public Result<WriteResponse> writeDataPoints(Device device, List<MultiDataPoint> data) {
     checkNotNull(device);
     checkNotNull(data);
-    WriteRequest wr = new WriteRequest();
-    for (MultiDataPoint point : data) {
-      for(Map.Entry<String, Number> entry : point.getData().entrySet()) {
-        wr.add(device, new Sensor(entry.getKey()), new DataPoint(point.getTimestamp(), entry.getValue()));
-      }
+    return writeDataPoints(new DeviceWriteRequest(device, data));
+  }
+
+  private Result<WriteResponse> writeDataPoints(DeviceWriteRequest request) {
+    WriteSplitter splitter = writeSplitter;
+    if (writeRetries > 0 || (splitter != null && splitter.exceedsLimits(request.size(), request.estimateBytes()))) {
+      // Retries and splitting work on individual DataPoints
+      return writeDataPoints(request.toWriteRequest());
+    }
+    Result<WriteResponse> spooled = spoolBehindPending(request);
+    if (spooled != null) {
+      return spooled;
     }
-    return writeDataPoints(wr);
+    return spoolOnFailure(request, postWrite(request, request.size()));
   }
 
   /**
@@ -299,9 +360,323 @@ public class Client {
    */
   public Result<WriteResponse> writeDataPoints(WriteRequest request) {
     checkNotNull(request);
+    Result<WriteResponse> spooled = spoolBehindPending(request);
+    if (spooled != null) {
+      return spooled;
+    }
+    Result<WriteResponse> result = sendWrite(request);
+    if (writeRetries > 0) {
+      result = retryFailedDevices(request, result);
+    }
+    return spoolOnFailure(request, result);
+  }
+
+  /**
+   *  Writes the datapoints of a {@link ColumnarWriteRequest} to multiple Devices and Sensor.
+   *
+   *  <p>This request can partially succeed. You should check the {@link Result#getState()} to check if the request was
+   *  successful. If the request was partially successful, the result's {@link WriteResponse} can be inspected to determine
+   *  what failed.
+   *
+   *  <p>Writes that are retried or split, as set with {@link ClientBuilder#retryFailedDevices}
+   *  and {@link ClientBuilder#splitWrites}, are sent as the equivalent {@link WriteRequest}.
+   *
+   *  @param request A ColumnarWriteRequest for the DataPoints to write.
+   *  @return {@link WriteResponse}
+   *
+   *  @see ColumnarWriteRequest
+   *  @since 1.3.0
+   */
+  public Result<WriteResponse> writeDataPoints(ColumnarWriteRequest request) {
+    checkNotNull(request);
+    WriteSplitter splitter = writeSplitter;
+    if (writeRetries > 0 || (splitter != null && splitter.exceedsLimits(request.size(), request.estimateBytes()))) {
+      // Retries and splitting work on individual DataPoints
+      return writeDataPoints(request.toWriteRequest());
+    }
+    Result<WriteResponse> spooled = spoolBehindPending(request);
+    if (spooled != null) {
+      return spooled;
+    }
+    return spoolOnFailure(request, postWrite(request, request.size()));
+  }
+
+  /**
+   *  While the spool holds writes, new writes are queued behind them to keep them in order.
+   *  Returns null if the write was not spooled.
+   */
+  private Result<WriteResponse> spoolBehindPending(Object request) {
+    WriteSpool spool = writeSpool;
+    if (spool == null || spool.isEmpty()) {
+      return null;
+    }
+    return spool(spool, request);
+  }
+
+  private Result<WriteResponse> spoolOnFailure(Object request, Result<WriteResponse> result) {
+    WriteSpool spool = writeSpool;
+    if (spool == null || !isTransientFailure(result)) {
+      return result;
+    }
+    Result<WriteResponse> spooled = spool(spool, request);
+    return spooled != null ? spooled : result;
+  }
+
+  private Result<WriteResponse> spool(WriteSpool spool, Object request) {
+    try {
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      Json.dump(request, body);
+      if (!spool.append(body.toByteArray())) {
+        return null;
+      }
+    } catch (IOException e) {
+      return null;
+    }
+    SpoolReplayer replayer = spoolReplayer;
+    if (replayer != null) {
+      replayer.wake();
+    }
+    Result<WriteResponse> accepted = new Result<WriteResponse>(new WriteResponse(new HashMap<String, DeviceStatus>()), ACCEPTED_CODE, "Accepted");
+    recordLatest(request, accepted);
+    return accepted;
+  }
+
+  /**
+   *  Returns true for failures that may succeed when retried: throttling, server and
+   *  connection errors.
+   */
+  static boolean isTransientFailure(Result<?> result) {
+    return result.getState() == State.FAILURE && (result.getCode() >= 500 || result.getCode() == TOO_MANY_REQUESTS_CODE);
+  }
+
+  /**
+   *  Writes a spooled request body as it was serialized.
+   */
+  Result<WriteResponse> postSpooled(byte[] body) {
+    String contentType = mediaType("write-request", "v1");
+    String[] mediaTypes = new String[] { mediaType("error", "v1") };
+    Result<WriteResponse> result = runner.write(writeUri(), new ByteArrayEntity(body), WriteResponse.class, contentType, mediaTypes);
+    if (rangeCache != null || latestCache != null) {
+      WriteRequest request = null;
+      try {
+        request = Json.loads(new String(body, UTF8), WriteRequest.class);
+      } catch (IOException e) {
+        invalidateRanges(Long.MIN_VALUE, Long.MAX_VALUE);
+        return result;
+      }
+      invalidateRanges(request);
+      recordLatest(request, result);
+    }
+    return result;
+  }
+
+  private Result<WriteResponse> sendWrite(WriteRequest request) {
+    WriteSplitter splitter = writeSplitter;
+    if (splitter != null && splitter.exceedsLimits(request)) {
+      return writeChunks(splitter.split(request));
+    }
+    return postWrite(request, request.size());
+  }
+
+  /**
+   *  Resends the points of failed devices with exponential backoff until every device
+   *  succeeded or the retries are used up. Devices that succeeded are never resent.
+   */
+  private Result<WriteResponse> retryFailedDevices(WriteRequest request, Result<WriteResponse> result) {
+    HashMap<String, DeviceStatus> statuses = new HashMap<String, DeviceStatus>();
+    WriteRequest pending = request;
+    Result<WriteResponse> last = result;
+    for (int attempt = 0; ; attempt++) {
+      if (last.getValue() != null) {
+        statuses.putAll(last.getValue().getStatuses());
+      }
+      if (last.getState() == State.SUCCESS) {
+        pending = new WriteRequest();
+        break;
+      } else if (last.getState() == State.PARTIAL_SUCCESS) {
+        pending = pending.forDevices(last.getValue().getFailures().keySet());
+      } else {
+        DeviceStatus failed = new DeviceStatus(null, false, last.getMessage());
+        for (WritableDataPoint point : pending) {
+          statuses.put(point.getDevice().getKey(), failed);
+        }
+        if (!isTransientFailure(last)) {
+          break;
+        }
+      }
+
+      if (attempt >= writeRetries || pending.size() == 0) {
+        break;
+      }
+      try {
+        Thread.sleep(retryBackoffMillis(writeRetryBackoffMillis, attempt));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      last = sendWrite(pending);
+    }
+
+    WriteResponse response = new WriteResponse(statuses, pending);
+    if (pending.size() == 0) {
+      return new Result<WriteResponse>(response, SUCCESS_CODE, "OK");
+    } else if (!response.getFailures().keySet().containsAll(statuses.keySet())) {
+      return new Result<WriteResponse>(response, MULTI_STATUS_CODE, "Multi-Status");
+    } else {
+      return new Result<WriteResponse>(response, last.getCode(), last.getMessage());
+    }
+  }
+
+  /**
+   *  Returns the wait before a retry: the base wait doubled per earlier retry, capped
+   *  at {@link #MAX_RETRY_BACKOFF_MILLIS}.
+   */
+  static long retryBackoffMillis(long baseMillis, int attempt) {
+    long delay = baseMillis;
+    for (int i = 0; i < attempt && delay < MAX_RETRY_BACKOFF_MILLIS; i++) {
+      delay <<= 1;
+    }
+    return Math.min(delay, MAX_RETRY_BACKOFF_MILLIS);
+  }
+
+  /**
+   *  Writes the chunks concurrently, except that the chunks of a device spread over
+   *  several are written one after the other on the same thread, in order.
+   */
+  private Result<WriteResponse> writeChunks(List<WriteRequest> chunks) {
+    List<List<WriteRequest>> runs = WriteSplitter.runs(chunks);
+    List<Future<List<Result<WriteResponse>>>> futures = new ArrayList<Future<List<Result<WriteResponse>>>>(runs.size());
+    for (final List<WriteRequest> run : runs) {
+      futures.add(writePool.submit(new Callable<List<Result<WriteResponse>>>() {
+        public List<Result<WriteResponse>> call() {
+          List<Result<WriteResponse>> results = new ArrayList<Result<WriteResponse>>(run.size());
+          for (WriteRequest chunk : run) {
+            results.add(postWrite(chunk, chunk.size()));
+          }
+          return results;
+        }
+      }));
+    }
+
+    WriteResults merged = new WriteResults();
+    for (int i = 0; i < runs.size(); i++) {
+      List<WriteRequest> run = runs.get(i);
+      try {
+        List<Result<WriteResponse>> results = futures.get(i).get();
+        for (int j = 0; j < run.size(); j++) {
+          merged.add(run.get(j), results.get(j));
+        }
+      } catch (ExecutionException e) {
+        Result<WriteResponse> failed = new Result<WriteResponse>(null, GENERIC_ERROR_CODE, e.getCause().getMessage());
+        for (WriteRequest chunk : run) {
+          merged.add(chunk, failed);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        Result<WriteResponse> failed = new Result<WriteResponse>(null, GENERIC_ERROR_CODE, "Interrupted while writing.");
+        for (WriteRequest chunk : run) {
+          merged.add(chunk, failed);
+        }
+      }
+    }
+    return merged.toResult();
+  }
+
+  private Result<WriteResponse> postWrite(Object request, int points) {
     String contentType = mediaType("write-request", "v1");
     String[] mediaTypes = new String[] { mediaType("error", "v1") };
 
+    // The body is serialized while it is sent; a serialization error surfaces as an IOException result
+    JsonEntity entity = new JsonEntity(request, (long)points * WriteSplitter.ESTIMATED_POINT_BYTES);
+    Result<WriteResponse> result = runner.write(writeUri(), entity, WriteResponse.class, contentType, mediaTypes);
+    invalidateRanges(request);
+    recordLatest(request, result);
+    return result;
+  }
+
+  /**
+   *  Writes through the values of the devices that were written successfully.
+   */
+  private void recordLatest(Object request, Result<WriteResponse> result) {
+    LatestValueCache cache = this.latestCache;
+    if (cache == null || result.getValue() == null || result.getCode() / 100 != 2) {
+      return;
+    }
+    String database = databaseKey();
+    Map<String, DeviceStatus> statuses = result.getValue().getStatuses();
+    if (request instanceof WriteRequest) {
+      for (WritableDataPoint point : (WriteRequest)request) {
+        if (isWritten(statuses, point.getDevice().getKey())) {
+          cache.record(database, point.getDevice().getKey(), point.getSensor().getKey(), point.getTimestamp().getMillis(), point.getValue());
+        }
+      }
+    } else if (request instanceof DeviceWriteRequest) {
+      DeviceWriteRequest write = (DeviceWriteRequest)request;
+      String deviceKey = write.getDevice().getKey();
+      if (isWritten(statuses, deviceKey)) {
+        for (MultiDataPoint point : write.getData()) {
+          long timestamp = point.getTimestamp().getMillis();
+          for (Map.Entry<String, Number> value : point.getData().entrySet()) {
+            cache.record(database, deviceKey, value.getKey(), timestamp, value.getValue());
+          }
+        }
+      }
+    } else if (request instanceof ColumnarWriteRequest) {
+      ColumnarWriteRequest write = (ColumnarWriteRequest)request;
+      for (int i = 0; i < write.size(); i++) {
+        int stream = write.getStream(i);
+        if (isWritten(statuses, write.getStreamDeviceKey(stream))) {
+          cache.record(database, write.getStreamDeviceKey(stream), write.getStreamSensorKey(stream), write.getTimestamp(i), write.getValue(i));
+        }
+      }
+    }
+  }
+
+  /**
+   *  Drops the cached ranges that hold the times of a write. This is done whatever the
+   *  result, since a failed write may still have stored some of its points.
+   */
+  private void invalidateRanges(Object request) {
+    if (rangeCache == null) {
+      return;
+    }
+    long min = Long.MAX_VALUE;
+    long max = Long.MIN_VALUE;
+    if (request instanceof WriteRequest) {
+      for (WritableDataPoint point : (WriteRequest)request) {
+        min = Math.min(min, point.getTimestamp().getMillis());
+        max = Math.max(max, point.getTimestamp().getMillis());
+      }
+    } else if (request instanceof DeviceWriteRequest) {
+      for (MultiDataPoint point : ((DeviceWriteRequest)request).getData()) {
+        min = Math.min(min, point.getTimestamp().getMillis());
+        max = Math.max(max, point.getTimestamp().getMillis());
+      }
+    } else if (request instanceof ColumnarWriteRequest) {
+      ColumnarWriteRequest write = (ColumnarWriteRequest)request;
+      for (int i = 0; i < write.size(); i++) {
+        min = Math.min(min, write.getTimestamp(i));
+        max = Math.max(max, write.getTimestamp(i));
+      }
+    }
+    if (min <= max) {
+      invalidateRanges(min, max);
+    }
+  }
+
+  private void invalidateRanges(long start, long stop) {
+    RangeCache ranges = this.rangeCache;
+    if (ranges != null) {
+      ranges.invalidate(queryCacheKey(URI.create(String.format("/%s/read/", API_VERSION2))), start, stop);
+    }
+  }
+
+  private static boolean isWritten(Map<String, DeviceStatus> statuses, String deviceKey) {
+    DeviceStatus status = statuses == null ? null : statuses.get(deviceKey);
+    return status == null || status.getSuccess();
+  }
+
+  private URI writeUri() {
     URI uri = null;
     try {
       URIBuilder builder = new URIBuilder(String.format("/%s/write/", API_VERSION2));
@@ -310,18 +685,138 @@ public class Client {
       String message = "Could not build URI.";
       throw new IllegalArgumentException(message, e);
     }
+    return uri;
+  }
 
-    Result<WriteResponse> result = null;
-    String body = null;
-    try {
-      body = Json.dumps(request.asMap());
-    } catch (JsonProcessingException e) {
-      String message = "Error serializing the body of the request. More detail: " + e.getMessage();
-      result = new Result<WriteResponse>(null, GENERIC_ERROR_CODE, message);
-      return result;
+  /**
+   *  Returns the client's {@link BatchWriter}, creating it on first use.
+   *
+   *  <p>The writer's batch limits are set with {@link ClientBuilder#batching(int, long, long)} and
+   *  its number of concurrent lanes with {@link ClientBuilder#batchLanes(int)}.
+   *
+   *  @return The client's BatchWriter.
+   *  @see BatchWriter
+   *  @since 1.3.0
+   */
+  public synchronized BatchWriter getBatchWriter() {
+    if (batchWriter == null) {
+      batchWriter = new BatchWriter(this, batchMaxPoints, batchMaxBytes, batchLingerMillis, batchLanes);
     }
+    return batchWriter;
+  }
 
-    return runner.post(uri, body, WriteResponse.class, contentType, mediaTypes);
+  /**
+   *  Stops the client's background work. Writes buffered in the {@link BatchWriter} are sent
+   *  first, then the write spool stops replaying and its files are closed. Records left in
+   *  the spool are replayed by the next Client built on the same directory.
+   *
+   *  <p>The client must not be used for writes after it is closed.
+   *
+   *  @throws IOException If the write spool could not be closed.
+   *  @since 1.3.0
+   */
+  public void close() throws IOException {
+    BatchWriter writer;
+    synchronized(this) {
+      writer = batchWriter;
+    }
+    if (writer != null) {
+      // Sent through the splitter and the spool, which are still open
+      writer.close();
+    }
+
+    ExecutorService pool;
+    SpoolReplayer replayer;
+    WriteSpool spool;
+    synchronized(this) {
+      pool = writePool;
+      replayer = spoolReplayer;
+      spool = writeSpool;
+      this.writePool = null;
+      this.writeSplitter = null;
+      this.spoolReplayer = null;
+      this.writeSpool = null;
+    }
+    if (pool != null) {
+      pool.shutdown();
+    }
+    if (replayer != null) {
+      replayer.shutdown();
+    }
+    if (spool != null) {
+      spool.close();
+    }
+  }
+
+  synchronized void setBatching(int maxPoints, long maxBytes, long lingerMillis) {
+    checkArgument(batchWriter == null, "Batching must be configured before the BatchWriter is created.");
+    this.batchMaxPoints = maxPoints;
+    this.batchMaxBytes = maxBytes;
+    this.batchLingerMillis = lingerMillis;
+  }
+
+  synchronized void setBatchLanes(int lanes) {
+    checkArgument(batchWriter == null, "Batching must be configured before the BatchWriter is created.");
+    checkArgument(lanes > 0, "lanes must be positive.");
+    this.batchLanes = lanes;
+    this.runner.ensureMaxConnections(lanes);
+  }
+
+  synchronized void setWriteSplitting(int maxPoints, long maxBytes, int parallelism) {
+    checkArgument(parallelism > 0, "parallelism must be positive.");
+    if (writePool != null) {
+      writePool.shutdown();
+    }
+    this.writePool = Executors.newFixedThreadPool(parallelism, new DaemonThreadFactory("write"));
+    this.writeSplitter = new WriteSplitter(maxPoints, maxBytes);
+    this.runner.ensureMaxConnections(parallelism);
+  }
+
+  synchronized void setWriteRetries(int retries, long backoffMillis) {
+    this.writeRetries = retries;
+    this.writeRetryBackoffMillis = backoffMillis;
+  }
+
+  synchronized void setWriteSpool(File directory, long maxBytes, SpoolSync sync, long retryMillis, SpoolListener listener) throws IOException {
+    checkArgument(writeSpool == null, "The write spool is already configured.");
+    WriteSpool spool = new WriteSpool(directory, maxBytes, sync);
+    this.spoolReplayer = new SpoolReplayer(this, spool, retryMillis, listener);
+    this.writeSpool = spool;
+    if (!spool.isEmpty()) {
+      // Replay what a previous process left behind
+      spoolReplayer.wake();
+    }
+  }
+
+  void setWriteLimiting(int maxConcurrency, double maxRequestsPerSecond) {
+    this.runner.setWriteLimiter(new WriteLimiter(maxConcurrency, maxRequestsPerSecond));
+    this.runner.ensureMaxConnections(maxConcurrency);
+  }
+
+  void setReadShards(int shards) {
+    checkArgument(shards > 0, "shards must be positive.");
+    this.readShards = shards;
+    this.runner.ensureMaxConnections(shards);
+  }
+
+  void setQueryCache(QueryCache cache) {
+    this.queryCache = cache;
+  }
+
+  void setRangeCache(RangeCache cache) {
+    this.rangeCache = cache;
+  }
+
+  void setLatestValueCache(LatestValueCache cache) {
+    this.latestCache = cache;
+  }
+
+  void setColumnarRows(boolean columnar) {
+    this.rowSegmentClass = columnar ? ColumnarRowSegment.class : RowSegment.class;
+  }
+
+  void setRequestCompression(long threshold) {
+    this.runner.setRequestCompression(threshold);
   }
 
   public DeviceCursor listDevices(Selection selection) {
@@ -359,6 +854,23 @@ public class Client {
     return new DeviceCursor(result, this.runner, uri, contentType, mediaTypes);
   }
 
+  /**
+   *  Publishes the devices of {@link #listDevices(Selection)} as they are requested.
+   *  The query is sent on first demand, and each later page is fetched only when the
+   *  demand goes past the devices already fetched. Every subscription sends a new query.
+   *  @param selection The devices to list.
+   *  @return The publisher of the Devices.
+   *  @since 1.3.0
+   */
+  public Publisher<Device> publishDevices(final Selection selection) {
+    checkNotNull(selection);
+    return new PagePublisher<Device>(new PagePublisher.PageSource<Device>() {
+      public Iterator<Segment<Device>> open() {
+        return listDevices(selection).pages();
+      }
+    });
+  }
+
   public DataPointRowCursor read(Selection selection, Pipeline pipeline, DateTime start, DateTime stop, Integer limit) {
     checkNotNull(selection);
     checkNotNull(start);
@@ -375,20 +887,97 @@ public class Client {
       throw new IllegalArgumentException(message, e);
     }
 
+    RangeCache ranges = this.rangeCache;
+    if (ranges != null && limit == null) {
+      DataPointRowCursor cursor = readThroughRangeCache(ranges, selection, pipeline, start, stop, uri, contentType, mediaTypes);
+      if (cursor != null) {
+        return cursor;
+      }
+    }
+
     Query query = new Query(
       new QuerySearch(Selector.Type.DEVICES, selection),
       pipeline,
       new ReadAction(start, stop, limit));
-    Result<RowSegment> result = null;
+    Result<? extends RowSegment> result = null;
     String body = null;
     try {
       body = Json.dumps(query);
-      result = runner.get(uri, body, RowSegment.class, contentType, mediaTypes);
     } catch (JsonProcessingException e) {
       String message = "Error serializing the body of the request. More detail: " + e.getMessage();
       result = new Result<RowSegment>(null, GENERIC_ERROR_CODE, message);
+      return new DataPointRowCursor(result, this.runner, uri, contentType, mediaTypes);
     }
-    return new DataPointRowCursor(result, this.runner, uri, contentType, mediaTypes);
+
+    // A range that has ended can no longer change
+    QueryCache cache = this.queryCache;
+    if (cache == null || stop.isAfterNow()) {
+      result = runner.get(uri, body, rowSegmentClass, contentType, mediaTypes);
+      return new DataPointRowCursor(result, this.runner, uri, contentType, mediaTypes);
+    }
+
+    String keyPrefix = queryCacheKey(uri);
+    RowSegment cached = cache.get(keyPrefix + body);
+    if (cached != null && rowSegmentClass.isInstance(cached)) {
+      result = new Result<RowSegment>(cached, SUCCESS_CODE, "OK");
+    } else {
+      result = runner.get(uri, body, rowSegmentClass, contentType, mediaTypes);
+      if (result.getState() == State.SUCCESS) {
+        cache.put(keyPrefix + body, result.getValue());
+      }
+    }
+    return new DataPointRowCursor(result, this.runner, uri, contentType, mediaTypes).withQueryCache(cache, keyPrefix);
+  }
+
+  /**
+   *  Serves a read from the range cache, requesting only the uncovered gaps and the
+   *  unsettled tail as the iteration reaches them. Returns null when the read cannot
+   *  use the cache.
+   */
+  private DataPointRowCursor readThroughRangeCache(RangeCache ranges, Selection selection, Pipeline pipeline,
+                                                   DateTime start, DateTime stop,
+                                                   URI uri, String contentType, String[] mediaTypes) {
+    DateTime settled = DateTime.now(start.getZone()).minus(ranges.getSettleMillis());
+    Rollup rollup = ShardedRowCursor.lastRollup(pipeline);
+    if (rollup != null) {
+      // A partial bucket at either end would be cached as if it were complete
+      if (ShardedRowCursor.floor(start, rollup).getMillis() != start.getMillis() ||
+          ShardedRowCursor.floor(stop, rollup).getMillis() != stop.getMillis()) {
+        return null;
+      }
+      settled = ShardedRowCursor.floor(settled, rollup);
+    }
+    DateTime cacheStop = stop.isBefore(settled) ? stop : settled;
+    if (!cacheStop.isAfter(start)) {
+      return null;
+    }
+
+    String key = null;
+    try {
+      key = queryCacheKey(uri) + Json.dumps(new QuerySearch(Selector.Type.DEVICES, selection)) +
+        " " + (pipeline == null ? "" : Json.dumps(pipeline));
+    } catch (JsonProcessingException e) {
+      return null;
+    }
+
+    return new RangeCacheCursor(ranges, key, selection, pipeline, start, cacheStop, stop,
+                                this.runner, uri, rowSegmentClass, contentType, mediaTypes);
+  }
+
+  /**
+   *  Keeps databases apart in a shared {@link LatestValueCache}: the endpoint and the
+   *  credentials key.
+   */
+  private String databaseKey() {
+    return String.format("%s %s\n", runner.getTarget().toURI(), runner.getCredentials().getKey());
+  }
+
+  /**
+   *  The part of a query cache key before the query: the full endpoint, and the
+   *  credentials key to keep databases apart in a shared cache.
+   */
+  private String queryCacheKey(URI uri) {
+    return String.format("%s%s %s\n", runner.getTarget().toURI(), uri, runner.getCredentials().getKey());
   }
 
   public DataPointRowCursor read(Selection selection, DateTime start, DateTime stop) {
@@ -403,6 +992,117 @@ public class Client {
     return read(selection, new Pipeline(), start, stop, limit);
   }
 
+  /**
+   *  Reads like {@link #read(Selection, Pipeline, DateTime, DateTime)}, but splits
+   *  <tt>[start, stop)</tt> into time shards that are read concurrently. The number of
+   *  shards is set with {@link ClientBuilder#shardReads(int)} and defaults to 4.
+   *  @param selection The devices and sensors to read.
+   *  @param pipeline The pipeline to apply.
+   *  @param start The start of the read.
+   *  @param stop The end of the read.
+   *  @return The Rows of every shard, in timestamp order.
+   *  @see ShardedRowCursor
+   *  @since 1.3.0
+   */
+  public ShardedRowCursor readSharded(Selection selection, Pipeline pipeline, DateTime start, DateTime stop) {
+    return readSharded(selection, pipeline, start, stop, readShards);
+  }
+
+  /**
+   *  Reads <tt>[start, stop)</tt> as up to <tt>shards</tt> time shards of about equal
+   *  length, each with its own paging chain, and returns their Rows in timestamp order.
+   *  When the pipeline has a rollup, shards start on the boundary of a rollup period, so
+   *  no period is split between two shards. Nothing is requested until the cursor is
+   *  iterated, and errors of the shards are thrown then. A query that cannot be
+   *  serialized is thrown right away, as by {@link #read(Selection, Pipeline, DateTime, DateTime)}.
+   *
+   *  <p>The connection pool is sized once, for the number of shards set with
+   *  {@link ClientBuilder#shardReads(int)}, so a larger <tt>shards</tt> is capped to it.
+   *  @param selection The devices and sensors to read.
+   *  @param pipeline The pipeline to apply.
+   *  @param start The start of the read.
+   *  @param stop The end of the read.
+   *  @param shards The maximum number of shards, capped to the configured number.
+   *  @return The Rows of every shard, in timestamp order.
+   *  @throws TempoIQException If the query cannot be serialized.
+   *  @see ShardedRowCursor
+   *  @since 1.3.0
+   */
+  public ShardedRowCursor readSharded(Selection selection, Pipeline pipeline, DateTime start, DateTime stop, int shards) {
+    checkNotNull(selection);
+    checkNotNull(start);
+    checkNotNull(stop);
+    checkArgument(shards > 0, "shards must be positive.");
+    String contentType = mediaType("query", "v1");
+    String[] mediaTypes = new String[] { mediaType("datapoint-collection", "v2"), mediaType("error", "v1") };
+
+    URI uri = null;
+    try {
+      URIBuilder builder = new URIBuilder(String.format("/%s/read/", API_VERSION2));
+      uri = builder.build();
+    } catch (URISyntaxException e) {
+      String message = "Could not build URI.";
+      throw new IllegalArgumentException(message, e);
+    }
+
+    List<DateTime> boundaries = ShardedRowCursor.boundaries(start, stop, Math.min(shards, readShards), ShardedRowCursor.lastRollup(pipeline));
+    List<String> bodies = new ArrayList<String>(boundaries.size() - 1);
+    for (int i = 0; i < boundaries.size() - 1; i++) {
+      Query query = new Query(
+        new QuerySearch(Selector.Type.DEVICES, selection),
+        pipeline,
+        new ReadAction(boundaries.get(i), boundaries.get(i + 1)));
+      try {
+        bodies.add(Json.dumps(query));
+      } catch (JsonProcessingException e) {
+        String message = "Error serializing the body of the request. More detail: " + e.getMessage();
+        throw new TempoIQException(message, e, GENERIC_ERROR_CODE);
+      }
+    }
+    return new ShardedRowCursor(bodies, this.runner, uri, rowSegmentClass, contentType, mediaTypes);
+  }
+
+  /**
+   *  Publishes the Rows of {@link #read(Selection, Pipeline, DateTime, DateTime)} as
+   *  they are requested. The query is sent on first demand, and each later page is
+   *  fetched only when the demand goes past the Rows already fetched. Every subscription
+   *  sends a new query.
+   *  @param selection The devices and sensors to read.
+   *  @param pipeline The pipeline to apply.
+   *  @param start The start of the read.
+   *  @param stop The end of the read.
+   *  @return The publisher of the Rows.
+   *  @since 1.3.0
+   */
+  public Publisher<Row> publishRead(final Selection selection, final Pipeline pipeline, final DateTime start, final DateTime stop) {
+    checkNotNull(selection);
+    checkNotNull(start);
+    checkNotNull(stop);
+    return new PagePublisher<Row>(new PagePublisher.PageSource<Row>() {
+      public Iterator<Segment<Row>> open() {
+        return read(selection, pipeline, start, stop).pages();
+      }
+    });
+  }
+
+  /**
+   *  Publishes the Rows of {@link #single(Selection, Pipeline, Single)} as they are
+   *  requested, like {@link #publishRead(Selection, Pipeline, DateTime, DateTime)}.
+   *  @param selection The devices and sensors to read.
+   *  @param pipeline The pipeline to apply.
+   *  @param action The single point to find.
+   *  @return The publisher of the Rows.
+   *  @since 1.3.0
+   */
+  public Publisher<Row> publishSingle(final Selection selection, final Pipeline pipeline, final Single action) {
+    checkNotNull(selection);
+    return new PagePublisher<Row>(new PagePublisher.PageSource<Row>() {
+      public Iterator<Segment<Row>> open() {
+        return single(selection, pipeline, action).pages();
+      }
+    });
+  }
+
   public DataPointRowCursor latest(Selection selection, Pipeline pipeline) {
     return single(selection, pipeline, new Single());
   }
@@ -430,18 +1130,46 @@ public class Client {
             pipeline,
             action);
 
-    Result<RowSegment> result = null;
+    Result<? extends RowSegment> result = null;
     String body = null;
     try {
       body = Json.dumps(query);
-      result = runner.get(uri, body, RowSegment.class, contentType, mediaTypes);
     } catch (JsonProcessingException e) {
       String message = "Error serializing the body of the request. More detail: " + e.getMessage();
       result = new Result<RowSegment>(null, GENERIC_ERROR_CODE, message);
+      return new DataPointRowCursor(result, this.runner, uri, contentType, mediaTypes);
+    }
+
+    LatestValueCache cache = isPlainLatest(pipeline, action) ? this.latestCache : null;
+    if (cache != null) {
+      List<Row> rows = cache.lookup(databaseKey(), queryCacheKey(uri) + body, System.currentTimeMillis());
+      if (rows != null) {
+        result = new Result<RowSegment>(new RowSegment(rows, ""), SUCCESS_CODE, "OK");
+        return new DataPointRowCursor(result, this.runner, uri, contentType, mediaTypes);
+      }
+    }
+
+    long requested = System.currentTimeMillis();
+    result = runner.get(uri, body, rowSegmentClass, contentType, mediaTypes);
+    if (cache != null && result.getState() == State.SUCCESS && result.getValue() != null && isLastPage(result.getValue())) {
+      cache.refresh(databaseKey(), queryCacheKey(uri) + body, result.getValue().getData(), requested);
     }
     return new DataPointRowCursor(result, this.runner, uri, contentType, mediaTypes);
   }
 
+  private static boolean isLastPage(Segment<?> segment) {
+    return segment.getNext() == null || segment.getNext().isEmpty();
+  }
+
+  /**
+   *  Returns true for a query of the latest value of each stream, with no function
+   *  applied; only those can be answered from the values written through.
+   */
+  private static boolean isPlainLatest(Pipeline pipeline, Single action) {
+    return action.getFunction() == DirectionFunction.LATEST && action.getTimestamp() == null &&
+      action.getLimit() == null && (pipeline == null || pipeline.getFunctions().isEmpty());
+  }
+
   public Result<DeleteSummary> deleteDataPoints(Device device, Sensor sensor, DateTime start, DateTime stop) {
     checkNotNull(device);
     checkNotNull(sensor);
@@ -469,7 +1197,13 @@ public class Client {
       result = new Result<DeleteSummary>(null, GENERIC_ERROR_CODE, message);
       return result;
     }
-    return runner.delete(uri, body, "", mediaTypes);
+    result = runner.delete(uri, body, "", mediaTypes);
+    invalidateRanges(start.getMillis(), stop.getMillis());
+    LatestValueCache latest = this.latestCache;
+    if (latest != null) {
+      latest.forget(databaseKey(), device.getKey(), sensor.getKey());
+    }
+    return result;
   }
 
   public void setHttpClient(HttpClient client) { this.runner.setHttpClient(client); }
@@ -1,5 +1,7 @@
 package com.tempoiq;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 
 import static com.tempoiq.util.Preconditions.*;
@@ -33,12 +35,51 @@ import static com.tempoiq.util.Preconditions.*;
  */
 public class ClientBuilder {
 
+  // Connection
   private Credentials credentials;
   private InetSocketAddress host;
   private String scheme;
+  private long compressionThreshold;
+
+  // Batching
+  private int batchMaxPoints;
+  private long batchMaxBytes;
+  private long batchLingerMillis;
+  private int batchLanes;
+
+  // Write splitting
+  private boolean splitEnabled;
+  private int splitMaxPoints;
+  private long splitMaxBytes;
+  private int splitParallelism;
+
+  // Write retries
+  private int writeRetries;
+  private long writeRetryBackoffMillis;
+
+  // Write limiting
+  private boolean limitEnabled;
+  private int limitMaxConcurrency;
+  private double limitMaxRequestsPerSecond;
+
+  // Write spool
+  private File spoolDirectory;
+  private long spoolMaxBytes;
+  private SpoolSync spoolSync;
+  private long spoolRetryMillis;
+  private SpoolListener spoolListener;
+
+  // Reads
+  private boolean columnarRows;
+  private int readShards;
+  private QueryCache queryCache;
+  private RangeCache rangeCache;
+  private LatestValueCache latestValueCache;
 
   private static final InetSocketAddress DEFAULT_HOST = new InetSocketAddress("api.tempo-db.com", 443);
   private static final String DEFAULT_SCHEME = "https";
+  private static final long NO_COMPRESSION = -1;
+  private static final long DEFAULT_SPOOL_RETRY_MILLIS = 1000;
 
   /**
    *  Base constructor.
@@ -48,6 +89,36 @@ public class ClientBuilder {
     this.credentials = null;
     this.host = DEFAULT_HOST;
     this.scheme = DEFAULT_SCHEME;
+    this.compressionThreshold = NO_COMPRESSION;
+
+    this.batchMaxPoints = Client.DEFAULT_BATCH_MAX_POINTS;
+    this.batchMaxBytes = Client.DEFAULT_BATCH_MAX_BYTES;
+    this.batchLingerMillis = Client.DEFAULT_BATCH_LINGER_MILLIS;
+    this.batchLanes = 1;
+
+    this.splitEnabled = false;
+    this.splitMaxPoints = 0;
+    this.splitMaxBytes = 0;
+    this.splitParallelism = 0;
+
+    this.writeRetries = 0;
+    this.writeRetryBackoffMillis = 0;
+
+    this.limitEnabled = false;
+    this.limitMaxConcurrency = 0;
+    this.limitMaxRequestsPerSecond = 0;
+
+    this.spoolDirectory = null;
+    this.spoolMaxBytes = 0;
+    this.spoolSync = null;
+    this.spoolRetryMillis = DEFAULT_SPOOL_RETRY_MILLIS;
+    this.spoolListener = null;
+
+    this.columnarRows = false;
+    this.readShards = Client.DEFAULT_READ_SHARDS;
+    this.queryCache = null;
+    this.rangeCache = null;
+    this.latestValueCache = null;
   }
 
  /**
@@ -82,6 +153,228 @@ public class ClientBuilder {
     return this;
   }
 
+  /**
+   *  Sets the limits of the client's {@link BatchWriter}. A batch is written as soon as
+   *  one of the limits is reached. Defaults to 5000 points, 1 MB and 200 milliseconds.
+   *  @param maxPoints Maximum number of DataPoints in a batch.
+   *  @param maxBytes Maximum estimated size of a batch body in bytes.
+   *  @param lingerMillis Maximum time a DataPoint waits in a batch.
+   *  @since 1.3.0
+   */
+  public ClientBuilder batching(int maxPoints, long maxBytes, long lingerMillis) {
+    checkArgument(maxPoints > 0, "maxPoints must be positive.");
+    checkArgument(maxBytes > 0, "maxBytes must be positive.");
+    checkArgument(lingerMillis >= 0, "lingerMillis must not be negative.");
+    this.batchMaxPoints = maxPoints;
+    this.batchMaxBytes = maxBytes;
+    this.batchLingerMillis = lingerMillis;
+    return this;
+  }
+
+  /**
+   *  Sets the number of lanes of the client's {@link BatchWriter}. Devices are hashed to
+   *  lanes; each lane batches separately and has one write request in flight, so the
+   *  points of a Device are written in order. Defaults to 1.
+   *  @param lanes Number of concurrent write requests.
+   *  @since 1.3.0
+   */
+  public ClientBuilder batchLanes(int lanes) {
+    checkArgument(lanes > 0, "lanes must be positive.");
+    this.batchLanes = lanes;
+    return this;
+  }
+
+  /**
+   *  Gzips request bodies of at least <tt>thresholdBytes</tt> and sets their
+   *  Content-Encoding. Bodies are compressed while they are sent, so compression does
+   *  not buffer the body. Streamed write requests are judged by their estimated size.
+   *  Disabled by default.
+   *  @param thresholdBytes Minimum body size to compress.
+   *  @since 1.3.0
+   */
+  public ClientBuilder compressRequests(long thresholdBytes) {
+    checkArgument(thresholdBytes >= 0, "thresholdBytes must not be negative.");
+    this.compressionThreshold = thresholdBytes;
+    return this;
+  }
+
+  /**
+   *  Splits WriteRequests that exceed <tt>maxPoints</tt> DataPoints or an estimated
+   *  <tt>maxBytes</tt> into device-aligned chunks, written with up to <tt>parallelism</tt>
+   *  concurrent requests. A device too large for one chunk is spread over consecutive
+   *  chunks that are written one after the other, so its points land in order. The
+   *  per-device statuses of all chunks are merged into a single {@link WriteResponse}.
+   *  Disabled by default.
+   *  @param maxPoints Maximum number of DataPoints per request.
+   *  @param maxBytes Maximum estimated body size per request.
+   *  @param parallelism Maximum number of chunks written concurrently.
+   *  @since 1.3.0
+   */
+  public ClientBuilder splitWrites(int maxPoints, long maxBytes, int parallelism) {
+    checkArgument(maxPoints > 0, "maxPoints must be positive.");
+    checkArgument(maxBytes > 0, "maxBytes must be positive.");
+    checkArgument(parallelism > 0, "parallelism must be positive.");
+    this.splitEnabled = true;
+    this.splitMaxPoints = maxPoints;
+    this.splitMaxBytes = maxBytes;
+    this.splitParallelism = parallelism;
+    return this;
+  }
+
+  /**
+   *  Retries the failed devices of a partially successful write. Only the DataPoints
+   *  of the devices listed in {@link WriteResponse#getFailures()} are resent, waiting
+   *  <tt>backoffMillis</tt> before the first retry and doubling the wait after each one,
+   *  up to one minute. Writes that fail outright with a server or connection error are retried as a whole.
+   *  The final {@link WriteResponse#getUnwritten()} holds the DataPoints that never landed,
+   *  also when every device failed.
+   *  Disabled by default.
+   *  @param maxRetries Maximum number of retries, at most 20.
+   *  @param backoffMillis Wait before the first retry, at most one minute.
+   *  @since 1.3.0
+   */
+  public ClientBuilder retryFailedDevices(int maxRetries, long backoffMillis) {
+    checkArgument(maxRetries >= 0, "maxRetries must not be negative.");
+    checkArgument(maxRetries <= Client.MAX_WRITE_RETRIES, "maxRetries must be at most " + Client.MAX_WRITE_RETRIES + ".");
+    checkArgument(backoffMillis >= 0, "backoffMillis must not be negative.");
+    checkArgument(backoffMillis <= Client.MAX_RETRY_BACKOFF_MILLIS, "backoffMillis must be at most " + Client.MAX_RETRY_BACKOFF_MILLIS + ".");
+    this.writeRetries = maxRetries;
+    this.writeRetryBackoffMillis = backoffMillis;
+    return this;
+  }
+
+  /**
+   *  Keeps writes that fail with a server or connection error in a write-ahead spool on
+   *  disk instead of returning the failure. Such writes return a 202 Accepted result with
+   *  an empty {@link WriteResponse}; a background thread resends them in order once the
+   *  endpoint recovers. While the spool holds writes, new writes are queued behind them.
+   *  When the spool is full, failures are returned as before.
+   *
+   *  <p>Writes left in the spool by a previous process are resent when the client is built.
+   *  Call {@link Client#close()} to stop the spool's thread and close its files.
+   *  Disabled by default.
+   *  @param directory Directory for the spool's segment files.
+   *  @param maxBytes Maximum size of the spool on disk.
+   *  @param sync When segment files are forced to disk.
+   *  @since 1.3.0
+   */
+  public ClientBuilder spoolWrites(File directory, long maxBytes, SpoolSync sync) {
+    checkArgument(maxBytes > 0, "maxBytes must be positive.");
+    this.spoolDirectory = checkNotNull(directory);
+    this.spoolMaxBytes = maxBytes;
+    this.spoolSync = checkNotNull(sync);
+    return this;
+  }
+
+  /**
+   *  Sets how long the write spool waits before resending after a failed attempt.
+   *  Defaults to 1000 milliseconds.
+   *  @param retryMillis Wait between attempts while the endpoint is down.
+   *  @since 1.3.0
+   */
+  public ClientBuilder spoolRetryInterval(long retryMillis) {
+    checkArgument(retryMillis >= 0, "retryMillis must not be negative.");
+    this.spoolRetryMillis = retryMillis;
+    return this;
+  }
+
+  /**
+   *  Sets the listener told about spooled writes that could not be delivered: records
+   *  rejected with a client error, and devices still failing after the failed devices
+   *  of a 207 were resent. Without a listener, they are logged as warnings.
+   *  @param listener The listener.
+   *  @since 1.3.0
+   */
+  public ClientBuilder spoolListener(SpoolListener listener) {
+    this.spoolListener = checkNotNull(listener);
+    return this;
+  }
+
+  /**
+   *  Adapts the number of concurrent write requests to the server's capacity. The limit
+   *  starts at <tt>maxConcurrency</tt>, is cut by a quarter on 429, 503, 504 or connection
+   *  errors and grows back by about one per round trip while writes succeed. A Retry-After
+   *  header pauses new writes until it passes, and no more than
+   *  <tt>maxRequestsPerSecond</tt> writes are started. Writes wait for a slot rather than
+   *  fail. Disabled by default.
+   *  @param maxConcurrency Upper bound of concurrent write requests.
+   *  @param maxRequestsPerSecond Ceiling on the rate of write requests.
+   *  @since 1.3.0
+   */
+  public ClientBuilder limitWrites(int maxConcurrency, double maxRequestsPerSecond) {
+    checkArgument(maxConcurrency > 0, "maxConcurrency must be positive.");
+    checkArgument(maxRequestsPerSecond > 0, "maxRequestsPerSecond must be positive.");
+    this.limitEnabled = true;
+    this.limitMaxConcurrency = maxConcurrency;
+    this.limitMaxRequestsPerSecond = maxRequestsPerSecond;
+    return this;
+  }
+
+  /**
+   *  Stores the Rows of read results as columns in a {@link ColumnarRowSegment}: one
+   *  array of timestamps and one array of doubles per device and sensor, instead of a
+   *  map of boxed Numbers per Row. Rows become lightweight views over the columns and
+   *  their values are Doubles. Recommended for wide reads. Disabled by default.
+   *  @param enabled Whether to read Rows into columns.
+   *  @since 1.3.0
+   */
+  public ClientBuilder columnarRows(boolean enabled) {
+    this.columnarRows = enabled;
+    return this;
+  }
+
+  /**
+   *  Sets the number of time shards that {@link Client#readSharded} reads concurrently,
+   *  and sizes the connection pool to match. This is also the most shards a single read
+   *  can ask for. Defaults to 4.
+   *  @param shards Number of concurrent shards.
+   *  @since 1.3.0
+   */
+  public ClientBuilder shardReads(int shards) {
+    checkArgument(shards > 0, "shards must be positive.");
+    this.readShards = shards;
+    return this;
+  }
+
+  /**
+   *  Caches the pages of reads whose range has ended, so that repeating a read costs
+   *  no request and no parsing. Reads with a stop in the future are never cached.
+   *  Disabled by default.
+   *  @param cache The cache, for instance an {@link LruQueryCache}.
+   *  @since 1.3.0
+   */
+  public ClientBuilder queryCache(QueryCache cache) {
+    this.queryCache = checkNotNull(cache);
+    return this;
+  }
+
+  /**
+   *  Caches the Rows of reads by selection and pipeline, so that a read overlapping
+   *  earlier ones only requests the time ranges not read yet. Reads with a limit do not
+   *  use it. Reads through the cache are lazy, so their request errors are thrown when
+   *  they are iterated rather than by <tt>read</tt>. Disabled by default.
+   *  @param cache The cache.
+   *  @see RangeCache
+   *  @since 1.3.0
+   */
+  public ClientBuilder rangeCache(RangeCache cache) {
+    this.rangeCache = checkNotNull(cache);
+    return this;
+  }
+
+  /**
+   *  Answers {@link Client#latest(Selection)} from memory while its last answer is
+   *  recent enough, with the values of the Client's own writes applied. Disabled by
+   *  default.
+   *  @param cache The cache.
+   *  @see LatestValueCache
+   *  @since 1.3.0
+   */
+  public ClientBuilder latestValueCache(LatestValueCache cache) {
+    this.latestValueCache = checkNotNull(cache);
+    return this;
+  }
+
   /**
    *  Creates the client object using the specified parameters.
    *  @return The build client
@@ -90,6 +383,29 @@ public class ClientBuilder {
   public Client build() {
     validate();
     Client client = new Client(credentials, host, scheme);
+    client.setRequestCompression(compressionThreshold);
+    client.setBatching(batchMaxPoints, batchMaxBytes, batchLingerMillis);
+    client.setBatchLanes(batchLanes);
+    if (splitEnabled) {
+      client.setWriteSplitting(splitMaxPoints, splitMaxBytes, splitParallelism);
+    }
+    client.setWriteRetries(writeRetries, writeRetryBackoffMillis);
+    if (limitEnabled) {
+      client.setWriteLimiting(limitMaxConcurrency, limitMaxRequestsPerSecond);
+    }
+    client.setColumnarRows(columnarRows);
+    client.setReadShards(readShards);
+    client.setQueryCache(queryCache);
+    client.setRangeCache(rangeCache);
+    client.setLatestValueCache(latestValueCache);
+    if (spoolDirectory != null) {
+      try {
+        client.setWriteSpool(spoolDirectory, spoolMaxBytes, spoolSync, spoolRetryMillis, spoolListener);
+      } catch (IOException e) {
+        String message = "Could not open the write spool in " + spoolDirectory;
+        throw new IllegalArgumentException(message, e);
+      }
+    }
     return client;
   }
 
@@ -0,0 +1,394 @@
+package com.tempoiq;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.HttpResponse;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import com.tempoiq.json.Json;
+import static com.tempoiq.util.Preconditions.*;
+
+/**
+ *  A RowSegment stored as columns.
+ *
+ *  <p>A plain {@link RowSegment} keeps a DateTime and a map of maps of boxed Numbers for
+ *  every Row. A ColumnarRowSegment keeps one <tt>long[]</tt> of epoch-millis timestamps
+ *  and, for every (device, sensor) pair of the page, one <tt>double[]</tt> column with a
+ *  bitmap of the rows that have a value. On wide reads this takes a fraction of the
+ *  memory and creates almost no garbage.
+ *
+ *  <p>Its Rows are lightweight views over the columns, created on access. Values are
+ *  returned as Doubles, and a JSON null is treated as a missing value. The columnar
+ *  form is enabled with {@link ClientBuilder#columnarRows(boolean)}.
+ *  @since 1.3.0
+ */
+public class ColumnarRowSegment extends RowSegment {
+  private final long[] timestamps;
+  private final int size;
+  private final DateTimeZone timezone;
+  private final Map<String, Map<String, Integer>> columnIndex;
+  private final String[] columnDevices;
+  private final String[] columnSensors;
+  private final double[][] columns;
+  private final BitSet[] present;
+
+  private static final long serialVersionUID = 1L;
+
+  private ColumnarRowSegment(Builder builder, String nextPage) {
+    super(new ArrayList<Row>(0), nextPage);
+    this.timestamps = builder.timestamps;
+    this.size = builder.size;
+    this.timezone = builder.timezone;
+    this.columnIndex = builder.columnIndex;
+    this.columnDevices = builder.columnDevices.toArray(new String[0]);
+    this.columnSensors = builder.columnSensors.toArray(new String[0]);
+    this.columns = builder.columns.toArray(new double[0][]);
+    this.present = builder.present.toArray(new BitSet[0]);
+    for (int column = 0; column < columns.length; column++) {
+      if (columns[column].length < size) {
+        columns[column] = Arrays.copyOf(columns[column], size);
+      }
+    }
+    this.data = new RowViews();
+  }
+
+  /**
+   *  Returns the number of Rows.
+   *  @return The number of Rows.
+   *  @since 1.3.0
+   */
+  public int size() { return size; }
+
+  /**
+   *  Returns the timestamp of a Row in milliseconds since the epoch.
+   *  @param row The Row index.
+   *  @return The timestamp.
+   *  @since 1.3.0
+   */
+  public long getTimestamp(int row) {
+    checkRow(row);
+    return timestamps[row];
+  }
+
+  /**
+   *  Returns the number of (device, sensor) columns.
+   *  @return The number of columns.
+   *  @since 1.3.0
+   */
+  public int getColumnCount() { return columns.length; }
+
+  /**
+   *  Returns the column of a Device and Sensor.
+   *  @param deviceKey The Device key.
+   *  @param sensorKey The Sensor key.
+   *  @return The column index, or -1 if the page has no values for the pair.
+   *  @since 1.3.0
+   */
+  public int getColumn(String deviceKey, String sensorKey) {
+    Map<String, Integer> sensors = columnIndex.get(deviceKey);
+    if (sensors == null) {
+      return -1;
+    }
+    Integer column = sensors.get(sensorKey);
+    return column == null ? -1 : column;
+  }
+
+  /**
+   *  Returns the Device key of a column.
+   *  @param column The column index.
+   *  @return The Device key.
+   *  @since 1.3.0
+   */
+  public String getColumnDeviceKey(int column) { return columnDevices[column]; }
+
+  /**
+   *  Returns the Sensor key of a column.
+   *  @param column The column index.
+   *  @return The Sensor key.
+   *  @since 1.3.0
+   */
+  public String getColumnSensorKey(int column) { return columnSensors[column]; }
+
+  /**
+   *  Returns true if a Row has a value in a column.
+   *  @param column The column index.
+   *  @param row The Row index.
+   *  @return Whether the value is present.
+   *  @since 1.3.0
+   */
+  public boolean isPresent(int column, int row) {
+    checkRow(row);
+    return present[column].get(row);
+  }
+
+  /**
+   *  Returns the value of a Row in a column. Check {@link #isPresent(int, int)} first;
+   *  a missing value reads as 0.
+   *  @param column The column index.
+   *  @param row The Row index.
+   *  @return The value.
+   *  @since 1.3.0
+   */
+  public double getDouble(int column, int row) {
+    checkRow(row);
+    return columns[column][row];
+  }
+
+  DateTimeZone getTimezone() { return timezone; }
+
+  @Override
+  long estimateBytes() {
+    // A timestamp per row, and a double plus a bit per row in every column
+    return ESTIMATED_ELEMENT_BYTES * (columns.length + 1) + 8L * size + (65L * size / 8) * columns.length;
+  }
+
+  /**
+   *  Copies Rows <tt>[from, to)</tt> into a segment of their own, with no next page.
+   */
+  ColumnarRowSegment slice(int from, int to) {
+    Builder builder = new Builder(timezone);
+    for (int row = from; row < to; row++) {
+      builder.addRow(timestamps[row]);
+      for (int column = 0; column < columns.length; column++) {
+        if (present[column].get(row)) {
+          builder.set(columnDevices[column], columnSensors[column], columns[column][row]);
+        }
+      }
+    }
+    return builder.build("");
+  }
+
+  static ColumnarRowSegment make(HttpResponse response) throws IOException {
+    InputStream body = response.getEntity().getContent();
+    try {
+      return Json.load(body, ColumnarRowSegment.class);
+    } finally {
+      body.close();
+    }
+  }
+
+  private void checkRow(int row) {
+    if (row < 0 || row >= size) {
+      throw new IndexOutOfBoundsException(String.format("Row: %s, Size: %s", row, size));
+    }
+  }
+
+  /**
+   *  The views are rebuilt over the columns on deserialization, rather than serialized.
+   */
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    this.data = new RowViews();
+  }
+
+  private class RowViews extends AbstractList<Row> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private Object writeReplace() {
+      return new ArrayList<Row>(0);
+    }
+
+    @Override
+    public Row get(int row) {
+      checkRow(row);
+      return new ColumnarRow(row);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+
+  /** A Row that reads its timestamp and values from the columns. */
+  private class ColumnarRow extends Row {
+    private final int row;
+
+    private ColumnarRow(int row) {
+      this.row = row;
+    }
+
+    @Override
+    public DateTime getTimestamp() {
+      return new DateTime(timestamps[row], timezone);
+    }
+
+    @Override
+    public long getTimestampMillis() {
+      return timestamps[row];
+    }
+
+    @Override
+    DateTimeZone getTimezone() {
+      return timezone;
+    }
+
+    @Override
+    public Number getValue(String deviceKey, String sensorKey) {
+      int column = getColumn(deviceKey, sensorKey);
+      if (column < 0 || !present[column].get(row)) {
+        return null;
+      }
+      return columns[column][row];
+    }
+
+    @Override
+    public double getDouble(String deviceKey, String sensorKey) {
+      int column = getColumn(deviceKey, sensorKey);
+      if (column < 0 || !present[column].get(row)) {
+        return Double.NaN;
+      }
+      return columns[column][row];
+    }
+
+    @Override
+    public boolean hasSensor(String deviceKey, String sensorKey) {
+      int column = getColumn(deviceKey, sensorKey);
+      return column >= 0 && present[column].get(row);
+    }
+
+    /**
+     *  Builds the nested map of the Row's values. Prefer {@link #getValue(String, String)}.
+     */
+    @Override
+    public Map<String, Map<String, Number>> getValues() {
+      Map<String, Map<String, Number>> values = new HashMap<String, Map<String, Number>>();
+      for (int column = 0; column < columns.length; column++) {
+        if (!present[column].get(row)) {
+          continue;
+        }
+        Map<String, Number> sensors = values.get(columnDevices[column]);
+        if (sensors == null) {
+          sensors = new HashMap<String, Number>();
+          values.put(columnDevices[column], sensors);
+        }
+        sensors.put(columnSensors[column], columns[column][row]);
+      }
+      return values;
+    }
+  }
+
+  /**
+   *  Builds a ColumnarRowSegment one Row at a time.
+   *
+   *  <p><pre>
+   *    ColumnarRowSegment.Builder builder = new ColumnarRowSegment.Builder(DateTimeZone.UTC);
+   *    builder.addRow(timestamp).set("device", "sensor", 1.23);
+   *    ColumnarRowSegment segment = builder.build("");
+   *  </pre>
+   *  @since 1.3.0
+   */
+  public static class Builder {
+    private final DateTimeZone timezone;
+    private final Map<String, Map<String, Integer>> columnIndex = new HashMap<String, Map<String, Integer>>();
+    private final List<String> columnDevices = new ArrayList<String>();
+    private final List<String> columnSensors = new ArrayList<String>();
+    private final List<double[]> columns = new ArrayList<double[]>();
+    private final List<BitSet> present = new ArrayList<BitSet>();
+    private long[] timestamps = new long[DEFAULT_CAPACITY];
+    private int size = 0;
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    /**
+     *  @param timezone The time zone of the Rows' timestamps.
+     *  @since 1.3.0
+     */
+    public Builder(DateTimeZone timezone) {
+      this.timezone = checkNotNull(timezone);
+    }
+
+    /**
+     *  Starts a new Row.
+     *  @param timestamp The timestamp in milliseconds since the epoch.
+     *  @return This builder.
+     *  @since 1.3.0
+     */
+    public Builder addRow(long timestamp) {
+      if (size == timestamps.length) {
+        timestamps = Arrays.copyOf(timestamps, size + (size >> 1));
+      }
+      timestamps[size] = timestamp;
+      size += 1;
+      return this;
+    }
+
+    /**
+     *  Replaces the timestamp of the current Row.
+     *  @param timestamp The timestamp in milliseconds since the epoch.
+     *  @return This builder.
+     *  @since 1.3.0
+     */
+    public Builder setTimestamp(long timestamp) {
+      checkState();
+      timestamps[size - 1] = timestamp;
+      return this;
+    }
+
+    /**
+     *  Sets a value of the current Row.
+     *  @param deviceKey The Device key.
+     *  @param sensorKey The Sensor key.
+     *  @param value The value.
+     *  @return This builder.
+     *  @since 1.3.0
+     */
+    public Builder set(String deviceKey, String sensorKey, double value) {
+      checkState();
+      int column = intern(checkNotNull(deviceKey), checkNotNull(sensorKey));
+      double[] values = columns.get(column);
+      if (values.length < size) {
+        values = Arrays.copyOf(values, timestamps.length);
+        columns.set(column, values);
+      }
+      values[size - 1] = value;
+      present.get(column).set(size - 1);
+      return this;
+    }
+
+    /**
+     *  Creates the segment.
+     *  @param nextPage The query for the next page, or "" if this is the last page.
+     *  @return The segment.
+     *  @since 1.3.0
+     */
+    public ColumnarRowSegment build(String nextPage) {
+      return new ColumnarRowSegment(this, nextPage);
+    }
+
+    private int intern(String deviceKey, String sensorKey) {
+      Map<String, Integer> sensors = columnIndex.get(deviceKey);
+      if (sensors == null) {
+        sensors = new HashMap<String, Integer>();
+        columnIndex.put(deviceKey, sensors);
+      }
+      Integer column = sensors.get(sensorKey);
+      if (column == null) {
+        column = columns.size();
+        sensors.put(sensorKey, column);
+        columnDevices.add(deviceKey);
+        columnSensors.add(sensorKey);
+        columns.add(new double[timestamps.length]);
+        present.add(new BitSet());
+      }
+      return column;
+    }
+
+    private void checkState() {
+      if (size == 0) {
+        throw new IllegalStateException("addRow() must be called first.");
+      }
+    }
+  }
+}
@@ -0,0 +1,224 @@
+package com.tempoiq;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import static com.tempoiq.util.Preconditions.*;
+
+/**
+ *  A compact request for writing many DataPoints to multiple Devices and Sensors.
+ *
+ *  <p>A {@link WriteRequest} keeps a Device, a Sensor, a DateTime and a boxed value for
+ *  every DataPoint. A ColumnarWriteRequest stores each point as an epoch-millis
+ *  timestamp, a double value and the index of its (device, sensor) stream, in growable
+ *  primitive arrays. Device and sensor keys are stored once per stream. This makes it
+ *  suitable for buffering millions of points.
+ *
+ *  <p>It is written with {@link Client#writeDataPoints(ColumnarWriteRequest)} and produces
+ *  the same body as the equivalent WriteRequest.
+ *
+ *  <p><pre>
+ *    ColumnarWriteRequest request = new ColumnarWriteRequest();
+ *    request.add("device-key", "sensor-key", System.currentTimeMillis(), 12.34);
+ *    client.writeDataPoints(request);
+ *  </pre>
+ *
+ *  <p>This class is not thread-safe.
+ *  @since 1.3.0
+ */
+public class ColumnarWriteRequest {
+  private final Map<String, Map<String, Integer>> streamIndex;
+  private final List<String> streamDevices;
+  private final List<String> streamSensors;
+
+  private int[] streams;
+  private long[] timestamps;
+  private double[] values;
+  private int size;
+
+  private static final int DEFAULT_CAPACITY = 64;
+
+  /**
+   *  Base constructor
+   *  @since 1.3.0
+   */
+  public ColumnarWriteRequest() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   *  Creates a request with room for <tt>capacity</tt> DataPoints before growing.
+   *  @param capacity The initial capacity.
+   *  @since 1.3.0
+   */
+  public ColumnarWriteRequest(int capacity) {
+    checkArgument(capacity >= 0, "capacity must not be negative.");
+    this.streamIndex = new HashMap<String, Map<String, Integer>>();
+    this.streamDevices = new ArrayList<String>();
+    this.streamSensors = new ArrayList<String>();
+    this.streams = new int[capacity];
+    this.timestamps = new long[capacity];
+    this.values = new double[capacity];
+    this.size = 0;
+  }
+
+  /**
+   *  Adds a DataPoint to the request.
+   *  @param deviceKey The key of the Device to write to.
+   *  @param sensorKey The key of the Sensor to write to.
+   *  @param timestamp The timestamp in milliseconds since the epoch.
+   *  @param value The value.
+   *  @return The updated request.
+   *  @since 1.3.0
+   */
+  public ColumnarWriteRequest add(String deviceKey, String sensorKey, long timestamp, double value) {
+    int stream = intern(checkNotNull(deviceKey), checkNotNull(sensorKey));
+    if (size == streams.length) {
+      grow();
+    }
+    streams[size] = stream;
+    timestamps[size] = timestamp;
+    values[size] = value;
+    size += 1;
+    return this;
+  }
+
+  /**
+   *  Adds a DataPoint to the request for a Device and Sensor.
+   *  @param device The Device to write to.
+   *  @param sensor The Sensor to write to.
+   *  @param datapoint The DataPoint to write.
+   *  @return The updated request.
+   *  @since 1.3.0
+   */
+  public ColumnarWriteRequest add(Device device, Sensor sensor, DataPoint datapoint) {
+    return add(device.getKey(), sensor.getKey(), datapoint.getTimestamp().getMillis(), datapoint.getValue().doubleValue());
+  }
+
+  /**
+   *  Returns the number of DataPoints in the request.
+   *  @return The number of DataPoints.
+   *  @since 1.3.0
+   */
+  public int size() { return size; }
+
+  long estimateBytes() {
+    long bytes = 0;
+    for (int i = 0; i < size; i++) {
+      bytes += WriteSplitter.ESTIMATED_POINT_BYTES + streamDevices.get(streams[i]).length() + streamSensors.get(streams[i]).length();
+    }
+    return bytes;
+  }
+
+  /**
+   *  Removes all DataPoints, keeping the allocated capacity and interned keys.
+   *  @since 1.3.0
+   */
+  public void clear() { size = 0; }
+
+  /**
+   *  Returns the number of distinct (device, sensor) streams seen by this request.
+   *  @return The number of streams.
+   *  @since 1.3.0
+   */
+  public int getStreamCount() { return streamDevices.size(); }
+
+  /**
+   *  Returns the Device key of a stream.
+   *  @param stream The stream index.
+   *  @return The Device key.
+   *  @since 1.3.0
+   */
+  public String getStreamDeviceKey(int stream) { return streamDevices.get(stream); }
+
+  /**
+   *  Returns the Sensor key of a stream.
+   *  @param stream The stream index.
+   *  @return The Sensor key.
+   *  @since 1.3.0
+   */
+  public String getStreamSensorKey(int stream) { return streamSensors.get(stream); }
+
+  /**
+   *  Returns the stream index of the DataPoint at <tt>index</tt>.
+   *  @param index The DataPoint index.
+   *  @return The stream index.
+   *  @since 1.3.0
+   */
+  public int getStream(int index) {
+    checkIndex(index);
+    return streams[index];
+  }
+
+  /**
+   *  Returns the timestamp of the DataPoint at <tt>index</tt> in milliseconds since the epoch.
+   *  @param index The DataPoint index.
+   *  @return The timestamp.
+   *  @since 1.3.0
+   */
+  public long getTimestamp(int index) {
+    checkIndex(index);
+    return timestamps[index];
+  }
+
+  /**
+   *  Returns the value of the DataPoint at <tt>index</tt>.
+   *  @param index The DataPoint index.
+   *  @return The value.
+   *  @since 1.3.0
+   */
+  public double getValue(int index) {
+    checkIndex(index);
+    return values[index];
+  }
+
+  /**
+   *  Converts this request to an equivalent {@link WriteRequest}.
+   *  @return The WriteRequest.
+   *  @since 1.3.0
+   */
+  public WriteRequest toWriteRequest() {
+    WriteRequest request = new WriteRequest();
+    for (int i = 0; i < size; i++) {
+      Device device = new Device(streamDevices.get(streams[i]));
+      Sensor sensor = new Sensor(streamSensors.get(streams[i]));
+      request.add(new WritableDataPoint(device, sensor, new DateTime(timestamps[i], DateTimeZone.UTC), values[i]));
+    }
+    return request;
+  }
+
+  private int intern(String deviceKey, String sensorKey) {
+    Map<String, Integer> sensors = streamIndex.get(deviceKey);
+    if (sensors == null) {
+      sensors = new HashMap<String, Integer>();
+      streamIndex.put(deviceKey, sensors);
+    }
+    Integer stream = sensors.get(sensorKey);
+    if (stream == null) {
+      stream = streamDevices.size();
+      streamDevices.add(deviceKey);
+      streamSensors.add(sensorKey);
+      sensors.put(sensorKey, stream);
+    }
+    return stream;
+  }
+
+  private void grow() {
+    int capacity = Math.max(DEFAULT_CAPACITY, streams.length + (streams.length >> 1));
+    streams = Arrays.copyOf(streams, capacity);
+    timestamps = Arrays.copyOf(timestamps, capacity);
+    values = Arrays.copyOf(values, capacity);
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException(String.format("Index: %s, Size: %s", index, size));
+    }
+  }
+}
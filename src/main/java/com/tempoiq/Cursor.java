@@ -5,7 +5,8 @@ package com.tempoiq;
  *
  *  This is usually used for returning a sequence of {@link DataPoint}'s or {@link Sensor}.
  *  Note that the returned iterator is not cached, so iterating multiple times requires a
- *  network call.
+ *  network call, unless the cursor has a cache enabled (for instance
+ *  {@link DataPointRowCursor#cache(long)}).
  *
  *  <p>This iterator will throw a {@link TempoIQException} if an error occurs while retrieving the
  *  data.
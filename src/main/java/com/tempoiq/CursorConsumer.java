@@ -0,0 +1,18 @@
+package com.tempoiq;
+
+
+/**
+ *  Receives the items of a cursor in a parallel traversal, such as
+ *  {@link DataPointRowCursor#forEachParallel(CursorConsumer, int)}.
+ *
+ *  <p>It is called from several threads at once and must be thread safe.
+ *  @since 1.3.0
+ */
+public interface CursorConsumer<T> {
+  /**
+   *  Called once for every item of the cursor.
+   *  @param item The item.
+   *  @since 1.3.0
+   */
+  void accept(T item);
+}
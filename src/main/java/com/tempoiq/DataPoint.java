@@ -2,10 +2,12 @@ package com.tempoiq;
 
 import java.io.Serializable;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 
 import static com.tempoiq.util.Preconditions.*;
 
@@ -15,11 +17,12 @@ import static com.tempoiq.util.Preconditions.*;
  */
 public class DataPoint implements Serializable {
 
-  private DateTime timestamp;
+  private long timestamp;
+  private DateTimeZone timezone;
   private Number value;
 
-  /** Serialization lock */
-  private static final long serialVersionUID = 1L;
+  /** Serialization lock; the timestamp is stored as epoch millis and a time zone since 1.3.0 */
+  private static final long serialVersionUID = 2L;
 
   public DataPoint() {
     this(new DateTime(), 0.0);
@@ -32,7 +35,21 @@ public class DataPoint implements Serializable {
    *  @since 1.0.0
    */
   public DataPoint(@JsonProperty("t") DateTime timestamp, @JsonProperty("v") Number value) {
-    this.timestamp = checkNotNull(timestamp);
+    setTimestamp(timestamp);
+    this.value = checkNotNull(value);
+  }
+
+  /**
+   *  Creates a DataPoint from an epoch-millis timestamp. Its DateTime is only created
+   *  when {@link #getTimestamp()} is called.
+   *  @param timestamp The timestamp in milliseconds since the epoch
+   *  @param timezone The time zone of the timestamp
+   *  @param value The numeric value of the datapoint
+   *  @since 1.3.0
+   */
+  public DataPoint(long timestamp, DateTimeZone timezone, Number value) {
+    this.timestamp = timestamp;
+    this.timezone = checkNotNull(timezone);
     this.value = checkNotNull(value);
   }
 
@@ -42,14 +59,28 @@ public class DataPoint implements Serializable {
    *  @since 1.0.0
    */
   @JsonProperty("t")
-  public DateTime getTimestamp() { return timestamp; }
+  public DateTime getTimestamp() { return new DateTime(timestamp, timezone); }
+
+  /**
+   *  Returns the timestamp of this DataPoint without creating a DateTime.
+   *  @return the timestamp in milliseconds since the epoch
+   *  @since 1.3.0
+   */
+  @JsonIgnore
+  public long getTimestampMillis() { return timestamp; }
 
   /**
    *  Sets the timestamp of this datapoint.
    *  @param timestamp The timestamp of this DataPoint
    *  @since 1.0.0
    */
-  public void setTimestamp(DateTime timestamp) { this.timestamp = checkNotNull(timestamp); }
+  public void setTimestamp(DateTime timestamp) {
+    checkNotNull(timestamp);
+    this.timestamp = timestamp.getMillis();
+    this.timezone = timestamp.getZone();
+  }
+
+  DateTimeZone getTimezone() { return timezone; }
 
   /**
    *  Returns the value of this DataPoint.
@@ -68,13 +99,14 @@ public class DataPoint implements Serializable {
 
   @Override
   public String toString() {
-    return String.format("DataPoint(timestamp=%s, value=%s)", timestamp.toString(), value.toString());
+    return String.format("DataPoint(timestamp=%s, value=%s)", getTimestamp().toString(), value.toString());
   }
 
   @Override
   public int hashCode() {
     return new HashCodeBuilder(19, 31)
       .append(timestamp)
+      .append(timezone)
       .append(value)
       .toHashCode();
   }
@@ -88,6 +120,7 @@ public class DataPoint implements Serializable {
     DataPoint rhs = (DataPoint)obj;
     return new EqualsBuilder()
       .append(timestamp, rhs.timestamp)
+      .append(timezone, rhs.timezone)
       .append(value, rhs.value)
       .isEquals();
   }
@@ -0,0 +1,19 @@
+package com.tempoiq;
+
+
+/**
+ *  Receives the DataPoints of a read, stream by stream, as the pages arrive.
+ *
+ *  @see DataPointRowCursor#forEachPoint(DataPointConsumer)
+ *  @since 1.3.0
+ */
+public interface DataPointConsumer {
+  /**
+   *  Called once for every value of the read, in row order.
+   *  @param deviceKey The Device key of the value.
+   *  @param sensorKey The Sensor key of the value.
+   *  @param datapoint The timestamp and value.
+   *  @since 1.3.0
+   */
+  void accept(String deviceKey, String sensorKey, DataPoint datapoint);
+}
@@ -1,6 +1,11 @@
 package com.tempoiq;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+
+import static com.tempoiq.util.Preconditions.*;
 
 public class DataPointCursor implements Cursor<DataPoint> {
   private static class DataPointIterator implements Iterator<DataPoint> {
@@ -28,7 +33,7 @@ public class DataPointCursor implements Cursor<DataPoint> {
 
     @Override
     public DataPoint next() {
-      return new DataPoint(nextRow.getTimestamp(), nextRow.getValue(deviceKey, sensorKey));
+      return new DataPoint(nextRow.getTimestampMillis(), nextRow.getTimezone(), nextRow.getValue(deviceKey, sensorKey));
     }
 
     @Override
@@ -40,14 +45,110 @@ public class DataPointCursor implements Cursor<DataPoint> {
   private final String deviceKey;
   private final String sensorKey;
   private final DataPointRowCursor rowCursor;
+  private final List<DataPoint> points;
+
+  private static final int BUFFERED_CHUNK_SIZE = 1000;
 
   public DataPointCursor(DataPointRowCursor rowCursor, String deviceKey, String sensorKey) {
     this.rowCursor = rowCursor;
     this.deviceKey = deviceKey;
     this.sensorKey = sensorKey;
+    this.points = null;
+  }
+
+  /**
+   *  A cursor over DataPoints already read, as split out by
+   *  {@link DataPointRowCursor#bufferPointsByStream(long)}.
+   */
+  DataPointCursor(String deviceKey, String sensorKey, List<DataPoint> points) {
+    this.rowCursor = null;
+    this.deviceKey = deviceKey;
+    this.sensorKey = sensorKey;
+    this.points = points;
+  }
+
+  /**
+   *  Hands every DataPoint to a consumer on <tt>parallelism</tt> worker threads, a page
+   *  at a time per worker, while the following pages are fetched on the calling thread.
+   *  DataPoints keep their order within a page, but pages are processed concurrently.
+   *  @param consumer The consumer of the DataPoints; it must be thread safe.
+   *  @param parallelism The number of worker threads.
+   *  @since 1.3.0
+   */
+  public void forEachParallel(final CursorConsumer<? super DataPoint> consumer, int parallelism) {
+    checkNotNull(consumer);
+    if (points != null) {
+      List<List<DataPoint>> chunks = new ArrayList<List<DataPoint>>();
+      for (int from = 0; from < points.size(); from += BUFFERED_CHUNK_SIZE) {
+        chunks.add(points.subList(from, Math.min(points.size(), from + BUFFERED_CHUNK_SIZE)));
+      }
+      ParallelPages.forEach(chunks.iterator(), new ParallelPages.PageHandler<List<DataPoint>>() {
+        public void handle(List<DataPoint> chunk) {
+          for (DataPoint point : chunk) {
+            consumer.accept(point);
+          }
+        }
+      }, parallelism);
+      return;
+    }
+
+    ParallelPages.forEach(rowCursor.pages(), new ParallelPages.PageHandler<Segment<Row>>() {
+      public void handle(Segment<Row> page) {
+        for (Row row : page) {
+          Number value = row.getValue(deviceKey, sensorKey);
+          if (value != null) {
+            consumer.accept(new DataPoint(row.getTimestampMillis(), row.getTimezone(), value));
+          }
+        }
+      }
+    }, parallelism);
+  }
+
+  /**
+   *  Hands every value to a consumer as a primitive timestamp and double. With
+   *  {@link ClientBuilder#columnarRows(boolean)}, values are read straight from the
+   *  columns of each page, so nothing is boxed or allocated per value.
+   *  @param consumer The consumer of the values.
+   *  @since 1.3.0
+   */
+  public void forEachDouble(DoublePointConsumer consumer) {
+    checkNotNull(consumer);
+    if (points != null) {
+      for (DataPoint point : points) {
+        consumer.accept(point.getTimestampMillis(), point.getValue().doubleValue());
+      }
+      return;
+    }
+
+    Iterator<Segment<Row>> pages = rowCursor.pages();
+    while (pages.hasNext()) {
+      Segment<Row> page = pages.next();
+      if (page instanceof ColumnarRowSegment) {
+        ColumnarRowSegment columns = (ColumnarRowSegment)page;
+        int column = columns.getColumn(deviceKey, sensorKey);
+        if (column < 0) {
+          continue;
+        }
+        for (int row = 0; row < columns.size(); row++) {
+          if (columns.isPresent(column, row)) {
+            consumer.accept(columns.getTimestamp(row), columns.getDouble(column, row));
+          }
+        }
+        continue;
+      }
+      for (Row row : page) {
+        Number value = row.getValue(deviceKey, sensorKey);
+        if (value != null) {
+          consumer.accept(row.getTimestampMillis(), value.doubleValue());
+        }
+      }
+    }
   }
 
   public Iterator<DataPoint> iterator() {
+    if (points != null) {
+      return Collections.unmodifiableList(points).iterator();
+    }
     return new DataPointIterator(rowCursor, deviceKey, sensorKey);
   }
 }
@@ -1,8 +1,11 @@
 package com.tempoiq;
 
+import java.io.File;
 import java.net.URI;
 import java.util.*;
 
+import org.joda.time.DateTimeZone;
+
 import static com.tempoiq.util.Preconditions.*;
 
 public class DataPointRowCursor implements Cursor<Row> {
@@ -11,8 +14,12 @@ public class DataPointRowCursor implements Cursor<Row> {
   private final URI endpoint;
   private final String contentType;
   private final String[] mediaTypeVersions;
+  private int prefetch = 0;
+  private SegmentCache<Row> cache;
+  private QueryCache queryCache;
+  private String queryCacheKey;
 
-  public DataPointRowCursor(Result<RowSegment> result,
+  public DataPointRowCursor(Result<? extends RowSegment> result,
                             Executor runner,
                             URI endpoint,
                             String contentType,
@@ -28,30 +35,282 @@ public class DataPointRowCursor implements Cursor<Row> {
     }
   }
 
+  /**
+   *  Splits the read into one cursor per device and sensor.
+   *
+   *  <p>The streams are found in a single pass that keeps only their keys. The returned
+   *  cursors are lazy: each one pages through the read again when it is iterated, one
+   *  page at a time, unless the pages are kept with {@link #cache(long)}. To fetch the
+   *  read only once, use {@link #bufferPointsByStream(long)} or
+   *  {@link #forEachPoint(DataPointConsumer)}.
+   */
   public Map<String, Map<String, DataPointCursor>> pointsByStream() {
     Map<String, Map<String, DataPointCursor>> streams = new HashMap<String, Map<String, DataPointCursor>>();
-    for (String deviceKey : devicesForCursor()) {
-        streams.put(deviceKey, pointsForDevice(deviceKey));
+    for (Map.Entry<String, Set<String>> device : streamKeys(null).entrySet()) {
+      streams.put(device.getKey(), cursorsForSensors(device.getKey(), device.getValue()));
     }
     return streams;
   }
 
+  /**
+   *  Splits the read of one device into one lazy cursor per sensor, like
+   *  {@link #pointsByStream()}.
+   */
   public Map<String, DataPointCursor> pointsForDevice(String deviceKey) {
-    Set<String> sensors = streamsForDevice(deviceKey);
-    Map<String, DataPointCursor> result = new HashMap<String, DataPointCursor>();
-    for (String sensorKey : sensors) {
-      result.put(sensorKey, pointsForStream(deviceKey, sensorKey));
+    checkNotNull(deviceKey);
+    Set<String> sensors = streamKeys(deviceKey).get(deviceKey);
+    return cursorsForSensors(deviceKey, sensors != null ? sensors : new HashSet<String>());
+  }
+
+  /**
+   *  Splits the read into one cursor per device and sensor, fetching it once.
+   *
+   *  <p>Every DataPoint is buffered per stream, so the returned cursors iterate from
+   *  memory any number of times. The buffer is bounded: a read with more than
+   *  <tt>maxPoints</tt> DataPoints fails instead of exhausting memory.
+   *  @param maxPoints The most DataPoints to buffer.
+   *  @return The cursors by device key and sensor key.
+   *  @throws IllegalStateException If the read has more than <tt>maxPoints</tt> DataPoints.
+   *  @since 1.3.0
+   */
+  public Map<String, Map<String, DataPointCursor>> bufferPointsByStream(long maxPoints) {
+    checkArgument(maxPoints >= 0, "maxPoints must not be negative.");
+    return demultiplex(maxPoints);
+  }
+
+  /**
+   *  Hands every value of the read to a consumer, in a single pass over the pages.
+   *  Only one page is held at a time; null values are skipped. Values come row by row,
+   *  in the order of the Rows, also for columnar pages.
+   *  @param consumer The consumer of the DataPoints.
+   *  @since 1.3.0
+   */
+  public void forEachPoint(DataPointConsumer consumer) {
+    checkNotNull(consumer);
+    Iterator<Segment<Row>> pages = pages();
+    while (pages.hasNext()) {
+      Segment<Row> page = pages.next();
+      if (page instanceof ColumnarRowSegment) {
+        forEachPoint((ColumnarRowSegment)page, consumer);
+        continue;
+      }
+      for (Row row : page) {
+        long timestamp = row.getTimestampMillis();
+        DateTimeZone timezone = row.getTimezone();
+        for (Map.Entry<String, Map<String, Number>> device : row.getValues().entrySet()) {
+          for (Map.Entry<String, Number> sensor : device.getValue().entrySet()) {
+            if (sensor.getValue() != null) {
+              consumer.accept(device.getKey(), sensor.getKey(), new DataPoint(timestamp, timezone, sensor.getValue()));
+            }
+          }
+        }
+      }
     }
-    return result;
+  }
+
+  private static void forEachPoint(ColumnarRowSegment page, DataPointConsumer consumer) {
+    DateTimeZone timezone = page.getTimezone();
+    int columns = page.getColumnCount();
+    for (int index = 0; index < page.size(); index++) {
+      long timestamp = page.getTimestamp(index);
+      for (int column = 0; column < columns; column++) {
+        if (!page.isPresent(column, index)) {
+          continue;
+        }
+        consumer.accept(page.getColumnDeviceKey(column), page.getColumnSensorKey(column),
+                        new DataPoint(timestamp, timezone, page.getDouble(column, index)));
+      }
+    }
+  }
+
+  /**
+   *  Returns the sensor keys of every device of the read, or of one device.
+   */
+  private Map<String, Set<String>> streamKeys(String onlyDevice) {
+    Map<String, Set<String>> streams = new HashMap<String, Set<String>>();
+    Iterator<Segment<Row>> pages = pages();
+    while (pages.hasNext()) {
+      Segment<Row> page = pages.next();
+      if (page instanceof ColumnarRowSegment) {
+        ColumnarRowSegment columnar = (ColumnarRowSegment)page;
+        for (int column = 0; column < columnar.getColumnCount(); column++) {
+          addStream(streams, onlyDevice, columnar.getColumnDeviceKey(column), columnar.getColumnSensorKey(column));
+        }
+        continue;
+      }
+      for (Row row : page) {
+        for (Map.Entry<String, Map<String, Number>> device : row.getValues().entrySet()) {
+          for (String sensorKey : device.getValue().keySet()) {
+            addStream(streams, onlyDevice, device.getKey(), sensorKey);
+          }
+        }
+      }
+    }
+    return streams;
+  }
+
+  private static void addStream(Map<String, Set<String>> streams, String onlyDevice, String deviceKey, String sensorKey) {
+    if (onlyDevice != null && !onlyDevice.equals(deviceKey)) {
+      return;
+    }
+    Set<String> sensors = streams.get(deviceKey);
+    if (sensors == null) {
+      sensors = new HashSet<String>();
+      streams.put(deviceKey, sensors);
+    }
+    sensors.add(sensorKey);
+  }
+
+  private Map<String, DataPointCursor> cursorsForSensors(String deviceKey, Set<String> sensorKeys) {
+    Map<String, DataPointCursor> cursors = new HashMap<String, DataPointCursor>();
+    for (String sensorKey : sensorKeys) {
+      cursors.put(sensorKey, pointsForStream(deviceKey, sensorKey));
+    }
+    return cursors;
+  }
+
+  private Map<String, Map<String, DataPointCursor>> demultiplex(final long maxPoints) {
+    final Map<String, Map<String, List<DataPoint>>> buffers = new HashMap<String, Map<String, List<DataPoint>>>();
+    forEachPoint(new DataPointConsumer() {
+      private long count = 0;
+
+      public void accept(String deviceKey, String sensorKey, DataPoint datapoint) {
+        if (++count > maxPoints) {
+          throw new IllegalStateException("The read has more than " + maxPoints + " DataPoints to buffer.");
+        }
+        Map<String, List<DataPoint>> sensors = buffers.get(deviceKey);
+        if (sensors == null) {
+          sensors = new HashMap<String, List<DataPoint>>();
+          buffers.put(deviceKey, sensors);
+        }
+        List<DataPoint> points = sensors.get(sensorKey);
+        if (points == null) {
+          points = new ArrayList<DataPoint>();
+          sensors.put(sensorKey, points);
+        }
+        points.add(datapoint);
+      }
+    });
+
+    Map<String, Map<String, DataPointCursor>> streams = new HashMap<String, Map<String, DataPointCursor>>();
+    for (Map.Entry<String, Map<String, List<DataPoint>>> device : buffers.entrySet()) {
+      Map<String, DataPointCursor> sensors = new HashMap<String, DataPointCursor>();
+      for (Map.Entry<String, List<DataPoint>> sensor : device.getValue().entrySet()) {
+        sensors.put(sensor.getKey(), new DataPointCursor(device.getKey(), sensor.getKey(), sensor.getValue()));
+      }
+      streams.put(device.getKey(), sensors);
+    }
+    return streams;
   }
 
   public DataPointCursor pointsForStream(String deviceKey, String sensorKey) {
     return new DataPointCursor(this, deviceKey, sensorKey);
   }
 
+  /**
+   *  Fetches up to <tt>depth</tt> pages ahead on a background thread while the rows of
+   *  the current page are consumed. Applies to iterators created afterwards, including
+   *  those of the {@link DataPointCursor}s of this cursor.
+   *  @param depth Number of pages to fetch ahead, or 0 to fetch on demand.
+   *  @return This cursor.
+   *  @since 1.3.0
+   */
+  public DataPointRowCursor withPrefetch(int depth) {
+    checkArgument(depth >= 0, "depth must not be negative.");
+    this.prefetch = depth;
+    return this;
+  }
+
+  /**
+   *  Keeps fetched pages in memory so that the cursor can be iterated again, including
+   *  by the cursors derived from it, without new network calls. The least recently used
+   *  pages beyond <tt>maxBytes</tt> (estimated) are dropped and refetched when needed.
+   *  Applies to iterators created afterwards.
+   *  @param maxBytes Estimated bytes of pages to keep in memory.
+   *  @return This cursor.
+   *  @since 1.3.0
+   */
+  public DataPointRowCursor cache(long maxBytes) {
+    return cache(maxBytes, null);
+  }
+
+  /**
+   *  Like {@link #cache(long)}, but pages evicted from memory are written to a temp file
+   *  in <tt>spillDir</tt> and read back from there instead of being refetched. Call
+   *  {@link #clearCache()} once the cursor is no longer iterated, to close and delete
+   *  the file; a cache replaced by another call to <tt>cache</tt> is cleared first.
+   *  @param maxBytes Estimated bytes of pages to keep in memory.
+   *  @param spillDir Directory for the temp file, or null to drop evicted pages.
+   *  @return This cursor.
+   *  @since 1.3.0
+   */
+  public DataPointRowCursor cache(long maxBytes, File spillDir) {
+    clearCache();
+    this.cache = new SegmentCache<Row>(maxBytes, spillDir);
+    return this;
+  }
+
+  /**
+   *  Drops the cached pages and deletes the temp file, if any. The cache stays enabled.
+   *  @since 1.3.0
+   */
+  public void clearCache() {
+    if (cache != null) {
+      cache.clear();
+    }
+  }
+
+  /**
+   *  Hands every Row to a consumer on <tt>parallelism</tt> worker threads, a page at a
+   *  time per worker, while the following pages are fetched on the calling thread.
+   *  Rows keep their order within a page, but pages are processed concurrently.
+   *  @param consumer The consumer of the Rows; it must be thread safe.
+   *  @param parallelism The number of worker threads.
+   *  @since 1.3.0
+   */
+  public void forEachParallel(final CursorConsumer<? super Row> consumer, int parallelism) {
+    checkNotNull(consumer);
+    ParallelPages.forEach(pages(), new ParallelPages.PageHandler<Segment<Row>>() {
+      public void handle(Segment<Row> page) {
+        for (Row row : page) {
+          consumer.accept(row);
+        }
+      }
+    }, parallelism);
+  }
+
+  /**
+   *  Serves the following pages from, and adds them to, a {@link QueryCache}.
+   */
+  DataPointRowCursor withQueryCache(QueryCache cache, String keyPrefix) {
+    this.queryCache = checkNotNull(cache);
+    this.queryCacheKey = checkNotNull(keyPrefix);
+    return this;
+  }
+
   public Iterator<Row> iterator() {
-      RowPageLoader pages = new RowPageLoader(first, endpoint, runner, contentType, mediaTypeVersions);
-      return new PagingIterator<Row>(pages);
+      return new PagingIterator<Row>(pages());
+  }
+
+  Iterator<Segment<Row>> pages() {
+    Iterator<Segment<Row>> pages = loadPages(cache);
+    if (prefetch > 0) {
+      return new PrefetchingPageIterator<Row>(pages, prefetch);
+    }
+    return pages;
+  }
+
+  /**
+   *  Returns the pages of one iteration, fetched as they are asked for.
+   *  @param cache The cursor's page cache, or null.
+   */
+  Iterator<Segment<Row>> loadPages(SegmentCache<Row> cache) {
+    RowPageLoader pages = new RowPageLoader(first, endpoint, runner, contentType, mediaTypeVersions);
+    pages.setCache(cache);
+    if (queryCache != null) {
+      pages.setQueryCache(queryCache, queryCacheKey);
+    }
+    return pages;
   }
 
   public Segment<Row> getFirst() {
@@ -1,5 +1,6 @@
 package com.tempoiq;
 
+import java.io.File;
 import java.net.URI;
 import java.util.Iterator;
 
@@ -11,6 +12,8 @@ public class DeviceCursor implements Cursor<Device> {
   private final URI endpoint;
   private final String contentType;
   private final String[] mediaTypeVersions;
+  private int prefetch = 0;
+  private SegmentCache<Device> cache;
 
   public DeviceCursor(Result<DeviceSegment> result,
                       Executor runner,
@@ -32,8 +35,87 @@ public class DeviceCursor implements Cursor<Device> {
     return this.first;
   }
 
+  /**
+   *  Fetches up to <tt>depth</tt> pages ahead on a background thread while the devices
+   *  of the current page are consumed. Applies to iterators created afterwards.
+   *  @param depth Number of pages to fetch ahead, or 0 to fetch on demand.
+   *  @return This cursor.
+   *  @since 1.3.0
+   */
+  public DeviceCursor withPrefetch(int depth) {
+    checkArgument(depth >= 0, "depth must not be negative.");
+    this.prefetch = depth;
+    return this;
+  }
+
+  /**
+   *  Keeps the fetched pages of Devices in memory, so that listing the Devices again,
+   *  or running {@link #forEachParallel} after a plain iteration, makes no new network
+   *  calls. The least recently used pages beyond <tt>maxBytes</tt> (estimated) are
+   *  dropped and refetched when needed. Applies to iterators created afterwards.
+   *  @param maxBytes Estimated bytes of pages to keep in memory.
+   *  @return This cursor.
+   *  @since 1.3.0
+   */
+  public DeviceCursor cache(long maxBytes) {
+    return cache(maxBytes, null);
+  }
+
+  /**
+   *  Like {@link #cache(long)}, but pages evicted from memory are written to a temp file
+   *  in <tt>spillDir</tt> and read back from there instead of being refetched. Call
+   *  {@link #clearCache()} once the cursor is no longer iterated, to close and delete
+   *  the file; a cache replaced by another call to <tt>cache</tt> is cleared first.
+   *  @param maxBytes Estimated bytes of pages to keep in memory.
+   *  @param spillDir Directory for the temp file, or null to drop evicted pages.
+   *  @return This cursor.
+   *  @since 1.3.0
+   */
+  public DeviceCursor cache(long maxBytes, File spillDir) {
+    clearCache();
+    this.cache = new SegmentCache<Device>(maxBytes, spillDir);
+    return this;
+  }
+
+  /**
+   *  Drops the cached pages and deletes the temp file, if any. The cache stays enabled.
+   *  @since 1.3.0
+   */
+  public void clearCache() {
+    if (cache != null) {
+      cache.clear();
+    }
+  }
+
+  /**
+   *  Hands every Device to a consumer on <tt>parallelism</tt> worker threads, a page at a
+   *  time per worker, while the following pages are fetched on the calling thread.
+   *  Devices keep their order within a page, but pages are processed concurrently.
+   *  @param consumer The consumer of the Devices; it must be thread safe.
+   *  @param parallelism The number of worker threads.
+   *  @since 1.3.0
+   */
+  public void forEachParallel(final CursorConsumer<? super Device> consumer, int parallelism) {
+    checkNotNull(consumer);
+    ParallelPages.forEach(pages(), new ParallelPages.PageHandler<Segment<Device>>() {
+      public void handle(Segment<Device> page) {
+        for (Device device : page) {
+          consumer.accept(device);
+        }
+      }
+    }, parallelism);
+  }
+
   public Iterator<Device> iterator() {
-    final DevicePageLoader pages =  new DevicePageLoader(first, endpoint, runner, contentType, mediaTypeVersions);
-    return new PagingIterator<Device>(pages);
+    return new PagingIterator<Device>(pages());
+  }
+
+  Iterator<Segment<Device>> pages() {
+    DevicePageLoader pages =  new DevicePageLoader(first, endpoint, runner, contentType, mediaTypeVersions);
+    pages.setCache(cache);
+    if (prefetch > 0) {
+      return new PrefetchingPageIterator<Device>(pages, prefetch);
+    }
+    return pages;
   }
 }
@@ -13,6 +13,7 @@ import com.tempoiq.json.Json;
 
 public class DeviceSegment extends Segment<Device> {
   private static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+  private static final long serialVersionUID = 1L;
 
   @JsonCreator
   public DeviceSegment(@JsonProperty("data") List<Device> devices) {
@@ -23,6 +24,16 @@ public class DeviceSegment extends Segment<Device> {
     super(devices, nextPage);
   }
 
+  @Override
+  long estimateBytes() {
+    long bytes = ESTIMATED_ELEMENT_BYTES;
+    for (Device device : data) {
+      int sensors = device.getSensors() == null ? 0 : device.getSensors().size();
+      bytes += ESTIMATED_ELEMENT_BYTES * (1 + sensors + device.getAttributes().size());
+    }
+    return bytes;
+  }
+
   static DeviceSegment make(HttpResponse response) throws IOException {
     String body = EntityUtils.toString(response.getEntity(), DEFAULT_CHARSET);
     DeviceSegment segment = Json.loads(body, DeviceSegment.class);
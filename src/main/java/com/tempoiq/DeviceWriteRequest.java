@@ -0,0 +1,75 @@
+package com.tempoiq;
+
+import java.util.List;
+import java.util.Map;
+
+import static com.tempoiq.util.Preconditions.*;
+
+/**
+ *  MultiDataPoints for a single Device, as written by
+ *  {@link Client#writeDataPoints(Device, List)}.
+ *
+ *  <p>The request is serialized straight from the MultiDataPoints into the /v2/write
+ *  body, without a Sensor, DataPoint or WritableDataPoint per value.
+ *  @since 1.3.0
+ */
+public class DeviceWriteRequest {
+  private final Device device;
+  private final List<MultiDataPoint> data;
+  private final int size;
+
+  DeviceWriteRequest(Device device, List<MultiDataPoint> data) {
+    this.device = checkNotNull(device);
+    this.data = checkNotNull(data);
+    int size = 0;
+    for (MultiDataPoint point : data) {
+      size += point.getData().size();
+    }
+    this.size = size;
+  }
+
+  /**
+   *  Returns the Device written to.
+   *  @return The Device.
+   *  @since 1.3.0
+   */
+  public Device getDevice() { return device; }
+
+  /**
+   *  Returns the MultiDataPoints to write.
+   *  @return The MultiDataPoints.
+   *  @since 1.3.0
+   */
+  public List<MultiDataPoint> getData() { return data; }
+
+  /**
+   *  Returns the number of values in the request.
+   *  @return The number of values.
+   *  @since 1.3.0
+   */
+  public int size() { return size; }
+
+  long estimateBytes() {
+    long bytes = 0;
+    int deviceBytes = device.getKey().length();
+    for (MultiDataPoint point : data) {
+      for (String sensor : point.getData().keySet()) {
+        bytes += WriteSplitter.ESTIMATED_POINT_BYTES + deviceBytes + sensor.length();
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   *  Builds the equivalent WriteRequest, with one WritableDataPoint per value.
+   */
+  WriteRequest toWriteRequest() {
+    WriteRequest request = new WriteRequest();
+    for (MultiDataPoint point : data) {
+      for (Map.Entry<String, Number> entry : point.getData().entrySet()) {
+        request.add(device, new Sensor(entry.getKey()), new DataPoint(point.getTimestamp(), entry.getValue()));
+      }
+    }
+    return request;
+  }
+}
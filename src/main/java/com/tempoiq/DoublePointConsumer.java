@@ -0,0 +1,19 @@
+package com.tempoiq;
+
+
+/**
+ *  Receives the values of a stream as primitives, without a DataPoint, DateTime or
+ *  boxed Number per value.
+ *
+ *  @see DataPointCursor#forEachDouble(DoublePointConsumer)
+ *  @since 1.3.0
+ */
+public interface DoublePointConsumer {
+  /**
+   *  Called once for every value of the stream, in timestamp order.
+   *  @param timestamp The timestamp in milliseconds since the epoch.
+   *  @param value The value.
+   *  @since 1.3.0
+   */
+  void accept(long timestamp, double value);
+}
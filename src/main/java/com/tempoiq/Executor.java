@@ -3,6 +3,7 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.nio.charset.Charset;
+import java.util.Locale;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.*;
@@ -40,11 +41,18 @@ public class Executor {
   private final String scheme;
   private HttpClient client = null;
   private HttpHost target = null;
+  private volatile long compressionThreshold = NO_COMPRESSION;
+  private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+  private volatile WriteLimiter writeLimiter = null;
 
   private static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
   private static final int DEFAULT_TIMEOUT_MILLIS = 50000;  // 50 seconds
   private static final long DEFAULT_KEEPALIVE_TIMEOUT_MILLIS = 50000;  // 50 seconds
   private static final int GENERIC_ERROR_CODE = 600;
+  private static final long NO_COMPRESSION = -1;
+  private static final int DEFAULT_MAX_CONNECTIONS = 2;
+  private static final DateTimeFormatter HTTP_DATE_FORMAT =
+    DateTimeFormat.forPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'").withZoneUTC().withLocale(Locale.US);
 
   private enum HttpMethod { GET, POST, PUT, DELETE }
 
@@ -60,7 +68,7 @@ public class Executor {
   }
 
   public <T> Result<T> get(URI endpoint, Class<T> klass, String contentType, String[] mediaTypes) {
-    HttpRequest request = buildRequest(endpoint, HttpMethod.GET, null, contentType, mediaTypes);
+    HttpRequest request = buildRequest(endpoint, HttpMethod.GET, (HttpEntity)null, contentType, mediaTypes);
     return execute(request, klass);
   }
   
@@ -82,6 +90,23 @@ public class Executor {
     return execute(request, klass);
   }
 
+  public <T> Result<T> post(URI endpoint, HttpEntity entity, Class<T> klass, String contentType, String[] mediaTypes) {
+    HttpRequest request = buildRequest(endpoint, HttpMethod.POST, entity, contentType, mediaTypes);
+    return execute(request, klass);
+  }
+
+  /**
+   *  Posts a write request, subject to the write limiter if one is set.
+   */
+  public <T> Result<T> write(URI endpoint, HttpEntity entity, Class<T> klass, String contentType, String[] mediaTypes) {
+    HttpRequest request = buildRequest(endpoint, HttpMethod.POST, entity, contentType, mediaTypes);
+    WriteLimiter limiter = writeLimiter;
+    if (limiter == null) {
+      return execute(request, klass);
+    }
+    return executeLimited(limiter, request, klass);
+  }
+
   public <T> Result<T> put(URI endpoint, String body, String contentType, Class<T> klass) {
     return put(endpoint, body, klass, contentType, new String[] {});
   }
@@ -92,7 +117,7 @@ public class Executor {
   }
 
   public Result<DeleteSummary> delete(URI endpoint) {
-    HttpRequest request = buildRequest(endpoint, HttpMethod.DELETE, null, "", new String[] {});
+    HttpRequest request = buildRequest(endpoint, HttpMethod.DELETE, (HttpEntity)null, "", new String[] {});
     return execute(request, DeleteSummary.class);
   }
 
@@ -115,6 +140,49 @@ public class Executor {
     }
   }
 
+  <T> Result<T> executeLimited(WriteLimiter limiter, HttpRequest request, Class<T> klass) {
+    long start;
+    try {
+      start = limiter.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return new Result<T>(null, GENERIC_ERROR_CODE, "Interrupted while waiting for the write limiter.");
+    }
+
+    int code = GENERIC_ERROR_CODE;
+    long retryAfterMillis = 0;
+    try {
+      HttpResponse response = executeRequest(request);
+      code = response.getStatusLine().getStatusCode();
+      Header retryAfter = response.getFirstHeader("Retry-After");
+      if (retryAfter != null) {
+        retryAfterMillis = parseRetryAfter(retryAfter.getValue(), System.currentTimeMillis());
+      }
+      return new Result<T>(response, klass);
+    } catch (IOException e) {
+      return new Result<T>(null, GENERIC_ERROR_CODE, e.getMessage());
+    } finally {
+      limiter.release(start, code, retryAfterMillis);
+    }
+  }
+
+  /**
+   *  Parses a Retry-After value, either delay-seconds or an HTTP-date.
+   *  @return The delay in milliseconds, or 0 if the value cannot be parsed.
+   */
+  static long parseRetryAfter(String value, long nowMillis) {
+    String trimmed = value.trim();
+    try {
+      return Math.max(0, Long.parseLong(trimmed) * 1000);
+    } catch (NumberFormatException ignore) {
+    }
+    try {
+      return Math.max(0, HTTP_DATE_FORMAT.parseMillis(trimmed) - nowMillis);
+    } catch (IllegalArgumentException ignore) {
+      return 0;
+    }
+  }
+
   HttpResponse executeRequest(HttpRequest request) throws IOException {
     HttpClient client = getHttpClient();
     HttpContext context = getContext();
@@ -123,35 +191,46 @@ public class Executor {
   }
 
   HttpRequest buildRequest(URI uri, HttpMethod method, String body, String contentType, String[] mediaTypes) {
+    HttpEntity entity = null;
+    if(body != null) {
+      entity = new StringEntity(body, DEFAULT_CHARSET);
+    }
+    return buildRequest(uri, method, entity, contentType, mediaTypes);
+  }
+
+  HttpRequest buildRequest(URI uri, HttpMethod method, HttpEntity entity, String contentType, String[] mediaTypes) {
     String endpoint = uri.toString();
     HttpRequest request = null;
+    if(entity != null && shouldCompress(entity)) {
+      entity = new GzipCompressingEntity(entity);
+    }
     switch(method) {
       case POST:
         HttpPost post = new HttpPost(endpoint);
-        if(body != null) {
-          post.setEntity(new StringEntity(body, DEFAULT_CHARSET));
+        if(entity != null) {
+          post.setEntity(entity);
         }
         request = post;
         break;
       case PUT:
         HttpPut put = new HttpPut(endpoint);
-        if(body != null) {
-          put.setEntity(new StringEntity(body, DEFAULT_CHARSET));
+        if(entity != null) {
+          put.setEntity(entity);
         }
         request = put;
         break;
       case DELETE:
         HttpDeleteWithBody delete = new HttpDeleteWithBody(endpoint);
-        if(body != null) {
-          delete.setEntity(new StringEntity(body, DEFAULT_CHARSET));
+        if(entity != null) {
+          delete.setEntity(entity);
         }
         request = delete;
         break;
       case GET:
       default:
         HttpGetWithBody get = new HttpGetWithBody(endpoint);
-        if(body != null) {
-          get.setEntity(new StringEntity(body, DEFAULT_CHARSET));
+        if(entity != null) {
+          get.setEntity(entity);
         }
         request = get;
         break;
@@ -165,6 +244,46 @@ public class Executor {
     return request;
   }
 
+  /**
+   *  Gzips request bodies of at least <tt>threshold</tt> bytes. Streamed JSON bodies
+   *  are judged by their estimated length; bodies of unknown length are always
+   *  compressed. A negative threshold disables compression.
+   */
+  Executor setRequestCompression(long threshold) {
+    this.compressionThreshold = threshold;
+    return this;
+  }
+
+  /**
+   *  Raises the number of pooled connections to the api host so that concurrent
+   *  requests are not queued behind the pool. Only applies to the default HttpClient,
+   *  and must be called before the first request.
+   */
+  synchronized Executor ensureMaxConnections(int connections) {
+    this.maxConnections = Math.max(maxConnections, connections);
+    return this;
+  }
+
+  /**
+   *  Limits concurrent write requests adaptively. A null limiter disables limiting.
+   */
+  Executor setWriteLimiter(WriteLimiter limiter) {
+    this.writeLimiter = limiter;
+    return this;
+  }
+
+  private boolean shouldCompress(HttpEntity entity) {
+    long threshold = compressionThreshold;
+    if (threshold < 0 || entity.getContentEncoding() != null) {
+      return false;
+    }
+    long length = entity.getContentLength();
+    if (length < 0 && entity instanceof JsonEntity) {
+      length = ((JsonEntity)entity).getEstimatedLength();
+    }
+    return length < 0 || length >= threshold;
+  }
+
   private synchronized HttpClient getHttpClient() {
     if(client == null) {
       HttpParams httpParams = new BasicHttpParams();
@@ -172,7 +291,11 @@ public class Executor {
       HttpConnectionParams.setSoTimeout(httpParams, DEFAULT_TIMEOUT_MILLIS);
       HttpProtocolParams.setUserAgent(httpParams, String.format("tempoiq-java/%s", getVersion()));
 
-      DefaultHttpClient defaultClient = new DefaultHttpClient(new PoolingClientConnectionManager(), httpParams);
+      PoolingClientConnectionManager connectionManager = new PoolingClientConnectionManager();
+      connectionManager.setDefaultMaxPerRoute(maxConnections);
+      connectionManager.setMaxTotal(Math.max(maxConnections, connectionManager.getMaxTotal()));
+
+      DefaultHttpClient defaultClient = new DefaultHttpClient(connectionManager, httpParams);
       defaultClient.getCredentialsProvider().setCredentials(
         new AuthScope(getTarget()),
         new UsernamePasswordCredentials(credentials.getKey(), credentials.getSecret()));
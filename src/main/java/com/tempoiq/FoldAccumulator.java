@@ -0,0 +1,78 @@
+package com.tempoiq;
+
+
+/**
+ *  Single-pass state of every {@link Fold} over a sequence of values.
+ *
+ *  <p>Adding a value updates the count, sum, product, extremes, first value and,
+ *  with Welford's algorithm, the mean and the sum of squared deviations, so all folds
+ *  are available at once and nothing is allocated per value.
+ */
+class FoldAccumulator {
+  private long count;
+  private double sum;
+  private double product;
+  private double mean;
+  private double squares;
+  private double min;
+  private double max;
+  private double first;
+
+  FoldAccumulator() {
+    reset();
+  }
+
+  void add(double value) {
+    if (count == 0) {
+      min = value;
+      max = value;
+      first = value;
+    } else {
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+    }
+    count += 1;
+    sum += value;
+    product *= value;
+    double delta = value - mean;
+    mean += delta / count;
+    squares += delta * (value - mean);
+  }
+
+  long getCount() { return count; }
+
+  /**
+   *  Returns the result of a fold; COUNT is a Long and the others are Doubles.
+   *  Variance is the sample variance, and 0 for a single value.
+   */
+  Number getResult(Fold fold) {
+    switch (fold) {
+      case SUM: return sum;
+      case MULT: return product;
+      case MEAN: return mean;
+      case MAX: return max;
+      case MIN: return min;
+      case COUNT: return count;
+      case VARIANCE: return variance();
+      case STDDEV: return Math.sqrt(variance());
+      case RANGE: return max - min;
+      case FIRST: return first;
+      default: throw new IllegalArgumentException("Unknown fold: " + fold);
+    }
+  }
+
+  void reset() {
+    count = 0;
+    sum = 0.0;
+    product = 1.0;
+    mean = 0.0;
+    squares = 0.0;
+    min = Double.NaN;
+    max = Double.NaN;
+    first = Double.NaN;
+  }
+
+  private double variance() {
+    return count > 1 ? squares / (count - 1) : 0.0;
+  }
+}
@@ -0,0 +1,65 @@
+package com.tempoiq;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+
+import static com.tempoiq.util.Preconditions.*;
+
+/**
+ *  Wraps an HttpEntity and gzips its body while it is sent.
+ *
+ *  <p>The wrapped entity writes through a GZIPOutputStream into the connection, so
+ *  the compressed body is never buffered in full. The length is unknown up front and
+ *  the request uses chunked transfer encoding.
+ */
+class GzipCompressingEntity extends HttpEntityWrapper {
+  private static final int BUFFER_SIZE = 8192;
+  private static final Header CONTENT_ENCODING = new BasicHeader("Content-Encoding", "gzip");
+
+  GzipCompressingEntity(HttpEntity entity) {
+    super(checkNotNull(entity));
+  }
+
+  @Override
+  public Header getContentEncoding() {
+    return CONTENT_ENCODING;
+  }
+
+  @Override
+  public long getContentLength() {
+    return -1;
+  }
+
+  @Override
+  public boolean isChunked() {
+    return true;
+  }
+
+  /**
+   *  Buffers the whole compressed body. Only used when the entity is read back rather than sent.
+   */
+  @Override
+  public InputStream getContent() throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    writeTo(buffer);
+    return new ByteArrayInputStream(buffer.toByteArray());
+  }
+
+  @Override
+  public void writeTo(OutputStream out) throws IOException {
+    checkNotNull(out);
+    GZIPOutputStream gzip = new GZIPOutputStream(out, BUFFER_SIZE);
+    wrappedEntity.writeTo(gzip);
+    // Finish the gzip trailer but leave closing the connection stream to the caller
+    gzip.finish();
+  }
+}
@@ -0,0 +1,233 @@
+package com.tempoiq;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Period;
+
+import static com.tempoiq.util.Preconditions.*;
+
+/**
+ *  Regrids DataPoints on the client with an {@link Interpolation}, so that data
+ *  already read can be aligned without another query.
+ *
+ *  <p>Values are computed at <tt>ts_n = start + period * n</tt> for every
+ *  <tt>ts_n</tt> before <tt>stop</tt>, from the points on either side:
+ *  <ul>
+ *    <li>{@link InterpolationFunction#ZOH} holds the last value at or before
+ *      <tt>ts_n</tt>, up to <tt>stop</tt>.</li>
+ *    <li>{@link InterpolationFunction#LINEAR} interpolates between the last point at
+ *      or before <tt>ts_n</tt> and the first one after it, and does not extrapolate.</li>
+ *  </ul>
+ *  Grid points before the first DataPoint have no value. Points must be in timestamp
+ *  order. Each stream keeps only its last point and its position on the grid, so
+ *  memory does not grow with the length of the read or of gaps in it.
+ *
+ *  <p><pre>
+ *    Interpolator interpolator = new Interpolator(Interpolation.linear(Period.minutes(5)), start, stop);
+ *    for (DataPoint point : interpolator.apply(cursor.pointsForStream("device", "sensor"))) {
+ *      ...
+ *    }
+ *  </pre>
+ *  @since 1.3.0
+ */
+public class Interpolator {
+  private final InterpolationFunction function;
+  private final Period period;
+  private final DateTime start;
+  private final long stop;
+
+  /**
+   *  @param interpolation The period and function of the grid.
+   *  @param start The first timestamp of the grid.
+   *  @param stop The end of the grid, exclusive.
+   *  @since 1.3.0
+   */
+  public Interpolator(Interpolation interpolation, DateTime start, DateTime stop) {
+    checkNotNull(interpolation);
+    this.start = checkNotNull(start);
+    this.stop = checkNotNull(stop).getMillis();
+    this.function = interpolation.getFunction();
+    this.period = interpolation.getPeriod();
+    checkArgument(start.plus(period).isAfter(start), "The interpolation period must be positive.");
+  }
+
+  /**
+   *  Regrids one stream lazily: DataPoints are read as the results are iterated.
+   *  @param points The DataPoints, in timestamp order, for instance a
+   *    {@link DataPointCursor}.
+   *  @return The regridded DataPoints.
+   *  @since 1.3.0
+   */
+  public Cursor<DataPoint> apply(final Cursor<DataPoint> points) {
+    checkNotNull(points);
+    return new Cursor<DataPoint>() {
+      public Iterator<DataPoint> iterator() {
+        return new RegridIterator(points.iterator());
+      }
+    };
+  }
+
+  /**
+   *  Regrids every stream of the Rows and hands each value to a consumer as soon as
+   *  it is known. Values arrive in timestamp order within a stream, but the streams
+   *  are not aligned with each other.
+   *  @param rows The Rows, in timestamp order, for instance a {@link DataPointRowCursor}.
+   *  @param consumer The consumer of the regridded values.
+   *  @since 1.3.0
+   */
+  public void forEachPoint(Iterable<Row> rows, DataPointConsumer consumer) {
+    checkNotNull(rows);
+    checkNotNull(consumer);
+    DateTimeZone timezone = start.getZone();
+    Map<String, Map<String, Regrid>> streams = new LinkedHashMap<String, Map<String, Regrid>>();
+    for (Row row : rows) {
+      long timestamp = row.getTimestampMillis();
+      for (Map.Entry<String, Map<String, Number>> device : row.getValues().entrySet()) {
+        Map<String, Regrid> sensors = streams.get(device.getKey());
+        if (sensors == null) {
+          sensors = new LinkedHashMap<String, Regrid>();
+          streams.put(device.getKey(), sensors);
+        }
+        for (Map.Entry<String, Number> sensor : device.getValue().entrySet()) {
+          if (sensor.getValue() == null) {
+            continue;
+          }
+          Regrid regrid = sensors.get(sensor.getKey());
+          if (regrid == null) {
+            regrid = new Regrid();
+            sensors.put(sensor.getKey(), regrid);
+          }
+          double value = sensor.getValue().doubleValue();
+          while (regrid.step(true, timestamp, value)) {
+            consumer.accept(device.getKey(), sensor.getKey(), new DataPoint(regrid.timestamp, timezone, regrid.value));
+          }
+          regrid.accept(timestamp, value);
+        }
+      }
+    }
+
+    for (Map.Entry<String, Map<String, Regrid>> device : streams.entrySet()) {
+      for (Map.Entry<String, Regrid> sensor : device.getValue().entrySet()) {
+        Regrid regrid = sensor.getValue();
+        while (regrid.step(false, 0, 0.0)) {
+          consumer.accept(device.getKey(), sensor.getKey(), new DataPoint(regrid.timestamp, timezone, regrid.value));
+        }
+      }
+    }
+  }
+
+  /**
+   *  The grid position and last point of one stream. Grid values are produced one at a
+   *  time with {@link #step(boolean, long, double)}, so a long gap is never buffered.
+   */
+  private class Regrid {
+    private int index = 0;
+    private long grid = start.getMillis();
+    private boolean hasPrevious = false;
+    private long previousTimestamp;
+    private double previousValue;
+
+    /** The grid value produced by the last successful step. */
+    private long timestamp;
+    private double value;
+
+    /**
+     *  Produces the next grid value before the next point, or after the last point if
+     *  there is none.
+     *  @return false once the next point must be accepted first, or the grid is done.
+     */
+    boolean step(boolean hasNext, long nextTimestamp, double nextValue) {
+      while (grid < stop) {
+        if (hasNext && grid >= nextTimestamp) {
+          return false;
+        }
+        if (!hasPrevious) {
+          if (!hasNext) {
+            return false;
+          }
+          advance();
+          continue;
+        }
+        if (hasNext && function == InterpolationFunction.LINEAR) {
+          value = previousValue + (nextValue - previousValue) * (grid - previousTimestamp) / (nextTimestamp - previousTimestamp);
+        } else if (hasNext || function == InterpolationFunction.ZOH || grid == previousTimestamp) {
+          value = previousValue;
+        } else {
+          return false;
+        }
+        timestamp = grid;
+        advance();
+        return true;
+      }
+      return false;
+    }
+
+    void accept(long timestamp, double value) {
+      previousTimestamp = timestamp;
+      previousValue = value;
+      hasPrevious = true;
+    }
+
+    boolean isDone() {
+      return grid >= stop;
+    }
+
+    private void advance() {
+      index += 1;
+      grid = start.plus(period.multipliedBy(index)).getMillis();
+    }
+  }
+
+  private class RegridIterator implements Iterator<DataPoint> {
+    private final Iterator<DataPoint> points;
+    private final Regrid regrid = new Regrid();
+    private final DateTimeZone timezone = start.getZone();
+    private DataPoint pending = null;
+    private boolean ready = false;
+
+    private RegridIterator(Iterator<DataPoint> points) {
+      this.points = points;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (!ready) {
+        if (pending == null && !regrid.isDone() && points.hasNext()) {
+          pending = points.next();
+        }
+        if (pending == null) {
+          ready = regrid.step(false, 0, 0.0);
+          return ready;
+        }
+        if (regrid.step(true, pending.getTimestampMillis(), pending.getValue().doubleValue())) {
+          ready = true;
+        } else if (regrid.isDone()) {
+          return false;
+        } else {
+          regrid.accept(pending.getTimestampMillis(), pending.getValue().doubleValue());
+          pending = null;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public DataPoint next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      ready = false;
+      return new DataPoint(regrid.timestamp, timezone, regrid.value);
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package com.tempoiq;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import com.tempoiq.json.Json;
+import static com.tempoiq.util.Preconditions.*;
+
+/**
+ *  An HttpEntity that serializes its value as JSON directly onto the connection.
+ *
+ *  <p>The body is never held in memory as a String or byte array; it is generated
+ *  while the request is being sent, using chunked transfer encoding. The entity is
+ *  repeatable, so a request can be retried.
+ */
+class JsonEntity extends AbstractHttpEntity {
+  private final Object value;
+  private final long estimatedLength;
+
+  JsonEntity(Object value) {
+    this(value, -1);
+  }
+
+  /**
+   *  @param value The value to serialize.
+   *  @param estimatedLength Approximate body size in bytes, or -1 if unknown.
+   */
+  JsonEntity(Object value, long estimatedLength) {
+    this.value = checkNotNull(value);
+    this.estimatedLength = estimatedLength;
+  }
+
+  Object getValue() {
+    return value;
+  }
+
+  /**
+   *  Returns the approximate body size in bytes, or -1 if unknown. The exact
+   *  length is only known once the body has been written.
+   */
+  long getEstimatedLength() {
+    return estimatedLength;
+  }
+
+  public boolean isRepeatable() {
+    return true;
+  }
+
+  public long getContentLength() {
+    return -1;
+  }
+
+  public boolean isStreaming() {
+    return false;
+  }
+
+  /**
+   *  Buffers the whole body. Only used when the entity is read back rather than sent.
+   */
+  public InputStream getContent() throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    writeTo(buffer);
+    return new ByteArrayInputStream(buffer.toByteArray());
+  }
+
+  public void writeTo(OutputStream out) throws IOException {
+    checkNotNull(out);
+    Json.dump(value, out);
+  }
+}
@@ -0,0 +1,221 @@
+package com.tempoiq;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.joda.time.DateTimeZone;
+
+import static com.tempoiq.util.Preconditions.*;
+
+/**
+ *  A cache of the latest value of each (device, sensor) stream, which lets
+ *  {@link Client#latest(Selection)} answer from memory.
+ *
+ *  <p>Every latest query sent to the API refreshes the values of the streams it returns
+ *  and remembers which streams its selection covered. Successful writes made through
+ *  the Client update those values too, as do writes accepted into the write spool, so a
+ *  Client sees its own writes. Its deletes drop the values of the streams they touch. A
+ *  latest query is answered from the cache while its selection was refreshed less than
+ *  <tt>maxAgeMillis</tt> ago; after that the next call goes to the API again. Streams
+ *  that start matching a selection are therefore seen within <tt>maxAgeMillis</tt>,
+ *  and so are values written by other clients.
+ *
+ *  <p>Only latest queries with no pipeline functions use the cache. Values are kept
+ *  apart per database, so a cache can be shared between Clients.
+ *
+ *  <p><pre>
+ *    Client client = new ClientBuilder()
+ *                      .credentials(credentials)
+ *                      .latestValueCache(new LatestValueCache(10 * 1000))
+ *                      .build();
+ *  </pre>
+ *  @since 1.3.0
+ */
+public class LatestValueCache {
+  private static class Value {
+    private final long timestamp;
+    private final Number value;
+
+    private Value(long timestamp, Number value) {
+      this.timestamp = timestamp;
+      this.value = value;
+    }
+  }
+
+  private static class Selected {
+    private final long refreshedMillis;
+    private final List<String[]> streams;
+
+    private Selected(long refreshedMillis, List<String[]> streams) {
+      this.refreshedMillis = refreshedMillis;
+      this.streams = streams;
+    }
+  }
+
+  /** The values and selections of one database. */
+  private static class Database {
+    private final Map<String, Map<String, Value>> values = new HashMap<String, Map<String, Value>>();
+    private final Map<String, Selected> selections = new HashMap<String, Selected>();
+  }
+
+  private final long maxAgeMillis;
+  private final Map<String, Database> databases = new HashMap<String, Database>();
+
+  /**
+   *  @param maxAgeMillis How long the answer of a latest query is reused.
+   *  @since 1.3.0
+   */
+  public LatestValueCache(long maxAgeMillis) {
+    checkArgument(maxAgeMillis >= 0, "maxAgeMillis must not be negative.");
+    this.maxAgeMillis = maxAgeMillis;
+  }
+
+  /**
+   *  Returns how long the answer of a latest query is reused.
+   *  @return The bound in milliseconds.
+   *  @since 1.3.0
+   */
+  public long getMaxAgeMillis() { return maxAgeMillis; }
+
+  /**
+   *  Returns the number of streams with a cached value.
+   *  @return The number of streams.
+   *  @since 1.3.0
+   */
+  public synchronized int getStreamCount() {
+    int count = 0;
+    for (Database database : databases.values()) {
+      for (Map<String, Value> sensors : database.values.values()) {
+        count += sensors.size();
+      }
+    }
+    return count;
+  }
+
+  /**
+   *  Removes every value and selection.
+   *  @since 1.3.0
+   */
+  public synchronized void clear() {
+    databases.clear();
+  }
+
+  /**
+   *  Records a value of a stream, unless a later one is cached.
+   *  @param database Keeps the streams of databases apart in a shared cache.
+   */
+  synchronized void record(String database, String deviceKey, String sensorKey, long timestamp, Number value) {
+    Map<String, Map<String, Value>> values = database(database).values;
+    Map<String, Value> sensors = values.get(deviceKey);
+    if (sensors == null) {
+      sensors = new HashMap<String, Value>();
+      values.put(deviceKey, sensors);
+    }
+    Value current = sensors.get(sensorKey);
+    if (current == null || current.timestamp <= timestamp) {
+      sensors.put(sensorKey, new Value(timestamp, value));
+    }
+  }
+
+  /**
+   *  Records the Rows returned for a latest query, and the streams of its selection.
+   */
+  synchronized void refresh(String database, String key, List<Row> rows, long nowMillis) {
+    List<String[]> streams = new ArrayList<String[]>();
+    for (Row row : rows) {
+      for (Map.Entry<String, Map<String, Number>> device : row.getValues().entrySet()) {
+        for (Map.Entry<String, Number> sensor : device.getValue().entrySet()) {
+          if (sensor.getValue() == null) {
+            continue;
+          }
+          record(database, device.getKey(), sensor.getKey(), row.getTimestampMillis(), sensor.getValue());
+          streams.add(new String[] { device.getKey(), sensor.getKey() });
+        }
+      }
+    }
+    database(database).selections.put(key, new Selected(nowMillis, streams));
+  }
+
+  /**
+   *  Drops the values of a device, or of one of its sensors if <tt>sensorKey</tt> is not
+   *  null, as after a delete. Selections that covered them are queried again.
+   */
+  synchronized void forget(String database, String deviceKey, String sensorKey) {
+    Database cached = databases.get(database);
+    if (cached == null) {
+      return;
+    }
+    Map<String, Value> sensors = cached.values.get(deviceKey);
+    if (sensors != null) {
+      if (sensorKey == null) {
+        cached.values.remove(deviceKey);
+      } else {
+        sensors.remove(sensorKey);
+      }
+    }
+
+    Iterator<Selected> it = cached.selections.values().iterator();
+    while (it.hasNext()) {
+      for (String[] stream : it.next().streams) {
+        if (stream[0].equals(deviceKey) && (sensorKey == null || stream[1].equals(sensorKey))) {
+          it.remove();
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   *  Drops every value and selection of a database.
+   */
+  synchronized void forget(String database) {
+    databases.remove(database);
+  }
+
+  private Database database(String database) {
+    Database cached = databases.get(database);
+    if (cached == null) {
+      cached = new Database();
+      databases.put(database, cached);
+    }
+    return cached;
+  }
+
+  /**
+   *  Returns the Rows of a latest query, one per distinct timestamp, or null if the
+   *  query was not refreshed within the bound.
+   */
+  synchronized List<Row> lookup(String database, String key, long nowMillis) {
+    Database cached = databases.get(database);
+    Selected selected = cached == null ? null : cached.selections.get(key);
+    if (selected == null || nowMillis - selected.refreshedMillis >= maxAgeMillis) {
+      return null;
+    }
+
+    TreeMap<Long, Map<String, Map<String, Number>>> byTimestamp = new TreeMap<Long, Map<String, Map<String, Number>>>();
+    for (String[] stream : selected.streams) {
+      Value value = cached.values.get(stream[0]).get(stream[1]);
+      Map<String, Map<String, Number>> devices = byTimestamp.get(value.timestamp);
+      if (devices == null) {
+        devices = new HashMap<String, Map<String, Number>>();
+        byTimestamp.put(value.timestamp, devices);
+      }
+      Map<String, Number> sensors = devices.get(stream[0]);
+      if (sensors == null) {
+        sensors = new HashMap<String, Number>();
+        devices.put(stream[0], sensors);
+      }
+      sensors.put(stream[1], value.value);
+    }
+
+    List<Row> rows = new ArrayList<Row>(byTimestamp.size());
+    for (Map.Entry<Long, Map<String, Map<String, Number>>> entry : byTimestamp.entrySet()) {
+      rows.add(new Row(entry.getKey(), DateTimeZone.UTC, entry.getValue()));
+    }
+    return rows;
+  }
+}
@@ -0,0 +1,297 @@
+package com.tempoiq;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import static com.tempoiq.util.Preconditions.*;
+
+/**
+ *  Applies the {@link Rollup} and {@link Aggregation} functions of a {@link Pipeline}
+ *  to Rows on the client, for instance to raw Rows that were read once and are needed
+ *  with several folds.
+ *
+ *  <p>Functions are applied in the order of the pipeline, in a single pass over Rows
+ *  in timestamp order. A Rollup folds each (device, sensor) stream by period and emits
+ *  a Row stamped with the start of the period as soon as a later period begins; an
+ *  Aggregation folds the values of each Row across streams into a single stream, keyed
+ *  by {@link #AGGREGATION_DEVICE_KEY} and the lower case name of the fold. Folds are
+ *  computed with single-pass algorithms (Welford's for variance, which is the sample
+ *  variance), so nothing is kept per value.
+ *
+ *  <p><pre>
+ *    Pipeline hourly = new Pipeline().rollup(Period.hours(1), Fold.MEAN, start);
+ *    for (Row row : new LocalPipeline(hourly).apply(client.read(selection, start, stop))) {
+ *      ...
+ *    }
+ *  </pre>
+ *  @since 1.3.0
+ */
+public class LocalPipeline {
+  /**
+   *  The device key of the stream produced by an Aggregation.
+   *  @since 1.3.0
+   */
+  public static final String AGGREGATION_DEVICE_KEY = "aggregation";
+
+  private final List<PipelineFunction> functions;
+
+  /**
+   *  @param pipeline The pipeline to apply.
+   *  @throws IllegalArgumentException If the pipeline has a function other than a
+   *    Rollup or an Aggregation.
+   *  @since 1.3.0
+   */
+  public LocalPipeline(Pipeline pipeline) {
+    checkNotNull(pipeline);
+    this.functions = new ArrayList<PipelineFunction>(pipeline.getFunctions());
+    for (PipelineFunction function : functions) {
+      checkArgument(function instanceof Rollup || function instanceof Aggregation,
+                    String.format("%s is not supported locally.", function.getName()));
+    }
+  }
+
+  /**
+   *  Applies the pipeline lazily: Rows are read from <tt>rows</tt> as the results are
+   *  iterated, and each result is returned once its period is complete.
+   *  @param rows The Rows, in timestamp order.
+   *  @return The results.
+   *  @since 1.3.0
+   */
+  public Cursor<Row> apply(final Cursor<Row> rows) {
+    checkNotNull(rows);
+    return new Cursor<Row>() {
+      public Iterator<Row> iterator() {
+        return new ResultIterator(rows.iterator());
+      }
+    };
+  }
+
+  /**
+   *  Applies several pipelines in a single pass over the same Rows.
+   *  @param rows The Rows, in timestamp order.
+   *  @param pipelines The pipelines.
+   *  @return The results of each pipeline, in the order of <tt>pipelines</tt>.
+   *  @since 1.3.0
+   */
+  public static List<List<Row>> applyAll(Iterable<Row> rows, LocalPipeline... pipelines) {
+    checkNotNull(rows);
+    List<List<Row>> results = new ArrayList<List<Row>>(pipelines.length);
+    List<Stage> stages = new ArrayList<Stage>(pipelines.length);
+    for (LocalPipeline pipeline : pipelines) {
+      List<Row> result = new ArrayList<Row>();
+      results.add(result);
+      stages.add(pipeline.open(new Collect(result)));
+    }
+    for (Row row : rows) {
+      for (Stage stage : stages) {
+        stage.push(row);
+      }
+    }
+    for (Stage stage : stages) {
+      stage.finish();
+    }
+    return results;
+  }
+
+  /**
+   *  Chains the stages of the functions in front of a sink.
+   */
+  private Stage open(Stage sink) {
+    Stage stage = sink;
+    for (int i = functions.size() - 1; i >= 0; i--) {
+      PipelineFunction function = functions.get(i);
+      if (function instanceof Rollup) {
+        stage = new RollupStage((Rollup)function, stage);
+      } else {
+        stage = new AggregationStage(((Aggregation)function).getFold(), stage);
+      }
+    }
+    return stage;
+  }
+
+  private interface Stage {
+    void push(Row row);
+    void finish();
+  }
+
+  private static class Collect implements Stage {
+    private final Collection<Row> rows;
+
+    private Collect(Collection<Row> rows) {
+      this.rows = rows;
+    }
+
+    public void push(Row row) { rows.add(row); }
+    public void finish() { }
+  }
+
+  /**
+   *  Folds each stream by rollup period. The accumulators are reset and reused from
+   *  one period to the next.
+   */
+  private static class RollupStage implements Stage {
+    private final Rollup rollup;
+    private final Stage next;
+    private final Map<String, Map<String, FoldAccumulator>> streams = new LinkedHashMap<String, Map<String, FoldAccumulator>>();
+    private boolean open = false;
+    private long periodStart;
+    private long periodEnd;
+    private DateTimeZone timezone;
+
+    private RollupStage(Rollup rollup, Stage next) {
+      this.rollup = rollup;
+      this.next = next;
+    }
+
+    public void push(Row row) {
+      long timestamp = row.getTimestampMillis();
+      if (!open || timestamp >= periodEnd || timestamp < periodStart) {
+        emit();
+        DateTime start = ShardedRowCursor.floor(row.getTimestamp(), rollup);
+        periodStart = start.getMillis();
+        periodEnd = start.plus(rollup.getPeriod()).getMillis();
+        timezone = row.getTimezone();
+        open = true;
+      }
+      for (Map.Entry<String, Map<String, Number>> device : row.getValues().entrySet()) {
+        Map<String, FoldAccumulator> sensors = streams.get(device.getKey());
+        if (sensors == null) {
+          sensors = new LinkedHashMap<String, FoldAccumulator>();
+          streams.put(device.getKey(), sensors);
+        }
+        for (Map.Entry<String, Number> sensor : device.getValue().entrySet()) {
+          if (sensor.getValue() == null) {
+            continue;
+          }
+          FoldAccumulator accumulator = sensors.get(sensor.getKey());
+          if (accumulator == null) {
+            accumulator = new FoldAccumulator();
+            sensors.put(sensor.getKey(), accumulator);
+          }
+          accumulator.add(sensor.getValue().doubleValue());
+        }
+      }
+    }
+
+    public void finish() {
+      emit();
+      next.finish();
+    }
+
+    private void emit() {
+      if (!open) {
+        return;
+      }
+      Map<String, Map<String, Number>> values = new HashMap<String, Map<String, Number>>();
+      for (Map.Entry<String, Map<String, FoldAccumulator>> device : streams.entrySet()) {
+        Map<String, Number> sensors = null;
+        for (Map.Entry<String, FoldAccumulator> sensor : device.getValue().entrySet()) {
+          FoldAccumulator accumulator = sensor.getValue();
+          if (accumulator.getCount() == 0) {
+            continue;
+          }
+          if (sensors == null) {
+            sensors = new HashMap<String, Number>();
+            values.put(device.getKey(), sensors);
+          }
+          sensors.put(sensor.getKey(), accumulator.getResult(rollup.getFold()));
+          accumulator.reset();
+        }
+      }
+      open = false;
+      if (!values.isEmpty()) {
+        next.push(new Row(periodStart, timezone, values));
+      }
+    }
+  }
+
+  /**
+   *  Folds the values of each Row across streams.
+   */
+  private static class AggregationStage implements Stage {
+    private final Fold fold;
+    private final String sensorKey;
+    private final Stage next;
+    private final FoldAccumulator accumulator = new FoldAccumulator();
+
+    private AggregationStage(Fold fold, Stage next) {
+      this.fold = fold;
+      this.sensorKey = fold.name().toLowerCase();
+      this.next = next;
+    }
+
+    public void push(Row row) {
+      accumulator.reset();
+      for (Map<String, Number> sensors : row.getValues().values()) {
+        for (Number value : sensors.values()) {
+          if (value != null) {
+            accumulator.add(value.doubleValue());
+          }
+        }
+      }
+      if (accumulator.getCount() == 0) {
+        return;
+      }
+      Map<String, Number> sensors = new HashMap<String, Number>();
+      sensors.put(sensorKey, accumulator.getResult(fold));
+      Map<String, Map<String, Number>> values = new HashMap<String, Map<String, Number>>();
+      values.put(AGGREGATION_DEVICE_KEY, sensors);
+      next.push(new Row(row.getTimestampMillis(), row.getTimezone(), values));
+    }
+
+    public void finish() {
+      next.finish();
+    }
+  }
+
+  /**
+   *  Pushes input Rows through the stages until a result is ready.
+   */
+  private class ResultIterator implements Iterator<Row> {
+    private final Iterator<Row> rows;
+    private final Queue<Row> results = new ArrayDeque<Row>();
+    private final Stage stage = open(new Collect(results));
+    private boolean finished = false;
+
+    private ResultIterator(Iterator<Row> rows) {
+      this.rows = rows;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (results.isEmpty() && !finished) {
+        if (rows.hasNext()) {
+          stage.push(rows.next());
+        } else {
+          stage.finish();
+          finished = true;
+        }
+      }
+      return !results.isEmpty();
+    }
+
+    @Override
+    public Row next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return results.remove();
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
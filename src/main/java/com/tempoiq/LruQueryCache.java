@@ -0,0 +1,106 @@
+package com.tempoiq;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.tempoiq.util.Preconditions.*;
+
+/**
+ *  An in-memory {@link QueryCache} that expires pages after a time to live and evicts
+ *  the least recently used ones beyond a size bound. Sizes are estimated from the
+ *  number of Rows and values of a page.
+ *
+ *  <p><pre>
+ *    Client client = new ClientBuilder()
+ *                      .credentials(credentials)
+ *                      .queryCache(new LruQueryCache(64 * 1024 * 1024, 10 * 60 * 1000))
+ *                      .build();
+ *  </pre>
+ *  @since 1.3.0
+ */
+public class LruQueryCache implements QueryCache {
+  private static class Entry {
+    private final RowSegment segment;
+    private final long bytes;
+    private final long expiresMillis;
+
+    private Entry(RowSegment segment, long bytes, long expiresMillis) {
+      this.segment = segment;
+      this.bytes = bytes;
+      this.expiresMillis = expiresMillis;
+    }
+  }
+
+  private final long maxBytes;
+  private final long ttlMillis;
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+  private long bytes = 0;
+
+  /**
+   *  @param maxBytes Estimated bytes of pages to keep.
+   *  @param ttlMillis Time a page is kept after it is stored.
+   *  @since 1.3.0
+   */
+  public LruQueryCache(long maxBytes, long ttlMillis) {
+    checkArgument(maxBytes > 0, "maxBytes must be positive.");
+    checkArgument(ttlMillis > 0, "ttlMillis must be positive.");
+    this.maxBytes = maxBytes;
+    this.ttlMillis = ttlMillis;
+  }
+
+  public synchronized RowSegment get(String key) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.expiresMillis <= System.currentTimeMillis()) {
+      remove(key);
+      return null;
+    }
+    return entry.segment;
+  }
+
+  public synchronized void put(String key, RowSegment segment) {
+    checkNotNull(key);
+    checkNotNull(segment);
+    remove(key);
+    long size = segment.estimateBytes();
+    if (size > maxBytes) {
+      return;
+    }
+    entries.put(key, new Entry(segment, size, System.currentTimeMillis() + ttlMillis));
+    bytes += size;
+
+    Iterator<Entry> it = entries.values().iterator();
+    while (bytes > maxBytes && it.hasNext()) {
+      bytes -= it.next().bytes;
+      it.remove();
+    }
+  }
+
+  /**
+   *  Drops every page.
+   *  @since 1.3.0
+   */
+  public synchronized void clear() {
+    entries.clear();
+    bytes = 0;
+  }
+
+  /**
+   *  Returns the number of pages held, including expired ones not yet dropped.
+   *  @return The number of pages.
+   *  @since 1.3.0
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  private void remove(String key) {
+    Entry entry = entries.remove(key);
+    if (entry != null) {
+      bytes -= entry.bytes;
+    }
+  }
+}
@@ -6,13 +6,25 @@ import static com.tempoiq.util.Preconditions.*;
 
 public abstract class PageLoader<T> implements Iterator<Segment<T>> {
   protected Segment<T> current;
+  private boolean consumed;
+  private SegmentCache<T> cache;
 
   public PageLoader(Segment<T> first) {
     this.current = checkNotNull(first);
+    this.consumed = false;
   }
 
+  /**
+   *  The page after the one handed out last is only fetched when it is asked for, so a
+   *  page is returned as soon as it is loaded. {@link #fetchNext()} sees the previous
+   *  page in <tt>current</tt>.
+   */
   @Override
   public boolean hasNext() {
+    if (consumed) {
+      current = load();
+      consumed = false;
+    }
     if (current != null) {
       return true;
     } else {
@@ -22,12 +34,34 @@ public abstract class PageLoader<T> implements Iterator<Segment<T>> {
 
   public abstract Segment<T> fetchNext();
 
+  /**
+   *  Serves pages from, and adds fetched pages to, a cache shared between loaders of the
+   *  same cursor.
+   */
+  void setCache(SegmentCache<T> cache) {
+    this.cache = cache;
+  }
+
+  private Segment<T> load() {
+    String key = current.getNext();
+    if (cache == null || key == null || key.equals("")) {
+      return fetchNext();
+    }
+    Segment<T> page = cache.get(key);
+    if (page == null) {
+      page = fetchNext();
+      if (page != null) {
+        cache.put(key, page);
+      }
+    }
+    return page;
+  }
+
   @Override
   public Segment<T> next() {
-    if (current != null) {
-      Segment<T> tmp = current;
-      current = fetchNext();
-      return tmp;
+    if (hasNext()) {
+      consumed = true;
+      return current;
     } else {
       throw new NoSuchElementException();
     }
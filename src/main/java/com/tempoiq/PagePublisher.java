@@ -0,0 +1,139 @@
+package com.tempoiq;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.tempoiq.util.Preconditions.*;
+
+/**
+ *  Publishes the items of a sequence of pages as they are requested.
+ *
+ *  <p>There is no thread of its own: pages are fetched and items delivered by whichever
+ *  thread calls {@link Subscription#request(long)}. A call made from within
+ *  <tt>onNext</tt> only adds to the demand, which the outer call then serves, so the
+ *  stack does not grow with the number of items.
+ */
+class PagePublisher<T> implements Publisher<T> {
+  /**
+   *  Opens the pages of a new query. Called on first demand.
+   */
+  interface PageSource<T> {
+    Iterator<Segment<T>> open();
+  }
+
+  private final PageSource<T> source;
+
+  PagePublisher(PageSource<T> source) {
+    this.source = checkNotNull(source);
+  }
+
+  public void subscribe(Subscriber<? super T> subscriber) {
+    checkNotNull(subscriber);
+    subscriber.onSubscribe(new PageSubscription<T>(source, subscriber));
+  }
+
+  private static class PageSubscription<T> implements Subscription {
+    private final PageSource<T> source;
+    private final Subscriber<? super T> subscriber;
+    private final AtomicLong requested = new AtomicLong(0);
+    private final AtomicInteger pending = new AtomicInteger(0);
+    private volatile boolean cancelled = false;
+    private volatile boolean invalid = false;
+    private boolean done = false;
+    private Iterator<Segment<T>> pages;
+    private Iterator<T> current;
+
+    private PageSubscription(PageSource<T> source, Subscriber<? super T> subscriber) {
+      this.source = source;
+      this.subscriber = subscriber;
+    }
+
+    public void request(long n) {
+      if (n <= 0) {
+        invalid = true;
+        drain();
+        return;
+      }
+      while (true) {
+        long current = requested.get();
+        long next = current + n < 0 ? Long.MAX_VALUE : current + n;
+        if (requested.compareAndSet(current, next)) {
+          break;
+        }
+      }
+      drain();
+    }
+
+    public void cancel() {
+      cancelled = true;
+      drain();
+    }
+
+    private void drain() {
+      if (pending.getAndIncrement() != 0) {
+        // Another call is delivering; it will see the new demand
+        return;
+      }
+      int missed = 1;
+      do {
+        if (invalid) {
+          cancelled = true;
+          finish(new IllegalArgumentException("The number of items requested must be positive."));
+        }
+        long demand = requested.get();
+        long emitted = 0;
+        while (emitted != demand && !cancelled && !done) {
+          T item;
+          try {
+            item = nextItem();
+          } catch (Throwable t) {
+            finish(t);
+            break;
+          }
+          if (item == null) {
+            finish(null);
+            break;
+          }
+          subscriber.onNext(item);
+          emitted += 1;
+        }
+        if (emitted > 0 && demand != Long.MAX_VALUE) {
+          requested.addAndGet(-emitted);
+        }
+        if (cancelled) {
+          pages = null;
+          current = null;
+        }
+        missed = pending.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    private T nextItem() {
+      while (current == null || !current.hasNext()) {
+        if (pages == null) {
+          pages = source.open();
+        }
+        if (!pages.hasNext()) {
+          return null;
+        }
+        current = pages.next().iterator();
+      }
+      return current.next();
+    }
+
+    private void finish(Throwable error) {
+      if (done) {
+        return;
+      }
+      done = true;
+      pages = null;
+      current = null;
+      if (error != null) {
+        subscriber.onError(error);
+      } else {
+        subscriber.onComplete();
+      }
+    }
+  }
+}
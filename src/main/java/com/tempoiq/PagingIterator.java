@@ -8,6 +8,15 @@ public class PagingIterator<T> implements Iterator<T> {
   private Iterator<T> current;
 
   public PagingIterator(PageLoader<T> pages) {
+    this((Iterator<Segment<T>>)pages);
+  }
+
+  /**
+   *  Iterates the items of a sequence of pages.
+   *  @param pages The pages.
+   *  @since 1.3.0
+   */
+  public PagingIterator(Iterator<Segment<T>> pages) {
     this.pages = checkNotNull(pages);
     if (pages.hasNext()) {
       this.current = pages.next().iterator();
@@ -0,0 +1,72 @@
+package com.tempoiq;
+
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.tempoiq.util.DaemonThreadFactory;
+import static com.tempoiq.util.Preconditions.*;
+
+/**
+ *  Processes the pages of a cursor on a pool of worker threads.
+ *
+ *  <p>Pages are pulled on the calling thread, which keeps following <tt>next</tt>
+ *  queries while the workers process the pages already fetched. Each page goes to one
+ *  worker as a whole, so the order of items is only kept within a page. At most two
+ *  pages per worker wait or run at any time, which bounds memory; the first failure
+ *  stops the traversal and is rethrown on the calling thread.
+ */
+class ParallelPages {
+  interface PageHandler<P> {
+    void handle(P page);
+  }
+
+  private static final int PAGES_PER_WORKER = 2;
+
+  static <P> void forEach(Iterator<P> pages, final PageHandler<P> handler, int parallelism) {
+    checkNotNull(pages);
+    checkNotNull(handler);
+    checkArgument(parallelism > 0, "parallelism must be positive.");
+    int capacity = parallelism * PAGES_PER_WORKER;
+    final Semaphore slots = new Semaphore(capacity);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    ExecutorService workers = Executors.newFixedThreadPool(parallelism, new DaemonThreadFactory("cursor-parallel"));
+    try {
+      while (failure.get() == null && pages.hasNext()) {
+        final P page = pages.next();
+        slots.acquire();
+        workers.execute(new Runnable() {
+          public void run() {
+            try {
+              if (failure.get() == null) {
+                handler.handle(page);
+              }
+            } catch (Throwable t) {
+              failure.compareAndSet(null, t);
+            } finally {
+              slots.release();
+            }
+          }
+        });
+      }
+      // Wait for the pages still being processed
+      slots.acquire(capacity);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TempoIQException("Interrupted while processing pages.", e, 0);
+    } finally {
+      workers.shutdown();
+    }
+
+    Throwable cause = failure.get();
+    if (cause instanceof RuntimeException) {
+      throw (RuntimeException)cause;
+    } else if (cause instanceof Error) {
+      throw (Error)cause;
+    } else if (cause != null) {
+      throw new TempoIQException("Error processing page: " + cause.getMessage(), cause, 0);
+    }
+  }
+}
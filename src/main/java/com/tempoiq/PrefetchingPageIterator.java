@@ -0,0 +1,106 @@
+package com.tempoiq;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.tempoiq.util.DaemonThreadFactory;
+import static com.tempoiq.util.Preconditions.*;
+
+/**
+ *  Fetches pages from a {@link PageLoader}, or any other iterator of pages, on a worker
+ *  thread, up to <tt>depth</tt> pages ahead of the consumer.
+ *
+ *  <p>Pages are fetched one after the other, since each page holds the query for the
+ *  next. As soon as a page is handed out, the fetch of another one is queued, so network
+ *  latency and decoding overlap with processing of the current page. The worker thread
+ *  exits once it has been idle for a second, so an abandoned iterator fetches at most
+ *  <tt>depth</tt> more pages and leaves no thread behind.
+ */
+class PrefetchingPageIterator<T> implements Iterator<Segment<T>> {
+  private final Iterator<Segment<T>> loader;
+  private final int depth;
+  private final ThreadPoolExecutor worker;
+  private final LinkedList<Future<Segment<T>>> ahead = new LinkedList<Future<Segment<T>>>();
+  private final Callable<Segment<T>> fetch = new Callable<Segment<T>>() {
+    public Segment<T> call() {
+      return loader.hasNext() ? loader.next() : null;
+    }
+  };
+
+  private Segment<T> nextPage = null;
+  private boolean exhausted = false;
+
+  private static final long IDLE_MILLIS = 1000;
+
+  PrefetchingPageIterator(Iterator<Segment<T>> loader, int depth) {
+    checkArgument(depth > 0, "depth must be positive.");
+    this.loader = checkNotNull(loader);
+    this.depth = depth;
+    this.worker = new ThreadPoolExecutor(0, 1, IDLE_MILLIS, TimeUnit.MILLISECONDS,
+      new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("prefetch"));
+    fill();
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (nextPage != null) {
+      return true;
+    }
+    if (exhausted) {
+      return false;
+    }
+    Segment<T> page = await(ahead.removeFirst());
+    if (page == null) {
+      exhausted = true;
+      ahead.clear();
+      worker.shutdown();
+      return false;
+    }
+    nextPage = page;
+    fill();
+    return true;
+  }
+
+  @Override
+  public Segment<T> next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    Segment<T> page = nextPage;
+    nextPage = null;
+    return page;
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  private void fill() {
+    while (ahead.size() < depth) {
+      ahead.addLast(worker.submit(fetch));
+    }
+  }
+
+  private Segment<T> await(Future<Segment<T>> page) {
+    try {
+      return page.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      }
+      throw new TempoIQException("Error fetching page: " + cause.getMessage(), cause, 0);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TempoIQException("Interrupted while fetching page.", e, 0);
+    }
+  }
+}
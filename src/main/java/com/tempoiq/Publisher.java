@@ -0,0 +1,22 @@
+package com.tempoiq;
+
+
+/**
+ *  A source of items that are pushed to a {@link Subscriber} as it asks for them.
+ *
+ *  <p>The interfaces mirror <tt>org.reactivestreams</tt> (and
+ *  <tt>java.util.concurrent.Flow</tt>) method for method, so adapting them to a reactive
+ *  library takes a one-line wrapper. Every subscription starts a new query.
+ *
+ *  @see Client#publishRead(Selection, Pipeline, org.joda.time.DateTime, org.joda.time.DateTime)
+ *  @since 1.3.0
+ */
+public interface Publisher<T> {
+  /**
+   *  Starts a subscription. The subscriber's <tt>onSubscribe</tt> is called before
+   *  anything else.
+   *  @param subscriber The subscriber.
+   *  @since 1.3.0
+   */
+  void subscribe(Subscriber<? super T> subscriber);
+}
@@ -0,0 +1,36 @@
+package com.tempoiq;
+
+
+/**
+ *  A cache of read results, shared by the reads of a {@link Client}.
+ *
+ *  <p>Keys are the endpoint of a request followed by the JSON of its query, so equal
+ *  queries share a key. The Client only caches reads whose range has ended (stop not
+ *  after now), since those can no longer change; {@link Client#single} and reads
+ *  reaching into the future bypass the cache. Every page of a cached read is cached
+ *  separately, under the query that loaded it.
+ *
+ *  <p>Cached segments are shared between cursors and must not be modified.
+ *  Implementations must be thread safe.
+ *
+ *  @see LruQueryCache
+ *  @see ClientBuilder#queryCache(QueryCache)
+ *  @since 1.3.0
+ */
+public interface QueryCache {
+  /**
+   *  Returns the page stored for a key.
+   *  @param key The endpoint and query.
+   *  @return The page, or null.
+   *  @since 1.3.0
+   */
+  RowSegment get(String key);
+
+  /**
+   *  Stores a page.
+   *  @param key The endpoint and query.
+   *  @param segment The page.
+   *  @since 1.3.0
+   */
+  void put(String key, RowSegment segment);
+}
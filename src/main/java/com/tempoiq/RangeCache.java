@@ -0,0 +1,253 @@
+package com.tempoiq;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.tempoiq.util.Preconditions.*;
+
+/**
+ *  A cache of the pages read for each selection and pipeline, together with the time
+ *  intervals they cover.
+ *
+ *  <p>When a read overlaps what is already covered, the Client only requests the
+ *  uncovered gaps and splices their pages in with the cached ones, so a sliding window
+ *  that moves by an hour costs one request for that hour. The gaps are paged like any
+ *  read, as the iteration reaches them, and their pages are stored as they came, so
+ *  columnar pages stay columnar. Rows newer than <tt>settleMillis</tt> before now are
+ *  never cached, since points may still be written there; that part of a read is
+ *  always requested. With a rollup in the pipeline, only reads whose start and stop
+ *  fall on the boundary of a rollup period use the cache, so that no cached bucket is
+ *  partial.
+ *
+ *  <p>A read served through the cache is lazy: nothing is requested until it is
+ *  iterated, or until its first page is asked for, and request errors are thrown as a
+ *  {@link TempoIQException} at that point instead of when the read is made.
+ *
+ *  <p>Writes and deletes made through the Client drop the cached reads they touch, and
+ *  a gap that was being read while they were made is not stored. Changes made by other clients are only picked up when a selection expires:
+ *  its pages are dropped <tt>ttlMillis</tt> after the first of them was stored. Whole
+ *  selections are also evicted, least recently used first, beyond an estimated size
+ *  bound. A gap larger than that bound is read but not cached.
+ *
+ *  <p><pre>
+ *    Client client = new ClientBuilder()
+ *                      .credentials(credentials)
+ *                      .rangeCache(new RangeCache(64 * 1024 * 1024, 60 * 1000, 10 * 60 * 1000))
+ *                      .build();
+ *  </pre>
+ *  @since 1.3.0
+ */
+public class RangeCache {
+  /**
+   *  The pages read for <tt>[start, stop)</tt>, or a gap to read when there are none.
+   */
+  static class Piece {
+    private final long start;
+    private final long stop;
+    private final List<Segment<Row>> pages;
+    private final long bytes;
+
+    private Piece(long start, long stop, List<Segment<Row>> pages, long bytes) {
+      this.start = start;
+      this.stop = stop;
+      this.pages = pages;
+      this.bytes = bytes;
+    }
+
+    long getStart() { return start; }
+    long getStop() { return stop; }
+    boolean isCached() { return pages != null; }
+    List<Segment<Row>> getPages() { return pages; }
+  }
+
+  private static class Ranges {
+    private final TreeMap<Long, Piece> pieces = new TreeMap<Long, Piece>();
+    private final long expiresMillis;
+    private long bytes = 0;
+
+    private Ranges(long expiresMillis) {
+      this.expiresMillis = expiresMillis;
+    }
+  }
+
+  private final long maxBytes;
+  private final long settleMillis;
+  private final long ttlMillis;
+  private final LinkedHashMap<String, Ranges> entries = new LinkedHashMap<String, Ranges>(16, 0.75f, true);
+  private long bytes = 0;
+  private long generation = 0;
+
+  /**
+   *  @param maxBytes Estimated bytes of pages to keep.
+   *  @param settleMillis How far before now Rows are considered final.
+   *  @param ttlMillis Time the pages of a selection are kept after the first of them is stored.
+   *  @since 1.3.0
+   */
+  public RangeCache(long maxBytes, long settleMillis, long ttlMillis) {
+    checkArgument(maxBytes > 0, "maxBytes must be positive.");
+    checkArgument(settleMillis >= 0, "settleMillis must not be negative.");
+    checkArgument(ttlMillis > 0, "ttlMillis must be positive.");
+    this.maxBytes = maxBytes;
+    this.settleMillis = settleMillis;
+    this.ttlMillis = ttlMillis;
+  }
+
+  /**
+   *  Returns how far before now Rows are considered final.
+   *  @return The settle time in milliseconds.
+   *  @since 1.3.0
+   */
+  public long getSettleMillis() {
+    return settleMillis;
+  }
+
+  /**
+   *  Drops every page.
+   *  @since 1.3.0
+   */
+  public synchronized void clear() {
+    entries.clear();
+    bytes = 0;
+    generation++;
+  }
+
+  /**
+   *  Returns the estimated bytes of the pages held.
+   *  @return The size.
+   *  @since 1.3.0
+   */
+  public synchronized long getSize() {
+    return bytes;
+  }
+
+  long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   *  Returns a counter that changes whenever cached reads are dropped. Pages read
+   *  before a change are stored with the value taken when their read started, so that
+   *  they are discarded if they may predate a write.
+   */
+  synchronized long getGeneration() {
+    return generation;
+  }
+
+  /**
+   *  Returns the cached reads and the gaps that make up <tt>[start, stop)</tt>, in order.
+   *  Cached reads are returned whole and may extend past either end.
+   */
+  synchronized List<Piece> pieces(String key, long start, long stop) {
+    List<Piece> pieces = new ArrayList<Piece>();
+    Ranges ranges = entries.get(key);
+    if (ranges != null && ranges.expiresMillis <= System.currentTimeMillis()) {
+      remove(key);
+      ranges = null;
+    }
+    long position = start;
+    if (ranges != null) {
+      for (Piece piece : overlapping(ranges, start, stop)) {
+        if (piece.start > position) {
+          pieces.add(new Piece(position, piece.start, null, 0));
+        }
+        pieces.add(piece);
+        position = piece.stop;
+      }
+    }
+    if (position < stop) {
+      pieces.add(new Piece(position, stop, null, 0));
+    }
+    return pieces;
+  }
+
+  /**
+   *  Stores the pages read for <tt>[start, stop)</tt>. Cached reads that overlap the
+   *  interval are replaced. Nothing is stored if cached reads were dropped since
+   *  <tt>generation</tt> was taken.
+   */
+  synchronized void add(String key, long start, long stop, List<Segment<Row>> pages, long generation) {
+    if (start >= stop || generation != this.generation) {
+      return;
+    }
+    Ranges ranges = entries.get(key);
+    if (ranges == null) {
+      ranges = new Ranges(System.currentTimeMillis() + ttlMillis);
+      entries.put(key, ranges);
+    }
+
+    for (Piece piece : overlapping(ranges, start, stop)) {
+      ranges.pieces.remove(piece.start);
+      ranges.bytes -= piece.bytes;
+    }
+    long size = 0;
+    for (Segment<Row> page : pages) {
+      size += page.estimateBytes();
+    }
+    ranges.pieces.put(start, new Piece(start, stop, new ArrayList<Segment<Row>>(pages), size));
+    ranges.bytes += size;
+
+    evict();
+  }
+
+  /**
+   *  Drops every cached read that holds a time in <tt>[start, stop]</tt> from the
+   *  selections whose key starts with <tt>keyPrefix</tt>. A whole read is dropped since
+   *  a rollup bucket may depend on any point in it.
+   */
+  synchronized void invalidate(String keyPrefix, long start, long stop) {
+    generation++;
+    Iterator<Map.Entry<String, Ranges>> it = entries.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<String, Ranges> entry = it.next();
+      if (!entry.getKey().startsWith(keyPrefix)) {
+        continue;
+      }
+      Ranges ranges = entry.getValue();
+      long end = stop == Long.MAX_VALUE ? stop : stop + 1;
+      for (Piece piece : overlapping(ranges, start, end)) {
+        ranges.pieces.remove(piece.start);
+        ranges.bytes -= piece.bytes;
+      }
+      if (ranges.pieces.isEmpty()) {
+        it.remove();
+      }
+    }
+    evict();
+  }
+
+  /**
+   *  Returns the cached reads that overlap <tt>[start, stop)</tt>, in order.
+   */
+  private static List<Piece> overlapping(Ranges ranges, long start, long stop) {
+    List<Piece> pieces = new ArrayList<Piece>();
+    Map.Entry<Long, Piece> before = ranges.pieces.lowerEntry(start);
+    if (before != null && before.getValue().stop > start) {
+      pieces.add(before.getValue());
+    }
+    pieces.addAll(ranges.pieces.subMap(start, true, stop, false).values());
+    return pieces;
+  }
+
+  private void remove(String key) {
+    Ranges ranges = entries.remove(key);
+    if (ranges != null) {
+      bytes -= ranges.bytes;
+    }
+  }
+
+  private void evict() {
+    bytes = 0;
+    for (Ranges ranges : entries.values()) {
+      bytes += ranges.bytes;
+    }
+    Iterator<Ranges> it = entries.values().iterator();
+    while (bytes > maxBytes && it.hasNext()) {
+      bytes -= it.next().bytes;
+      it.remove();
+    }
+  }
+}
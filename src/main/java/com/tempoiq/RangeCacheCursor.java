@@ -0,0 +1,249 @@
+package com.tempoiq;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import com.tempoiq.json.Json;
+import static com.tempoiq.util.Preconditions.*;
+
+/**
+ *  The Rows of a read served through a {@link RangeCache}.
+ *
+ *  <p>Every iteration looks the settled part of the read up in the cache again, and
+ *  splices the cached pages in time order with the pages of the gaps and of the
+ *  unsettled tail. Those are requested as the iteration reaches them and paged like
+ *  any read, so prefetching and the cursor's page cache still apply. The pages of a
+ *  gap are stored in the range cache once the gap has been read to its last page.
+ *  A gap is not stored if the range cache dropped reads while it was being read, since
+ *  its pages may predate a write. An error on the first page of a gap or of the tail is
+ *  thrown as a {@link TempoIQException} when the iteration reaches it, or by
+ *  {@link #getFirst()}, which reads the first page of the cursor.
+ */
+class RangeCacheCursor extends DataPointRowCursor {
+  private final RangeCache ranges;
+  private final String key;
+  private final Selection selection;
+  private final Pipeline pipeline;
+  private final DateTimeZone timezone;
+  private final long start;
+  private final long settled;
+  private final long stop;
+  private final Executor runner;
+  private final URI endpoint;
+  private final Class<? extends RowSegment> segmentClass;
+  private final String contentType;
+  private final String[] mediaTypeVersions;
+  private Segment<Row> firstPage;
+
+  private static final int SERIALIZATION_ERROR_CODE = 600;
+
+  /**
+   *  @param settled The end of the part of <tt>[start, stop)</tt> that is cached.
+   */
+  RangeCacheCursor(RangeCache ranges, String key, Selection selection, Pipeline pipeline,
+                   DateTime start, DateTime settled, DateTime stop,
+                   Executor runner, URI endpoint, Class<? extends RowSegment> segmentClass,
+                   String contentType, String[] mediaTypeVersions) {
+    super(new Result<RowSegment>(new RowSegment(new ArrayList<Row>(0), ""), 200, "OK"),
+          runner, endpoint, contentType, mediaTypeVersions);
+    this.ranges = checkNotNull(ranges);
+    this.key = checkNotNull(key);
+    this.selection = checkNotNull(selection);
+    this.pipeline = pipeline;
+    this.timezone = start.getZone();
+    this.start = start.getMillis();
+    this.settled = settled.getMillis();
+    this.stop = stop.getMillis();
+    this.runner = checkNotNull(runner);
+    this.endpoint = checkNotNull(endpoint);
+    this.segmentClass = checkNotNull(segmentClass);
+    this.contentType = checkNotNull(contentType);
+    this.mediaTypeVersions = checkNotNull(mediaTypeVersions);
+  }
+
+  /**
+   *  Returns the first page of Rows, requesting it if it is not cached. The page is
+   *  kept, so later calls return the same one.
+   */
+  @Override
+  public synchronized Segment<Row> getFirst() {
+    if (firstPage == null) {
+      Iterator<Segment<Row>> pages = loadPages(null);
+      firstPage = pages.hasNext() ? pages.next() : new RowSegment(new ArrayList<Row>(0), "");
+    }
+    return firstPage;
+  }
+
+  @Override
+  Iterator<Segment<Row>> loadPages(SegmentCache<Row> cache) {
+    List<RangeCache.Piece> pieces = new ArrayList<RangeCache.Piece>(ranges.pieces(key, start, settled));
+    return new SplicedPages(pieces, cache);
+  }
+
+  /**
+   *  Returns the Rows of a page that fall in <tt>[from, to)</tt>. A page that lies
+   *  inside the interval is returned as it is.
+   */
+  static Segment<Row> clip(Segment<Row> page, long from, long to) {
+    List<Row> rows = page.getData();
+    int first = lowerBound(rows, from);
+    int last = lowerBound(rows, to);
+    if (first == 0 && last == rows.size()) {
+      return page;
+    }
+    if (page instanceof ColumnarRowSegment) {
+      return ((ColumnarRowSegment)page).slice(first, last);
+    }
+    return new RowSegment(new ArrayList<Row>(rows.subList(first, last)), "");
+  }
+
+  /**
+   *  Returns the index of the first Row at or after <tt>timestamp</tt>.
+   */
+  private static int lowerBound(List<Row> rows, long timestamp) {
+    int low = 0;
+    int high = rows.size();
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (rows.get(middle).getTimestampMillis() < timestamp) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private String queryBody(long from, long to) {
+    Query query = new Query(
+      new QuerySearch(Selector.Type.DEVICES, selection),
+      pipeline,
+      new ReadAction(new DateTime(from, timezone), new DateTime(to, timezone)));
+    try {
+      return Json.dumps(query);
+    } catch (JsonProcessingException e) {
+      String message = "Error serializing the body of the request. More detail: " + e.getMessage();
+      throw new TempoIQException(message, e, SERIALIZATION_ERROR_CODE);
+    }
+  }
+
+  /**
+   *  The pages of the cached reads, the gaps and the tail in turn. Empty pages are
+   *  skipped, since a gap can have no Rows at all.
+   */
+  private class SplicedPages implements Iterator<Segment<Row>> {
+    private final Iterator<RangeCache.Piece> pieces;
+    private final SegmentCache<Row> cache;
+    private RangeCache.Piece piece;
+    private Iterator<Segment<Row>> current;
+    private boolean tailed;
+    private List<Segment<Row>> fetched;
+    private long fetchedBytes;
+    private long generation;
+    private Segment<Row> lastPage;
+    private Segment<Row> nextPage;
+
+    private SplicedPages(List<RangeCache.Piece> pieces, SegmentCache<Row> cache) {
+      this.pieces = pieces.iterator();
+      this.cache = cache;
+      this.current = Collections.<Segment<Row>>emptyList().iterator();
+      this.tailed = settled >= stop;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (nextPage == null) {
+        if (current.hasNext()) {
+          Segment<Row> page = current.next();
+          if (piece == null || !piece.isCached()) {
+            keep(page);
+          } else {
+            page = clip(page, Math.max(start, piece.getStart()), Math.min(settled, piece.getStop()));
+          }
+          if (!page.getData().isEmpty()) {
+            nextPage = page;
+          }
+        } else {
+          storeGap();
+          if (pieces.hasNext()) {
+            piece = pieces.next();
+            generation = ranges.getGeneration();
+            current = piece.isCached() ? piece.getPages().iterator() : request(piece.getStart(), piece.getStop());
+            fetched = piece.isCached() ? null : new ArrayList<Segment<Row>>();
+            fetchedBytes = 0;
+          } else if (!tailed) {
+            // The unsettled tail is requested on every iteration and never stored
+            tailed = true;
+            piece = null;
+            current = request(settled, stop);
+          } else {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public Segment<Row> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Segment<Row> page = nextPage;
+      nextPage = null;
+      return page;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    private Iterator<Segment<Row>> request(long from, long to) {
+      String body = queryBody(from, to);
+      Result<? extends RowSegment> result = runner.get(endpoint, body, segmentClass, contentType, mediaTypeVersions);
+      if (!result.getState().equals(State.SUCCESS)) {
+        throw new TempoIQException(result.getMessage(), result.getCode());
+      }
+      RowPageLoader loader = new RowPageLoader(result.getValue(), endpoint, runner, contentType, mediaTypeVersions);
+      loader.setCache(cache);
+      lastPage = null;
+      return loader;
+    }
+
+    /**
+     *  Keeps a page of the gap being read, until the gap outgrows the range cache.
+     */
+    private void keep(Segment<Row> page) {
+      lastPage = page;
+      if (fetched == null) {
+        return;
+      }
+      fetchedBytes += page.estimateBytes();
+      if (fetchedBytes > ranges.getMaxBytes()) {
+        fetched = null;
+      } else {
+        fetched.add(page);
+      }
+    }
+
+    /**
+     *  Stores the gap just read, unless paging stopped before its last page.
+     */
+    private void storeGap() {
+      if (piece != null && !piece.isCached() && fetched != null && lastPage != null &&
+          (lastPage.getNext() == null || lastPage.getNext().equals(""))) {
+        ranges.add(key, piece.getStart(), piece.getStop(), fetched, generation);
+      }
+      fetched = null;
+    }
+  }
+}
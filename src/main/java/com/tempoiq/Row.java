@@ -1,26 +1,75 @@
 package com.tempoiq;
 
+import java.io.Serializable;
 import java.util.Map;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 
 import static com.tempoiq.util.Preconditions.*;
 
-public class Row {
-  private DateTime timestamp;
+public class Row implements Serializable {
+  private long timestamp;
+  private DateTimeZone timezone;
   private Map<String, Map<String, Number>> values;
 
+  private static final long serialVersionUID = 1L;
+
+  @JsonCreator
   public Row(@JsonProperty("t") DateTime timestamp,
 	     @JsonProperty("data") Map<String, Map<String, Number>> values) {
-    this.timestamp = checkNotNull(timestamp);
+    checkNotNull(timestamp);
+    this.timestamp = timestamp.getMillis();
+    this.timezone = timestamp.getZone();
+    this.values = checkNotNull(values);
+  }
+
+  /**
+   *  Creates a Row from an epoch-millis timestamp. Its DateTime is only created when
+   *  {@link #getTimestamp()} is called.
+   *  @param timestamp The timestamp in milliseconds since the epoch.
+   *  @param timezone The time zone of the timestamp.
+   *  @param values The values by Device key and Sensor key.
+   *  @since 1.3.0
+   */
+  public Row(long timestamp, DateTimeZone timezone, Map<String, Map<String, Number>> values) {
+    this.timestamp = timestamp;
+    this.timezone = checkNotNull(timezone);
     this.values = checkNotNull(values);
   }
 
+  /**
+   *  For views that override every accessor and hold no values of their own.
+   */
+  Row() {
+    this.timezone = null;
+    this.values = null;
+  }
+
   public DateTime getTimestamp() {
+    return new DateTime(timestamp, timezone);
+  }
+
+  /**
+   *  Returns the timestamp without creating a DateTime.
+   *  @return The timestamp in milliseconds since the epoch.
+   *  @since 1.3.0
+   */
+  @JsonIgnore
+  public long getTimestampMillis() {
     return timestamp;
   }
 
+  /**
+   *  Returns the time zone of the timestamp.
+   */
+  DateTimeZone getTimezone() {
+    return timezone;
+  }
+
   public Number getValue(String deviceKey, String sensorKey) {
     Map<String, Number> sensors = values.get(deviceKey);
     if (sensors == null) {
@@ -30,6 +79,18 @@ public class Row {
     return sensors.get(sensorKey);
   }
 
+  /**
+   *  Returns a value as a primitive double.
+   *  @param deviceKey The Device key.
+   *  @param sensorKey The Sensor key.
+   *  @return The value, or NaN if the Row has no value for the Device and Sensor.
+   *  @since 1.3.0
+   */
+  public double getDouble(String deviceKey, String sensorKey) {
+    Number value = getValue(deviceKey, sensorKey);
+    return value == null ? Double.NaN : value.doubleValue();
+  }
+
   public boolean hasSensor(String deviceKey, String sensorKey) {
     Map<String, Number> sensors = values.get(deviceKey);
     if (sensors == null) {
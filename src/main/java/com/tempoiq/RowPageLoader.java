@@ -8,6 +8,9 @@ public class RowPageLoader extends PageLoader<Row> {
   private Executor runner;
   private String contentType;
   private String[] mediaTypeVersions;
+  private Class<? extends RowSegment> segmentClass;
+  private QueryCache queryCache;
+  private String queryCacheKey;
 
   public RowPageLoader(RowSegment first, URI endpoint, Executor runner, String contentType, String[] mediaTypeVersions) {
     super(checkNotNull(first));
@@ -15,13 +18,35 @@ public class RowPageLoader extends PageLoader<Row> {
     this.runner = checkNotNull(runner);
     this.contentType = checkNotNull(contentType);
     this.mediaTypeVersions = checkNotNull(mediaTypeVersions);
+    // Later pages use the same representation as the first
+    this.segmentClass = first.getClass();
+  }
+
+  /**
+   *  Looks pages up in, and adds fetched pages to, a query cache.
+   *  @param keyPrefix The endpoint part of the cache keys; the next query is appended.
+   */
+  void setQueryCache(QueryCache cache, String keyPrefix) {
+    this.queryCache = cache;
+    this.queryCacheKey = keyPrefix;
   }
 
   @Override
   public RowSegment fetchNext() {
     if (current != null && current.getNext() != null && !current.getNext().equals("")) {
-      Result<RowSegment> result = runner.get(endpoint, current.getNext(), RowSegment.class, contentType, mediaTypeVersions);
+      String key = null;
+      if (queryCache != null) {
+        key = queryCacheKey + current.getNext();
+        RowSegment cached = queryCache.get(key);
+        if (cached != null && segmentClass.isInstance(cached)) {
+          return cached;
+        }
+      }
+      Result<? extends RowSegment> result = runner.get(endpoint, current.getNext(), segmentClass, contentType, mediaTypeVersions);
       if (result.getState().equals(State.SUCCESS)) {
+        if (key != null) {
+          queryCache.put(key, result.getValue());
+        }
         return result.getValue();
       } else {
         return null;
@@ -1,7 +1,7 @@
 package com.tempoiq;
 
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 
@@ -9,12 +9,12 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import org.apache.http.HttpResponse;
-import org.apache.http.util.EntityUtils;
 
 import com.tempoiq.json.Json;
 
 public class RowSegment extends Segment<Row> {
-  private static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+  private static final long serialVersionUID = 1L;
+  private static final long ESTIMATED_VALUE_BYTES = 64;
 
   @JsonCreator
   public RowSegment(@JsonProperty("data") List<Row> rows) {
@@ -25,9 +25,33 @@ public class RowSegment extends Segment<Row> {
     super(rows, nextPage);
   }
 
+  @Override
+  long estimateBytes() {
+    long bytes = ESTIMATED_ELEMENT_BYTES;
+    for (Row row : data) {
+      bytes += estimateBytes(row);
+    }
+    return bytes;
+  }
+
+  static long estimateBytes(Row row) {
+    long bytes = ESTIMATED_ELEMENT_BYTES;
+    for (Map<String, Number> sensors : row.getValues().values()) {
+      bytes += ESTIMATED_VALUE_BYTES * sensors.size();
+    }
+    return bytes;
+  }
+
+  /**
+   *  Parses the segment straight from the response stream, without reading the body
+   *  into a String first.
+   */
   static RowSegment make(HttpResponse response) throws IOException {
-    String body = EntityUtils.toString(response.getEntity(), DEFAULT_CHARSET);
-    RowSegment segment = Json.loads(body, RowSegment.class);
-    return segment;
+    InputStream body = response.getEntity().getContent();
+    try {
+      return Json.load(body, RowSegment.class);
+    } finally {
+      body.close();
+    }
   }
 }
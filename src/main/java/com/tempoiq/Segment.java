@@ -1,5 +1,6 @@
 package com.tempoiq;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -7,10 +8,13 @@ import java.util.List;
 import static com.tempoiq.util.Preconditions.*;
 
 
-public class Segment<T> implements Iterable<T> {
+public class Segment<T> implements Iterable<T>, Serializable {
   protected List<T> data;
   protected String next;
 
+  private static final long serialVersionUID = 1L;
+  static final long ESTIMATED_ELEMENT_BYTES = 128;
+
   public Segment(List<T> data, String next) {
     this.data = checkNotNull(data);
     this.next = next;
@@ -22,4 +26,11 @@ public class Segment<T> implements Iterable<T> {
   public Iterator<T> iterator() {
     return data.iterator();
   }
+
+  /**
+   *  Rough size of the segment in memory, for bounding a {@link SegmentCache}.
+   */
+  long estimateBytes() {
+    return ESTIMATED_ELEMENT_BYTES * (data.size() + 1);
+  }
 }
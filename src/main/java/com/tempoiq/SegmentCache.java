@@ -0,0 +1,201 @@
+package com.tempoiq;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.tempoiq.util.Preconditions.*;
+
+/**
+ *  Keeps the Segments of a Cursor so that it can be iterated again without refetching.
+ *
+ *  <p>Segments are keyed by the query that loaded them (the <tt>next</tt> of the page
+ *  before) and held in an LRU bounded by their estimated size. When a spill directory is
+ *  given, evicted Segments are serialized to a temp file there instead of being dropped,
+ *  and read back on access. A Segment that cannot be serialized is dropped instead, and
+ *  refetched when needed. The temp file is opened on the first spill and closed and
+ *  deleted by {@link #clear()} only, which the owning cursor calls when the cache is
+ *  replaced and from its public <tt>clearCache()</tt>.
+ */
+class SegmentCache<T> {
+  private static class Entry<T> {
+    private Segment<T> segment;
+    private final long bytes;
+    private long offset = -1;
+    private int length;
+
+    private Entry(Segment<T> segment, long bytes) {
+      this.segment = segment;
+      this.bytes = bytes;
+    }
+  }
+
+  private final long maxBytes;
+  private final File spillDir;
+  private final LinkedHashMap<String, Entry<T>> entries = new LinkedHashMap<String, Entry<T>>(16, 0.75f, true);
+  private long bytes = 0;
+  private File spillFile;
+  private RandomAccessFile spill;
+
+  /**
+   *  @param maxBytes Estimated bytes of Segments to keep in memory.
+   *  @param spillDir Directory for the spill file, or null to drop evicted Segments.
+   */
+  SegmentCache(long maxBytes, File spillDir) {
+    checkArgument(maxBytes >= 0, "maxBytes must not be negative.");
+    this.maxBytes = maxBytes;
+    this.spillDir = spillDir;
+  }
+
+  synchronized Segment<T> get(String key) {
+    Entry<T> entry = entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.segment != null) {
+      return entry.segment;
+    }
+
+    Segment<T> segment = unspill(entry);
+    if (segment == null) {
+      entries.remove(key);
+      return null;
+    }
+    if (entry.bytes <= maxBytes) {
+      entry.segment = segment;
+      bytes += entry.bytes;
+      evict(key);
+    }
+    return segment;
+  }
+
+  synchronized void put(String key, Segment<T> segment) {
+    checkNotNull(key);
+    checkNotNull(segment);
+    remove(key);
+    Entry<T> entry = new Entry<T>(segment, segment.estimateBytes());
+    if (entry.bytes > maxBytes) {
+      // Too large to keep in memory; keep it only on disk, if at all
+      if (spillDir != null && spill(entry)) {
+        entry.segment = null;
+        entries.put(key, entry);
+      }
+      return;
+    }
+    entries.put(key, entry);
+    bytes += entry.bytes;
+    evict(key);
+  }
+
+  /**
+   *  Drops every Segment and deletes the spill file.
+   */
+  synchronized void clear() {
+    entries.clear();
+    bytes = 0;
+    if (spill != null) {
+      try {
+        spill.close();
+      } catch (IOException e) {
+        // Nothing left to lose
+      }
+      spillFile.delete();
+      spill = null;
+      spillFile = null;
+    }
+  }
+
+  /**
+   *  Returns the estimated bytes of the Segments held in memory.
+   */
+  synchronized long getSize() {
+    return bytes;
+  }
+
+  /**
+   *  Returns the number of Segments held, in memory or on disk.
+   */
+  synchronized int getCount() {
+    return entries.size();
+  }
+
+  private void remove(String key) {
+    Entry<T> entry = entries.remove(key);
+    if (entry != null && entry.segment != null) {
+      bytes -= entry.bytes;
+    }
+  }
+
+  /**
+   *  Evicts least recently used Segments until the cache fits, sparing <tt>keep</tt>.
+   */
+  private void evict(String keep) {
+    Iterator<Map.Entry<String, Entry<T>>> it = entries.entrySet().iterator();
+    while (bytes > maxBytes && it.hasNext()) {
+      Map.Entry<String, Entry<T>> next = it.next();
+      Entry<T> entry = next.getValue();
+      if (entry.segment == null || next.getKey().equals(keep)) {
+        continue;
+      }
+      bytes -= entry.bytes;
+      if (spillDir != null && spill(entry)) {
+        entry.segment = null;
+      } else {
+        it.remove();
+      }
+    }
+  }
+
+  private boolean spill(Entry<T> entry) {
+    if (entry.offset >= 0) {
+      // Already on disk from an earlier eviction
+      return true;
+    }
+    try {
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      ObjectOutputStream out = new ObjectOutputStream(buffer);
+      out.writeObject(entry.segment);
+      out.close();
+
+      if (spill == null) {
+        spillFile = File.createTempFile("tempoiq-segments-", ".cache", spillDir);
+        spill = new RandomAccessFile(spillFile, "rw");
+      }
+      byte[] body = buffer.toByteArray();
+      long offset = spill.length();
+      spill.seek(offset);
+      spill.write(body);
+      entry.offset = offset;
+      entry.length = body.length;
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private Segment<T> unspill(Entry<T> entry) {
+    try {
+      byte[] body = new byte[entry.length];
+      spill.seek(entry.offset);
+      spill.readFully(body);
+      ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(body));
+      try {
+        return (Segment<T>)in.readObject();
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      return null;
+    } catch (ClassNotFoundException e) {
+      return null;
+    }
+  }
+}
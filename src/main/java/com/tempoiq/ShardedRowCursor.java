@@ -0,0 +1,234 @@
+package com.tempoiq;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.joda.time.DateTime;
+import org.joda.time.Period;
+
+import static com.tempoiq.util.Preconditions.*;
+
+/**
+ *  The Rows of a read split into consecutive time shards that are fetched concurrently.
+ *
+ *  <p>Each iteration starts one paging chain per shard, each on its own worker thread
+ *  and each at most <tt>depth</tt> pages ahead of the consumer (see
+ *  {@link #withPrefetch(int)}). Since the shards do not overlap, the Rows come out in
+ *  timestamp order by reading the shards one after the other; later shards wait with a
+ *  full buffer until their turn. An error in any shard is thrown as a
+ *  {@link TempoIQException} when the iteration reaches it.
+ *
+ *  @see Client#readSharded(Selection, Pipeline, DateTime, DateTime, int)
+ *  @since 1.3.0
+ */
+public class ShardedRowCursor implements Cursor<Row> {
+  private final List<String> shards;
+  private final Executor runner;
+  private final URI endpoint;
+  private final Class<? extends RowSegment> segmentClass;
+  private final String contentType;
+  private final String[] mediaTypeVersions;
+  private int prefetch = DEFAULT_PREFETCH;
+
+  private static final int DEFAULT_PREFETCH = 2;
+
+  /**
+   *  @param shards The query body of every shard, in time order.
+   */
+  ShardedRowCursor(List<String> shards,
+                   Executor runner,
+                   URI endpoint,
+                   Class<? extends RowSegment> segmentClass,
+                   String contentType,
+                   String[] mediaTypeVersions) {
+    this.shards = checkNotNull(shards);
+    this.runner = checkNotNull(runner);
+    this.endpoint = checkNotNull(endpoint);
+    this.segmentClass = checkNotNull(segmentClass);
+    this.contentType = checkNotNull(contentType);
+    this.mediaTypeVersions = checkNotNull(mediaTypeVersions);
+  }
+
+  /**
+   *  Returns the number of shards.
+   *  @return The number of shards.
+   *  @since 1.3.0
+   */
+  public int getShardCount() {
+    return shards.size();
+  }
+
+  /**
+   *  Sets how many pages each shard fetches ahead of the consumer. This bounds the
+   *  memory held per shard. Defaults to 2. Applies to iterators created afterwards.
+   *  @param depth Number of pages to buffer per shard.
+   *  @return This cursor.
+   *  @since 1.3.0
+   */
+  public ShardedRowCursor withPrefetch(int depth) {
+    checkArgument(depth > 0, "depth must be positive.");
+    this.prefetch = depth;
+    return this;
+  }
+
+  public Iterator<Row> iterator() {
+    List<Iterator<Segment<Row>>> pages = new ArrayList<Iterator<Segment<Row>>>(shards.size());
+    for (String body : shards) {
+      pages.add(new PrefetchingPageIterator<Row>(new ShardPages(body), prefetch));
+    }
+    return new PagingIterator<Row>(new ConcatenatedPages(pages));
+  }
+
+  /**
+   *  Splits <tt>[start, stop)</tt> into up to <tt>count</tt> shards of about equal
+   *  length. With a rollup, the boundaries are moved back to the start of a rollup
+   *  period, so that no period is split across shards; shards that become empty are
+   *  dropped.
+   *  @return The boundaries, from <tt>start</tt> to <tt>stop</tt>.
+   */
+  static List<DateTime> boundaries(DateTime start, DateTime stop, int count, Rollup rollup) {
+    checkArgument(count > 0, "count must be positive.");
+    checkArgument(!stop.isBefore(start), "stop must not be before start.");
+    List<DateTime> boundaries = new ArrayList<DateTime>(count + 1);
+    boundaries.add(start);
+    long length = stop.getMillis() - start.getMillis();
+    for (int i = 1; i < count; i++) {
+      DateTime boundary = start.plus(length * i / count);
+      if (rollup != null) {
+        boundary = floor(boundary, rollup);
+      }
+      if (boundary.isAfter(boundaries.get(boundaries.size() - 1)) && boundary.isBefore(stop)) {
+        boundaries.add(boundary);
+      }
+    }
+    boundaries.add(stop);
+    return boundaries;
+  }
+
+  /**
+   *  Returns the start of the rollup period that contains <tt>time</tt>.
+   */
+  static DateTime floor(DateTime time, Rollup rollup) {
+    DateTime origin = rollup.getStart().withZone(time.getZone());
+    Period period = rollup.getPeriod();
+    long approximate = origin.plus(period).getMillis() - origin.getMillis();
+    checkArgument(approximate > 0, "The rollup period must be positive.");
+
+    long offset = time.getMillis() - origin.getMillis();
+    int periods = (int)(offset >= 0 ? offset / approximate : -((-offset + approximate - 1) / approximate));
+    // Periods of months or years vary in length; step to the exact one
+    while (origin.plus(period.multipliedBy(periods)).isAfter(time)) {
+      periods -= 1;
+    }
+    while (!origin.plus(period.multipliedBy(periods + 1)).isAfter(time)) {
+      periods += 1;
+    }
+    return origin.plus(period.multipliedBy(periods));
+  }
+
+  /**
+   *  Returns the last Rollup of a pipeline, or null.
+   */
+  static Rollup lastRollup(Pipeline pipeline) {
+    if (pipeline == null) {
+      return null;
+    }
+    List<PipelineFunction> functions = new ArrayList<PipelineFunction>(pipeline.getFunctions());
+    Collections.reverse(functions);
+    for (PipelineFunction function : functions) {
+      if (function instanceof Rollup) {
+        return (Rollup)function;
+      }
+    }
+    return null;
+  }
+
+  /**
+   *  The pages of one shard. The first page is only requested on the first call to
+   *  {@link #hasNext()}, which happens on the prefetching thread.
+   */
+  private class ShardPages implements Iterator<Segment<Row>> {
+    private final String body;
+    private RowPageLoader loader;
+
+    private ShardPages(String body) {
+      this.body = body;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (loader == null) {
+        Result<? extends RowSegment> result = runner.get(endpoint, body, segmentClass, contentType, mediaTypeVersions);
+        if (!result.getState().equals(State.SUCCESS)) {
+          throw new TempoIQException(result.getMessage(), result.getCode());
+        }
+        loader = new RowPageLoader(result.getValue(), endpoint, runner, contentType, mediaTypeVersions);
+      }
+      return loader.hasNext();
+    }
+
+    @Override
+    public Segment<Row> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return loader.next();
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   *  The pages of every shard in turn. Empty pages are skipped, since a shard can have
+   *  no Rows at all.
+   */
+  private static class ConcatenatedPages implements Iterator<Segment<Row>> {
+    private final Iterator<Iterator<Segment<Row>>> shards;
+    private Iterator<Segment<Row>> current;
+    private Segment<Row> nextPage;
+
+    private ConcatenatedPages(List<Iterator<Segment<Row>>> shards) {
+      this.shards = shards.iterator();
+      this.current = Collections.<Segment<Row>>emptyList().iterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (nextPage == null) {
+        if (current.hasNext()) {
+          Segment<Row> page = current.next();
+          if (!page.getData().isEmpty()) {
+            nextPage = page;
+          }
+        } else if (shards.hasNext()) {
+          current = shards.next();
+        } else {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public Segment<Row> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Segment<Row> page = nextPage;
+      nextPage = null;
+      return page;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,22 @@
+package com.tempoiq;
+
+
+/**
+ *  Told about spooled writes that could not be delivered.
+ *
+ *  <p>A write accepted into the spool was already reported as 202 Accepted, so a
+ *  record the endpoint rejects for good (a client error, or devices still failing
+ *  after the failed devices of a 207 were resent) can only be reported here.
+ *
+ *  @see ClientBuilder#spoolListener(SpoolListener)
+ *  @since 1.3.0
+ */
+public interface SpoolListener {
+  /**
+   *  Called on the spool's thread once for every record that is dropped.
+   *  @param body The /v2/write body of the undelivered DataPoints, as UTF-8 JSON.
+   *  @param result The last result of sending it.
+   *  @since 1.3.0
+   */
+  void dropped(byte[] body, Result<WriteResponse> result);
+}
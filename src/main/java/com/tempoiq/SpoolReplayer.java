@@ -0,0 +1,155 @@
+package com.tempoiq;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.tempoiq.json.Json;
+import com.tempoiq.util.DaemonThreadFactory;
+import static com.tempoiq.util.Preconditions.*;
+
+/**
+ *  Drains a {@link WriteSpool} in order on a background thread.
+ *
+ *  <p>The head record is resent until the endpoint accepts it. While the endpoint is
+ *  down, one attempt is made every <tt>retryMillis</tt>. When the endpoint answers
+ *  with a 207, only the DataPoints of the failed devices are resent, up to
+ *  {@link #MAX_PARTIAL_RESENDS} times. A record rejected with a client error, or
+ *  devices still failing after that, are dropped and reported to the
+ *  {@link SpoolListener}, or logged if there is none.
+ */
+class SpoolReplayer {
+  private final Client client;
+  private final WriteSpool spool;
+  private final long retryMillis;
+  private final ScheduledExecutorService executor;
+  private final SpoolListener listener;
+  private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+  /** What is left to send of the head record after a 207, or null. */
+  private byte[] remaining = null;
+  private int partialResends = 0;
+
+  static final int MAX_PARTIAL_RESENDS = 3;
+  private static final Logger logger = Logger.getLogger(SpoolReplayer.class.getName());
+
+  private final Runnable drain = new Runnable() {
+    public void run() {
+      scheduled.set(false);
+      drain();
+    }
+  };
+
+  SpoolReplayer(Client client, WriteSpool spool, long retryMillis, SpoolListener listener) {
+    checkArgument(retryMillis >= 0, "retryMillis must not be negative.");
+    this.client = checkNotNull(client);
+    this.spool = checkNotNull(spool);
+    this.retryMillis = retryMillis;
+    this.listener = listener;
+    this.executor = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("write-spool"));
+  }
+
+  /**
+   *  Starts draining unless a drain is already scheduled, including a pending retry.
+   */
+  void wake() {
+    schedule(0);
+  }
+
+  /**
+   *  Cancels pending retries and waits for a drain in progress to finish, so the spool
+   *  can be closed afterwards.
+   */
+  void shutdown() {
+    executor.shutdownNow();
+    try {
+      while (!executor.awaitTermination(1, TimeUnit.SECONDS)) { }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void schedule(long delayMillis) {
+    if (scheduled.compareAndSet(false, true)) {
+      try {
+        executor.schedule(drain, delayMillis, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        // Shut down; the records stay in the spool
+        scheduled.set(false);
+      }
+    }
+  }
+
+  private void drain() {
+    try {
+      while (true) {
+        byte[] body = remaining != null ? remaining : spool.peek();
+        if (body == null) {
+          return;
+        }
+        Result<WriteResponse> result = client.postSpooled(body);
+        if (Client.isTransientFailure(result)) {
+          schedule(retryMillis);
+          return;
+        }
+
+        if (result.getState() == State.PARTIAL_SUCCESS && result.getValue() != null) {
+          byte[] failed = forDevices(body, result.getValue().getFailures().keySet());
+          if (failed != null && partialResends < MAX_PARTIAL_RESENDS) {
+            remaining = failed;
+            partialResends += 1;
+            continue;
+          }
+          if (failed != null) {
+            report(failed, result);
+          }
+        } else if (result.getState() != State.SUCCESS) {
+          report(body, result);
+        }
+        spool.remove();
+        remaining = null;
+        partialResends = 0;
+      }
+    } catch (IOException e) {
+      schedule(retryMillis);
+    }
+  }
+
+  private void report(byte[] body, Result<WriteResponse> result) {
+    if (listener != null) {
+      listener.dropped(body, result);
+    } else {
+      logger.log(Level.WARNING, String.format("Dropped a spooled write of %d bytes: %d %s",
+                                              body.length, result.getCode(), result.getMessage()));
+    }
+  }
+
+  /**
+   *  Keeps the devices of a write body that are in <tt>deviceKeys</tt>.
+   *  @return The filtered body, or null if no device is left.
+   */
+  static byte[] forDevices(byte[] body, Set<String> deviceKeys) throws IOException {
+    JsonNode tree = Json.reader().readTree(new ByteArrayInputStream(body));
+    if (!(tree instanceof ObjectNode)) {
+      return null;
+    }
+    Iterator<String> devices = tree.fieldNames();
+    while (devices.hasNext()) {
+      if (!deviceKeys.contains(devices.next())) {
+        devices.remove();
+      }
+    }
+    return tree.size() == 0 ? null : Json.writer().writeValueAsBytes(tree);
+  }
+}
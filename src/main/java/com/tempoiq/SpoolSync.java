@@ -0,0 +1,30 @@
+package com.tempoiq;
+
+
+/**
+ *  When the write spool forces its segment files to disk.
+ *
+ *  @see ClientBuilder#spoolWrites(java.io.File, long, SpoolSync)
+ *  @since 1.3.0
+ */
+public enum SpoolSync {
+  /**
+   *  Forces every spooled write to disk before the write returns. Nothing is lost
+   *  on a crash, at the cost of one fsync per write.
+   *  @since 1.3.0
+   */
+  ALWAYS,
+
+  /**
+   *  Forces a segment file to disk when it is full and a new one is started. A crash
+   *  can lose the writes of the current segment that the OS had not yet flushed.
+   *  @since 1.3.0
+   */
+  SEGMENT,
+
+  /**
+   *  Never forces segment files; flushing is left to the OS.
+   *  @since 1.3.0
+   */
+  NEVER
+}
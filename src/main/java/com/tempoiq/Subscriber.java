@@ -0,0 +1,36 @@
+package com.tempoiq;
+
+
+/**
+ *  Receives the items of a {@link Publisher}, no more than it has requested through its
+ *  {@link Subscription}. Calls to a Subscriber are never concurrent.
+ *  @since 1.3.0
+ */
+public interface Subscriber<T> {
+  /**
+   *  Called once, before any other method.
+   *  @param subscription The subscription, used to request items or cancel.
+   *  @since 1.3.0
+   */
+  void onSubscribe(Subscription subscription);
+
+  /**
+   *  Called for every item requested.
+   *  @param item The item.
+   *  @since 1.3.0
+   */
+  void onNext(T item);
+
+  /**
+   *  Called once if the query fails. Nothing is called afterwards.
+   *  @param error The failure.
+   *  @since 1.3.0
+   */
+  void onError(Throwable error);
+
+  /**
+   *  Called once after the last item. Nothing is called afterwards.
+   *  @since 1.3.0
+   */
+  void onComplete();
+}
@@ -0,0 +1,23 @@
+package com.tempoiq;
+
+
+/**
+ *  The link between a {@link Publisher} and one of its {@link Subscriber}s.
+ *  @since 1.3.0
+ */
+public interface Subscription {
+  /**
+   *  Asks for up to <tt>n</tt> more items. Pages are fetched on the calling thread, and
+   *  only when the items requested go past the pages already fetched.
+   *  @param n The number of items, which must be positive.
+   *  @since 1.3.0
+   */
+  void request(long n);
+
+  /**
+   *  Stops the subscription. No more pages are fetched, and the subscriber may still
+   *  receive items that were being delivered.
+   *  @since 1.3.0
+   */
+  void cancel();
+}
@@ -0,0 +1,80 @@
+package com.tempoiq;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+/**
+ *  The pending Result of DataPoints handed to a {@link BatchWriter}.
+ *
+ *  <p>A WriteFuture completes once every batch holding its DataPoints has been
+ *  written. When the DataPoints were spread over several batches, the value is the
+ *  merged {@link WriteResponse} of those batches; a Device reported as failed by any
+ *  of them stays failed in the merged response.
+ *
+ *  <p>Writes cannot be cancelled once they are buffered.
+ *  @since 1.3.0
+ */
+public class WriteFuture implements Future<Result<WriteResponse>> {
+  private final WriteResults results = new WriteResults();
+  private int pending = 0;
+  private boolean sealed = false;
+
+  WriteFuture() { }
+
+  /** Registers one more batch that this future waits on. */
+  synchronized void attach() {
+    pending += 1;
+  }
+
+  /** Marks that no further batches will be attached. */
+  synchronized void seal() {
+    sealed = true;
+    notifyAll();
+  }
+
+  void complete(WriteRequest batch, Result<WriteResponse> result) {
+    results.add(batch, result);
+    synchronized(this) {
+      pending -= 1;
+      notifyAll();
+    }
+  }
+
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    return false;
+  }
+
+  public boolean isCancelled() {
+    return false;
+  }
+
+  public synchronized boolean isDone() {
+    return sealed && pending == 0;
+  }
+
+  public Result<WriteResponse> get() throws InterruptedException, ExecutionException {
+    synchronized(this) {
+      while (!isDone()) {
+        wait();
+      }
+    }
+    return results.toResult();
+  }
+
+  public Result<WriteResponse> get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    synchronized(this) {
+      while (!isDone()) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          throw new TimeoutException();
+        }
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      }
+    }
+    return results.toResult();
+  }
+}
@@ -0,0 +1,125 @@
+package com.tempoiq;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.tempoiq.util.Preconditions.*;
+
+/**
+ *  Adaptive limit on concurrent write requests.
+ *
+ *  <p>The number of requests in flight is controlled with AIMD: each successful write
+ *  raises the limit by <tt>1/limit</tt> (about one per round trip of the whole window),
+ *  and an overload response (429, 503, 504 or a connection error) cuts it by a quarter.
+ *  Only requests started after the last cut can cut it again, so a burst of failures
+ *  from one window counts once. A Retry-After header pauses all new writes until it
+ *  passes. On top of that, a token bucket caps the request rate.
+ */
+class WriteLimiter {
+  private final int maxConcurrency;
+  private final double ratePerSecond;
+  private final double burst;
+
+  private double limit;
+  private int inFlight = 0;
+  private double tokens;
+  private long refilledNanos;
+  private long pausedUntilNanos;
+  private long decreasedNanos;
+
+  private static final double BACKOFF_RATIO = 0.75;
+  private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  /**
+   *  @param maxConcurrency Upper bound for the concurrency limit; the limit starts here.
+   *  @param ratePerSecond Maximum rate of requests.
+   */
+  WriteLimiter(int maxConcurrency, double ratePerSecond) {
+    checkArgument(maxConcurrency > 0, "maxConcurrency must be positive.");
+    checkArgument(ratePerSecond > 0, "ratePerSecond must be positive.");
+    this.maxConcurrency = maxConcurrency;
+    this.ratePerSecond = ratePerSecond;
+    this.burst = Math.max(1.0, Math.min(ratePerSecond, maxConcurrency));
+    this.limit = maxConcurrency;
+    this.tokens = burst;
+    long now = System.nanoTime();
+    this.refilledNanos = now;
+    this.pausedUntilNanos = now;
+    this.decreasedNanos = now;
+  }
+
+  /**
+   *  Blocks until a write may start.
+   *  @return The start time of the write, to be passed to {@link #release(long, int, long)}.
+   */
+  synchronized long acquire() throws InterruptedException {
+    while (true) {
+      long now = System.nanoTime();
+      refill(now);
+      long waitNanos;
+      if (now - pausedUntilNanos < 0) {
+        waitNanos = pausedUntilNanos - now;
+      } else if (inFlight >= getLimit()) {
+        waitNanos = -1;
+      } else if (tokens < 1.0) {
+        waitNanos = Math.max(1, (long)((1.0 - tokens) / ratePerSecond * NANOS_PER_SECOND));
+      } else {
+        tokens -= 1.0;
+        inFlight += 1;
+        return now;
+      }
+
+      if (waitNanos < 0) {
+        wait();
+      } else {
+        TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+      }
+    }
+  }
+
+  /**
+   *  Ends a write and adjusts the limit to its outcome.
+   *  @param startNanos The value returned by {@link #acquire()}.
+   *  @param code The status code of the write.
+   *  @param retryAfterMillis The Retry-After delay of the response, or 0.
+   */
+  synchronized void release(long startNanos, int code, long retryAfterMillis) {
+    long now = System.nanoTime();
+    inFlight -= 1;
+    if (retryAfterMillis > 0) {
+      long until = now + TimeUnit.MILLISECONDS.toNanos(retryAfterMillis);
+      if (until - pausedUntilNanos > 0) {
+        pausedUntilNanos = until;
+      }
+    }
+
+    if (isOverload(code)) {
+      if (startNanos - decreasedNanos >= 0) {
+        limit = Math.max(1.0, limit * BACKOFF_RATIO);
+        decreasedNanos = now;
+      }
+    } else if (code / 100 == 2) {
+      limit = Math.min(maxConcurrency, limit + 1.0 / limit);
+    }
+    notifyAll();
+  }
+
+  /**
+   *  Returns the current concurrency limit.
+   */
+  synchronized int getLimit() {
+    return Math.max(1, (int)limit);
+  }
+
+  synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  static boolean isOverload(int code) {
+    return code == 429 || code == 503 || code == 504 || code == 600;
+  }
+
+  private void refill(long now) {
+    tokens = Math.min(burst, tokens + (now - refilledNanos) * ratePerSecond / NANOS_PER_SECOND);
+    refilledNanos = now;
+  }
+}
@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -57,6 +58,24 @@ public class WriteRequest implements Iterable<WritableDataPoint> {
     return this;
   }
 
+  /**
+   *  Returns a request holding only the DataPoints of the given Devices.
+   */
+  WriteRequest forDevices(Set<String> deviceKeys) {
+    WriteRequest request = new WriteRequest();
+    for(WritableDataPoint dp : data) {
+      if (deviceKeys.contains(dp.getDevice().getKey())) {
+        request.data.add(dp);
+      }
+    }
+    return request;
+  }
+
+  WriteRequest add(WritableDataPoint point) {
+    data.add(checkNotNull(point));
+    return this;
+  }
+
   public Map<String, Map<String, List<DataPoint>>> asMap() {
     Map<String, Map<String, List<DataPoint>>> devices = new HashMap<String, Map<String, List<DataPoint>>>();
     for(WritableDataPoint dp : data) {
@@ -76,6 +95,15 @@ public class WriteRequest implements Iterable<WritableDataPoint> {
     return devices;
   }
 
+  /**
+   *  Returns the number of DataPoints in the request.
+   *  @return The number of DataPoints.
+   *  @since 1.3.0
+   */
+  public int size() {
+    return data.size();
+  }
+
   @Override
   public Iterator<WritableDataPoint> iterator() {
     return data.iterator();
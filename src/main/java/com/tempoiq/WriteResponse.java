@@ -14,9 +14,16 @@ import com.tempoiq.json.Json;
 
 public class WriteResponse {
   private HashMap<String, DeviceStatus> statuses;
+  private WriteRequest unwritten;
 
   public WriteResponse(HashMap<String, DeviceStatus> response) {
     this.statuses = response;
+    this.unwritten = null;
+  }
+
+  WriteResponse(HashMap<String, DeviceStatus> response, WriteRequest unwritten) {
+    this.statuses = response;
+    this.unwritten = unwritten;
   }
 
   public boolean wasSuccessful() {
@@ -39,6 +46,25 @@ public class WriteResponse {
     return failures < entries.size();
   }
 
+  /**
+   *  Returns the status of every Device in the write, keyed by Device key.
+   *  @return The per-device statuses.
+   *  @since 1.3.0
+   */
+  public HashMap<String, DeviceStatus> getStatuses() {
+    return statuses;
+  }
+
+  /**
+   *  Returns the DataPoints that were never written, once failed devices have been retried.
+   *  @return The unwritten DataPoints, or null if the write was made without
+   *    failed-device retries (see {@link ClientBuilder#retryFailedDevices(int, long)}).
+   *  @since 1.3.0
+   */
+  public WriteRequest getUnwritten() {
+    return unwritten;
+  }
+
   private HashMap<String, DeviceStatus> filterByState(DeviceStatus.DeviceState state) {
     HashMap<String, DeviceStatus> results = new HashMap<String, DeviceStatus>();
     for (Map.Entry<String, DeviceStatus> entry : this.statuses.entrySet()) { 
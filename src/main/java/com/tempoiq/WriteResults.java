@@ -0,0 +1,77 @@
+package com.tempoiq;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ *  Merges the Results of several write calls into a single Result.
+ *
+ *  <p>Devices from a write that failed outright have no entry in the server's
+ *  {@link WriteResponse}, so a failed DeviceStatus carrying the Result message is
+ *  recorded for each of them instead. This keeps {@link WriteResponse#getFailures()}
+ *  complete for the merged Result.
+ *
+ *  <p>A device can be spread over several writes. Once one of them failed for the
+ *  device, its failed status is kept even if a later write of the device succeeds, so
+ *  the points of the failed write are not reported as written.
+ */
+final class WriteResults {
+  private final HashMap<String, DeviceStatus> statuses = new HashMap<String, DeviceStatus>();
+  private int successes = 0;
+  private int failures = 0;
+  private Result<WriteResponse> lastFailure = null;
+
+  private static final int SUCCESS_CODE = 200;
+  private static final int MULTI_STATUS_CODE = 207;
+
+  synchronized void add(WriteRequest request, Result<WriteResponse> result) {
+    switch(result.getState()) {
+      case SUCCESS:
+        successes += 1;
+        break;
+      case PARTIAL_SUCCESS:
+        successes += 1;
+        failures += 1;
+        break;
+      case FAILURE:
+      default:
+        failures += 1;
+        lastFailure = result;
+        break;
+    }
+
+    WriteResponse response = result.getValue();
+    if (response != null) {
+      for (Map.Entry<String, DeviceStatus> entry : response.getStatuses().entrySet()) {
+        merge(entry.getKey(), entry.getValue());
+      }
+    } else if (result.getState() == State.FAILURE) {
+      DeviceStatus failed = new DeviceStatus(null, false, result.getMessage());
+      for (WritableDataPoint point : request) {
+        merge(point.getDevice().getKey(), failed);
+      }
+    }
+  }
+
+  /** Records the status of a device; a failure always wins over a success. */
+  private void merge(String deviceKey, DeviceStatus status) {
+    DeviceStatus current = statuses.get(deviceKey);
+    if (current == null || current.getSuccess() || !status.getSuccess()) {
+      statuses.put(deviceKey, status);
+    }
+  }
+
+  synchronized Result<WriteResponse> toResult() {
+    if (successes == 0 && lastFailure != null) {
+      return lastFailure;
+    }
+
+    WriteResponse response = new WriteResponse(new HashMap<String, DeviceStatus>(statuses));
+    if (failures == 0) {
+      return new Result<WriteResponse>(response, SUCCESS_CODE, "OK");
+    } else {
+      return new Result<WriteResponse>(response, MULTI_STATUS_CODE, "Multi-Status");
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package com.tempoiq;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.tempoiq.util.Preconditions.*;
+
+/**
+ *  Splits WriteRequests into device-aligned chunks.
+ *
+ *  <p>Devices are packed into a chunk until it would exceed the point or byte limit.
+ *  A device is only spread over several chunks when its own points exceed a limit;
+ *  those chunks are consecutive, and {@link #runs(List)} groups them so that they can be
+ *  written one after the other.
+ */
+class WriteSplitter {
+  private final int maxPoints;
+  private final long maxBytes;
+
+  /** Rough size of one {"t": ..., "v": ...} entry in a write body, excluding keys. */
+  static final int ESTIMATED_POINT_BYTES = 48;
+
+  WriteSplitter(int maxPoints, long maxBytes) {
+    checkArgument(maxPoints > 0, "maxPoints must be positive.");
+    checkArgument(maxBytes > 0, "maxBytes must be positive.");
+    this.maxPoints = maxPoints;
+    this.maxBytes = maxBytes;
+  }
+
+  static long estimateBytes(WritableDataPoint point) {
+    return ESTIMATED_POINT_BYTES + point.getDevice().getKey().length() + point.getSensor().getKey().length();
+  }
+
+  boolean exceedsLimits(WriteRequest request) {
+    if (request.size() > maxPoints) {
+      return true;
+    }
+    long bytes = 0;
+    for (WritableDataPoint point : request) {
+      bytes += estimateBytes(point);
+      if (bytes > maxBytes) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  boolean exceedsLimits(int points, long bytes) {
+    return points > maxPoints || bytes > maxBytes;
+  }
+
+  List<WriteRequest> split(WriteRequest request) {
+    Map<String, List<WritableDataPoint>> devices = new LinkedHashMap<String, List<WritableDataPoint>>();
+    for (WritableDataPoint point : request) {
+      List<WritableDataPoint> points = devices.get(point.getDevice().getKey());
+      if (points == null) {
+        points = new ArrayList<WritableDataPoint>();
+        devices.put(point.getDevice().getKey(), points);
+      }
+      points.add(point);
+    }
+
+    List<WriteRequest> chunks = new ArrayList<WriteRequest>();
+    WriteRequest chunk = new WriteRequest();
+    long chunkBytes = 0;
+    for (List<WritableDataPoint> points : devices.values()) {
+      long deviceBytes = 0;
+      for (WritableDataPoint point : points) {
+        deviceBytes += estimateBytes(point);
+      }
+
+      if (chunk.size() > 0 && (chunk.size() + points.size() > maxPoints || chunkBytes + deviceBytes > maxBytes)) {
+        chunks.add(chunk);
+        chunk = new WriteRequest();
+        chunkBytes = 0;
+      }
+
+      for (WritableDataPoint point : points) {
+        long bytes = estimateBytes(point);
+        if (chunk.size() > 0 && (chunk.size() + 1 > maxPoints || chunkBytes + bytes > maxBytes)) {
+          chunks.add(chunk);
+          chunk = new WriteRequest();
+          chunkBytes = 0;
+        }
+        chunk.add(point);
+        chunkBytes += bytes;
+      }
+    }
+    if (chunk.size() > 0) {
+      chunks.add(chunk);
+    }
+    return chunks;
+  }
+
+  /**
+   *  Groups consecutive chunks that share a device, so that the points of a device
+   *  spread over several chunks are written in order. Different groups share no device
+   *  and can be written concurrently.
+   */
+  static List<List<WriteRequest>> runs(List<WriteRequest> chunks) {
+    List<List<WriteRequest>> runs = new ArrayList<List<WriteRequest>>();
+    Set<String> previous = new HashSet<String>();
+    for (WriteRequest chunk : chunks) {
+      Set<String> devices = new HashSet<String>();
+      boolean shared = false;
+      for (WritableDataPoint point : chunk) {
+        devices.add(point.getDevice().getKey());
+        shared = shared || previous.contains(point.getDevice().getKey());
+      }
+      if (!shared) {
+        runs.add(new ArrayList<WriteRequest>());
+      }
+      runs.get(runs.size() - 1).add(chunk);
+      previous = devices;
+    }
+    return runs;
+  }
+}
@@ -0,0 +1,308 @@
+package com.tempoiq;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.zip.CRC32;
+
+import static com.tempoiq.util.Preconditions.*;
+
+/**
+ *  An append-only, on-disk queue of write request bodies.
+ *
+ *  <p>Records are appended to segment files named <tt>spool-&lt;sequence&gt;.log</tt>. Each
+ *  record is a 4 byte length, a 4 byte CRC32 of the body and the body itself. Segments
+ *  are read oldest first and deleted once drained. On startup the existing segments are
+ *  scanned and a torn or corrupt record ends its segment, so a crash mid-append loses
+ *  at most that record.
+ *
+ *  <p>The head record is only removed after it was written, so a record may be sent
+ *  again after a crash. Writes of the same DataPoints are idempotent.
+ */
+class WriteSpool {
+  private final File directory;
+  private final long maxBytes;
+  private final long segmentBytes;
+  private final SpoolSync sync;
+  private final LinkedList<File> segments = new LinkedList<File>();
+
+  private long size = 0;
+  private long records = 0;
+  private long sequence = 0;
+
+  private File writeFile = null;
+  private FileChannel writer = null;
+  private File readFile = null;
+  private FileChannel reader = null;
+  private long readOffset = 0;
+  private int headLength = -1;
+
+  private static final String PREFIX = "spool-";
+  private static final String SUFFIX = ".log";
+  private static final int HEADER_BYTES = 8;
+  static final long DEFAULT_SEGMENT_BYTES = 4 * 1024 * 1024;  // 4 MB
+
+  WriteSpool(File directory, long maxBytes, SpoolSync sync) throws IOException {
+    this(directory, maxBytes, Math.min(maxBytes, DEFAULT_SEGMENT_BYTES), sync);
+  }
+
+  WriteSpool(File directory, long maxBytes, long segmentBytes, SpoolSync sync) throws IOException {
+    checkNotNull(directory);
+    checkArgument(maxBytes > 0, "maxBytes must be positive.");
+    checkArgument(segmentBytes > 0, "segmentBytes must be positive.");
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.segmentBytes = segmentBytes;
+    this.sync = checkNotNull(sync);
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create spool directory " + directory);
+    }
+    recover();
+  }
+
+  /**
+   *  Returns true if no record is waiting to be written.
+   */
+  synchronized boolean isEmpty() {
+    return records == 0;
+  }
+
+  /**
+   *  Returns the number of records waiting to be written.
+   */
+  synchronized long getRecordCount() {
+    return records;
+  }
+
+  /**
+   *  Returns the size of the segment files in bytes, including drained records of
+   *  segments that are still being read.
+   */
+  synchronized long getSize() {
+    return size;
+  }
+
+  /**
+   *  Appends a record.
+   *  @return false if the record would exceed the maximum spool size.
+   */
+  synchronized boolean append(byte[] body) throws IOException {
+    checkNotNull(body);
+    long recordBytes = HEADER_BYTES + body.length;
+    if (size + recordBytes > maxBytes) {
+      return false;
+    }
+    if (writer == null || (writer.size() > 0 && writer.size() + recordBytes > segmentBytes)) {
+      roll();
+    }
+
+    CRC32 crc = new CRC32();
+    crc.update(body);
+    ByteBuffer buffer = ByteBuffer.allocate((int)recordBytes);
+    buffer.putInt(body.length);
+    buffer.putInt((int)crc.getValue());
+    buffer.put(body);
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      writer.write(buffer);
+    }
+    if (sync == SpoolSync.ALWAYS) {
+      writer.force(false);
+    }
+
+    size += recordBytes;
+    records += 1;
+    return true;
+  }
+
+  /**
+   *  Returns the oldest record without removing it, or null if the spool is empty.
+   */
+  synchronized byte[] peek() throws IOException {
+    while (records > 0) {
+      if (reader == null) {
+        readFile = segments.getFirst();
+        reader = new RandomAccessFile(readFile, "r").getChannel();
+        readOffset = 0;
+      }
+      byte[] body = readRecord(reader, readOffset);
+      if (body != null) {
+        headLength = body.length;
+        return body;
+      }
+      if (readFile.equals(writeFile)) {
+        // The records counter and the active segment disagree; nothing more can be read
+        records = 0;
+        return null;
+      }
+      dropReadSegment();
+    }
+    return null;
+  }
+
+  /**
+   *  Removes the record returned by the last {@link #peek()}.
+   */
+  synchronized void remove() throws IOException {
+    checkArgument(headLength >= 0, "remove() must follow a successful peek().");
+    readOffset += HEADER_BYTES + headLength;
+    headLength = -1;
+    records -= 1;
+
+    if (records == 0) {
+      // Fully drained; drop every segment so the next append starts a fresh one
+      closeReader();
+      closeWriter();
+      while (!segments.isEmpty()) {
+        delete(segments.removeFirst());
+      }
+      size = 0;
+    }
+  }
+
+  synchronized void close() throws IOException {
+    closeReader();
+    if (writer != null && sync != SpoolSync.NEVER) {
+      writer.force(false);
+    }
+    closeWriter();
+  }
+
+  /**
+   *  The sequence number of a segment file name, or -1 if the name is not one of ours.
+   */
+  private static long sequenceOf(String name) {
+    if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX) || name.length() <= PREFIX.length() + SUFFIX.length()) {
+      return -1;
+    }
+    String digits = name.substring(PREFIX.length(), name.length() - SUFFIX.length());
+    for (int i = 0; i < digits.length(); i++) {
+      if (!Character.isDigit(digits.charAt(i))) {
+        return -1;
+      }
+    }
+    try {
+      return Long.parseLong(digits);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private void recover() throws IOException {
+    File[] files = directory.listFiles(new FilenameFilter() {
+      public boolean accept(File dir, String name) {
+        return sequenceOf(name) >= 0;
+      }
+    });
+    if (files == null) {
+      throw new IOException("Could not list spool directory " + directory);
+    }
+    // Sequence numbers are zero-padded, so names sort in write order
+    Arrays.sort(files);
+
+    for (File file : files) {
+      sequence = Math.max(sequence, sequenceOf(file.getName()));
+
+      FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+      long count = 0;
+      try {
+        long offset = 0;
+        byte[] body;
+        while ((body = readRecord(channel, offset)) != null) {
+          offset += HEADER_BYTES + body.length;
+          count += 1;
+        }
+      } finally {
+        channel.close();
+      }
+
+      if (count == 0) {
+        delete(file);
+      } else {
+        segments.addLast(file);
+        size += file.length();
+        records += count;
+      }
+    }
+  }
+
+  private static byte[] readRecord(FileChannel channel, long offset) throws IOException {
+    long available = channel.size() - offset;
+    if (available < HEADER_BYTES) {
+      return null;
+    }
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    readFully(channel, header, offset);
+    header.flip();
+    int length = header.getInt();
+    int checksum = header.getInt();
+    if (length < 0 || length > available - HEADER_BYTES) {
+      return null;
+    }
+
+    ByteBuffer body = ByteBuffer.allocate(length);
+    readFully(channel, body, offset + HEADER_BYTES);
+    CRC32 crc = new CRC32();
+    crc.update(body.array());
+    if ((int)crc.getValue() != checksum) {
+      return null;
+    }
+    return body.array();
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position + buffer.position());
+      if (read < 0) {
+        throw new IOException("Unexpected end of spool segment.");
+      }
+    }
+  }
+
+  private void roll() throws IOException {
+    if (writer != null && sync != SpoolSync.NEVER) {
+      writer.force(false);
+    }
+    closeWriter();
+    sequence += 1;
+    writeFile = new File(directory, String.format("%s%020d%s", PREFIX, sequence, SUFFIX));
+    writer = new RandomAccessFile(writeFile, "rw").getChannel();
+    writer.position(writer.size());
+    segments.addLast(writeFile);
+  }
+
+  private void dropReadSegment() throws IOException {
+    File file = segments.removeFirst();
+    size -= file.length();
+    closeReader();
+    delete(file);
+  }
+
+  private void closeReader() throws IOException {
+    if (reader != null) {
+      reader.close();
+      reader = null;
+      readFile = null;
+    }
+  }
+
+  private void closeWriter() throws IOException {
+    if (writer != null) {
+      writer.close();
+      writer = null;
+      writeFile = null;
+    }
+  }
+
+  private static void delete(File file) throws IOException {
+    if (file.exists() && !file.delete()) {
+      throw new IOException("Could not delete spool segment " + file);
+    }
+  }
+}
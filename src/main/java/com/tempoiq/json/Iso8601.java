@@ -0,0 +1,233 @@
+package com.tempoiq.json;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+/**
+ *  Parses and prints ISO-8601 timestamps to and from epoch millis, without creating a
+ *  DateTime or going through a formatter.
+ *
+ *  <p>The fast path covers the form the API uses, <tt>yyyy-MM-ddTHH:mm:ss[.SSS]</tt>
+ *  followed by <tt>Z</tt> or an offset, and prints exactly what Joda's
+ *  <tt>DateTime.toString()</tt> prints. Anything else (no offset, years outside
+ *  0000-9999, offsets with seconds) goes to Joda, so results never differ from it.
+ */
+final class Iso8601 {
+  private static final DateTimeFormatter parser = ISODateTimeFormat.dateTimeParser();
+  private static final DateTimeFormatter printer = ISODateTimeFormat.dateTime();
+
+  private static final long MILLIS_PER_DAY = 86400000L;
+  private static final int MILLIS_PER_MINUTE = 60000;
+  private static final int MILLIS_PER_HOUR = 3600000;
+  private static final long INVALID = Long.MIN_VALUE;
+
+  /** Long enough for any printed timestamp, including signed 9-digit years and offsets with millis. */
+  static final int MAX_LENGTH = 48;
+
+  private Iso8601() { }
+
+  /**
+   *  Parses a timestamp.
+   *  @param text The timestamp.
+   *  @param zone The zone of timestamps that have no offset.
+   *  @return The epoch millis.
+   *  @throws IllegalArgumentException If the text is not an ISO-8601 timestamp.
+   */
+  static long parse(String text, DateTimeZone zone) {
+    long millis = parseFast(text);
+    if (millis != INVALID) {
+      return millis;
+    }
+    return parser.withZone(zone).parseMillis(text);
+  }
+
+  /**
+   *  Prints a timestamp in UTC, as <tt>yyyy-MM-ddTHH:mm:ss.SSSZ</tt>.
+   */
+  static String print(long millis) {
+    return print(millis, DateTimeZone.UTC);
+  }
+
+  /**
+   *  Prints a timestamp with the offset of a zone at that instant.
+   */
+  static String print(long millis, DateTimeZone zone) {
+    char[] buffer = new char[MAX_LENGTH];
+    return new String(buffer, 0, print(millis, zone, buffer));
+  }
+
+  /**
+   *  Prints a timestamp into a buffer of at least {@link #MAX_LENGTH} chars.
+   *  @return The number of chars printed.
+   */
+  static int print(long millis, DateTimeZone zone, char[] buffer) {
+    int offset = zone == DateTimeZone.UTC ? 0 : zone.getOffset(millis);
+    long local = millis + offset;
+    long days = floorDiv(local, MILLIS_PER_DAY);
+    int millisOfDay = (int)(local - days * MILLIS_PER_DAY);
+
+    // Civil date from days since the epoch, in the proleptic Gregorian calendar
+    long z = days + 719468;
+    long era = (z >= 0 ? z : z - 146096) / 146097;
+    long dayOfEra = z - era * 146097;
+    long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    long shiftedMonth = (5 * dayOfYear + 2) / 153;
+    int day = (int)(dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+    int month = (int)(shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+    long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+    if (year < 0 || year > 9999 || offset % MILLIS_PER_MINUTE != 0) {
+      String text = printer.withZone(zone).print(millis);
+      text.getChars(0, text.length(), buffer, 0);
+      return text.length();
+    }
+
+    digits(buffer, 0, (int)year, 4);
+    buffer[4] = '-';
+    digits(buffer, 5, month, 2);
+    buffer[7] = '-';
+    digits(buffer, 8, day, 2);
+    buffer[10] = 'T';
+    digits(buffer, 11, millisOfDay / MILLIS_PER_HOUR, 2);
+    buffer[13] = ':';
+    digits(buffer, 14, millisOfDay / MILLIS_PER_MINUTE % 60, 2);
+    buffer[16] = ':';
+    digits(buffer, 17, millisOfDay / 1000 % 60, 2);
+    buffer[19] = '.';
+    digits(buffer, 20, millisOfDay % 1000, 3);
+    if (offset == 0) {
+      buffer[23] = 'Z';
+      return 24;
+    }
+    int minutes = Math.abs(offset) / MILLIS_PER_MINUTE;
+    buffer[23] = offset < 0 ? '-' : '+';
+    digits(buffer, 24, minutes / 60, 2);
+    buffer[26] = ':';
+    digits(buffer, 27, minutes % 60, 2);
+    return 29;
+  }
+
+  /**
+   *  Parses <tt>yyyy-MM-ddTHH:mm:ss[.S*](Z|+HH[:mm]|-HH[:mm])</tt>, or returns INVALID.
+   */
+  private static long parseFast(String text) {
+    int length = text.length();
+    if (length < 20 || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != 'T' ||
+        text.charAt(13) != ':' || text.charAt(16) != ':') {
+      return INVALID;
+    }
+    int year = number(text, 0, 4);
+    int month = number(text, 5, 2);
+    int day = number(text, 8, 2);
+    int hour = number(text, 11, 2);
+    int minute = number(text, 14, 2);
+    int second = number(text, 17, 2);
+    if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) ||
+        hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+      return INVALID;
+    }
+
+    int position = 19;
+    int millis = 0;
+    if (text.charAt(position) == '.') {
+      position += 1;
+      int scale = 100;
+      int start = position;
+      while (position < length && isDigit(text.charAt(position))) {
+        millis += (text.charAt(position) - '0') * scale;
+        scale /= 10;
+        position += 1;
+      }
+      if (position == start) {
+        return INVALID;
+      }
+    }
+
+    if (position >= length) {
+      // No offset; the zone decides
+      return INVALID;
+    }
+    int offset;
+    char sign = text.charAt(position);
+    if (sign == 'Z' && position + 1 == length) {
+      offset = 0;
+    } else if (sign == '+' || sign == '-') {
+      int remaining = length - position - 1;
+      int offsetHours = number(text, position + 1, 2);
+      int offsetMinutes;
+      if (remaining == 2) {
+        offsetMinutes = 0;
+      } else if (remaining == 4) {
+        offsetMinutes = number(text, position + 3, 2);
+      } else if (remaining == 5 && text.charAt(position + 3) == ':') {
+        offsetMinutes = number(text, position + 4, 2);
+      } else {
+        return INVALID;
+      }
+      if (offsetHours < 0 || offsetHours > 23 || offsetMinutes < 0 || offsetMinutes > 59) {
+        return INVALID;
+      }
+      offset = (offsetHours * 60 + offsetMinutes) * MILLIS_PER_MINUTE;
+      if (sign == '-') {
+        offset = -offset;
+      }
+    } else {
+      return INVALID;
+    }
+
+    long days = daysFromCivil(year, month, day);
+    long local = days * MILLIS_PER_DAY + (long)hour * MILLIS_PER_HOUR + minute * MILLIS_PER_MINUTE + second * 1000 + millis;
+    return local - offset;
+  }
+
+  private static long daysFromCivil(int year, int month, int day) {
+    long y = month <= 2 ? year - 1 : year;
+    long era = (y >= 0 ? y : y - 399) / 400;
+    long yearOfEra = y - era * 400;
+    long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+    long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return era * 146097 + dayOfEra - 719468;
+  }
+
+  private static int daysInMonth(int year, int month) {
+    if (month == 2) {
+      boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+      return leap ? 29 : 28;
+    }
+    return (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
+  }
+
+  /** Returns the value of <tt>count</tt> digits, or -1 if one is not a digit. */
+  private static int number(String text, int start, int count) {
+    if (start + count > text.length()) {
+      return -1;
+    }
+    int value = 0;
+    for (int i = start; i < start + count; i++) {
+      char c = text.charAt(i);
+      if (!isDigit(c)) {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static void digits(char[] buffer, int start, int value, int count) {
+    for (int i = start + count - 1; i >= start; i--) {
+      buffer[i] = (char)('0' + value % 10);
+      value /= 10;
+    }
+  }
+
+  private static long floorDiv(long x, long y) {
+    long q = x / y;
+    return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+  }
+}
@@ -1,6 +1,11 @@
 package com.tempoiq.json;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
@@ -58,6 +63,20 @@ public class Json {
     return reader(timezone).withType(valueType).readValue(src);
   }
 
+  /**
+   *  Deserializes a value straight from a stream of JSON. The stream is left open.
+   *  @since 1.3.0
+   */
+  public static <T> T load(InputStream src, Class<?> valueType) throws IOException {
+    JsonParser parser = getObjectMapper().getFactory().createParser(src);
+    parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+    try {
+      return reader().withType(valueType).readValue(parser);
+    } finally {
+      parser.close();
+    }
+  }
+
   public static ObjectReader reader() {
     return getObjectMapper().reader();
   }
@@ -81,4 +100,19 @@ public class Json {
   public static String dumps(Object value, DateTimeZone timezone) throws JsonProcessingException {
     return writer(timezone).writeValueAsString(value);
   }
+
+  /**
+   *  Serializes a value straight into a stream as UTF-8 JSON.
+   *  The stream is flushed but left open.
+   *  @since 1.3.0
+   */
+  public static void dump(Object value, OutputStream out) throws IOException {
+    JsonGenerator generator = getObjectMapper().getFactory().createGenerator(out, JsonEncoding.UTF8);
+    generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    try {
+      writer().writeValue(generator, value);
+    } finally {
+      generator.close();
+    }
+  }
 }
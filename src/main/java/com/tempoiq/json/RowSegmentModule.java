@@ -1,15 +1,21 @@
 package com.tempoiq.json;
 
 import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.Version;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationContext;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.deser.std.StdScalarDeserializer;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import org.joda.time.DateTimeZone;
+import com.tempoiq.ColumnarRowSegment;
 import com.tempoiq.Row;
 import com.tempoiq.RowSegment;
 
@@ -17,37 +23,230 @@ public class RowSegmentModule extends SimpleModule {
 
   public RowSegmentModule() {
     addDeserializer(RowSegment.class, new RowSegmentDeserializer());
+    addDeserializer(ColumnarRowSegment.class, new ColumnarRowSegmentDeserializer());
   }
 
-  private static class RowSegmentDeserializer extends StdScalarDeserializer<RowSegment> {
-    public RowSegmentDeserializer() { super(RowSegment.class); }
+  /**
+   *  Reads a segment token by token.
+   *
+   *  <p>Rows are built as their tokens are read, without an intermediate JsonNode tree,
+   *  and the next_query object is copied token by token into its String form. Besides
+   *  the rows of the page, only the row being read is held in memory.
+   */
+  private static abstract class SegmentDeserializer<T extends RowSegment, R> extends StdScalarDeserializer<T> {
+    protected SegmentDeserializer(Class<T> klass) { super(klass); }
+
+    /** Reads the rows of the "data" array; the parser is on its START_ARRAY. */
+    protected abstract R readRows(JsonParser parser, DeserializationContext context) throws IOException;
+
+    /** Creates the segment; <tt>nextPage</tt> is null on the last page. */
+    protected abstract T newSegment(R rows, String nextPage);
 
     @Override
-    public RowSegment deserialize(JsonParser parser, DeserializationContext context) throws IOException, JsonProcessingException {
-      JsonNode root = parser.readValueAsTree();
-      JsonNode rowsNode = root.get("data");
-      JsonNode pageNode = root.get("next_page");
+    public T deserialize(JsonParser parser, DeserializationContext context) throws IOException, JsonProcessingException {
+      if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+        throw context.mappingException(RowSegment.class);
+      }
 
-      if(rowsNode == null) {
+      R data = null;
+      boolean paged = false;
+      String nextPage = null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        parser.nextToken();
+        if (field.equals("data")) {
+          if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+            throw context.mappingException("Expected an array for 'data' in RowSegment.");
+          }
+          data = readRows(parser, context);
+        } else if (field.equals("next_page")) {
+          paged = true;
+          nextPage = readNextQuery(parser);
+        } else {
+          parser.skipChildren();
+        }
+      }
+
+      if(data == null) {
         throw context.mappingException("Missing 'data' field in RowSegment.");
       }
+      if (paged && nextPage == null) {
+        throw context.mappingException("Missing 'next_query' field in RowSegment.");
+      }
+      return newSegment(data, nextPage);
+    }
+
+    /**
+     *  Reads a "t" field as epoch millis, without a DateTime. Strings are ISO-8601 and
+     *  numbers are epoch millis, as with the DateTime deserializer.
+     */
+    protected static long readTimestamp(JsonParser parser, DeserializationContext context, DateTimeZone timezone) throws IOException {
+      JsonToken token = parser.getCurrentToken();
+      if (token == JsonToken.VALUE_NUMBER_INT) {
+        return parser.getLongValue();
+      } else if (token == JsonToken.VALUE_STRING) {
+        String text = parser.getText().trim();
+        try {
+          return Iso8601.parse(text, timezone);
+        } catch (IllegalArgumentException e) {
+          throw context.mappingException("Invalid timestamp '" + text + "' in Row.");
+        }
+      }
+      throw context.mappingException("Expected a timestamp for 't' in Row.");
+    }
 
-      List<Row> data = Json.getObjectMapper()
-              .reader()
-              .withType(new TypeReference<List<Row>>() {})
-              .readValue(rowsNode);
+    private static String readNextQuery(JsonParser parser) throws IOException {
+      if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+        parser.skipChildren();
+        return null;
+      }
+      String nextPage = null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        parser.nextToken();
+        if (field.equals("next_query")) {
+          StringWriter writer = new StringWriter();
+          JsonGenerator generator = Json.getObjectMapper().getFactory().createGenerator(writer);
+          try {
+            generator.copyCurrentStructure(parser);
+          } finally {
+            generator.close();
+          }
+          nextPage = writer.toString();
+        } else {
+          parser.skipChildren();
+        }
+      }
+      return nextPage;
+    }
+  }
+
+  private static class RowSegmentDeserializer extends SegmentDeserializer<RowSegment, List<Row>> {
+    public RowSegmentDeserializer() { super(RowSegment.class); }
+
+    @Override
+    protected List<Row> readRows(JsonParser parser, DeserializationContext context) throws IOException {
+      DateTimeZone timezone = DateTimeZone.forTimeZone(context.getTimeZone());
+      List<Row> rows = new ArrayList<Row>();
+      while (parser.nextToken() == JsonToken.START_OBJECT) {
+        rows.add(readRow(parser, context, timezone));
+      }
+      return rows;
+    }
 
+    @Override
+    protected RowSegment newSegment(List<Row> rows, String nextPage) {
+      return nextPage == null ? new RowSegment(rows) : new RowSegment(rows, nextPage);
+    }
 
-      if (pageNode != null) {
-        JsonNode queryNode = pageNode.get("next_query");
-        if (queryNode == null) {
-          throw context.mappingException("Missing 'next_query' field in RowSegment.");
+    private static Row readRow(JsonParser parser, DeserializationContext context, DateTimeZone timezone) throws IOException {
+      long timestamp = 0;
+      boolean timestamped = false;
+      Map<String, Map<String, Number>> values = null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        parser.nextToken();
+        if (field.equals("t")) {
+          timestamp = readTimestamp(parser, context, timezone);
+          timestamped = true;
+        } else if (field.equals("data")) {
+          values = readValues(parser, context);
         } else {
-          String nextPage = Json.getObjectMapper().writeValueAsString(queryNode);
-          return new RowSegment(data, nextPage);
+          parser.skipChildren();
+        }
+      }
+      if (!timestamped || values == null) {
+        throw context.mappingException("Missing 't' or 'data' field in Row.");
+      }
+      return new Row(timestamp, timezone, values);
+    }
+
+    private static Map<String, Map<String, Number>> readValues(JsonParser parser, DeserializationContext context) throws IOException {
+      if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+        throw context.mappingException("Expected an object for 'data' in Row.");
+      }
+      Map<String, Map<String, Number>> devices = new HashMap<String, Map<String, Number>>();
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String device = parser.getCurrentName();
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+          throw context.mappingException("Expected an object for device '" + device + "' in Row.");
+        }
+        Map<String, Number> sensors = new HashMap<String, Number>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String sensor = parser.getCurrentName();
+          JsonToken token = parser.nextToken();
+          if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+            sensors.put(sensor, parser.getNumberValue());
+          } else if (token == JsonToken.VALUE_NULL) {
+            sensors.put(sensor, null);
+          } else {
+            throw context.mappingException("Expected a number for sensor '" + sensor + "' in Row.");
+          }
+        }
+        devices.put(device, sensors);
+      }
+      return devices;
+    }
+  }
+
+  /**
+   *  Reads rows straight into the columns of a ColumnarRowSegment; no Row, map or boxed
+   *  Number is created.
+   */
+  private static class ColumnarRowSegmentDeserializer extends SegmentDeserializer<ColumnarRowSegment, ColumnarRowSegment.Builder> {
+    public ColumnarRowSegmentDeserializer() { super(ColumnarRowSegment.class); }
+
+    @Override
+    protected ColumnarRowSegment.Builder readRows(JsonParser parser, DeserializationContext context) throws IOException {
+      DateTimeZone timezone = DateTimeZone.forTimeZone(context.getTimeZone());
+      ColumnarRowSegment.Builder builder = new ColumnarRowSegment.Builder(timezone);
+      while (parser.nextToken() == JsonToken.START_OBJECT) {
+        builder.addRow(0);
+        boolean timestamped = false;
+        boolean valued = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String field = parser.getCurrentName();
+          parser.nextToken();
+          if (field.equals("t")) {
+            builder.setTimestamp(readTimestamp(parser, context, timezone));
+            timestamped = true;
+          } else if (field.equals("data")) {
+            readValues(parser, context, builder);
+            valued = true;
+          } else {
+            parser.skipChildren();
+          }
+        }
+        if (!timestamped || !valued) {
+          throw context.mappingException("Missing 't' or 'data' field in Row.");
+        }
+      }
+      return builder;
+    }
+
+    @Override
+    protected ColumnarRowSegment newSegment(ColumnarRowSegment.Builder rows, String nextPage) {
+      return rows.build(nextPage == null ? "" : nextPage);
+    }
+
+    private static void readValues(JsonParser parser, DeserializationContext context, ColumnarRowSegment.Builder builder) throws IOException {
+      if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+        throw context.mappingException("Expected an object for 'data' in Row.");
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String device = parser.getCurrentName();
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+          throw context.mappingException("Expected an object for device '" + device + "' in Row.");
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String sensor = parser.getCurrentName();
+          JsonToken token = parser.nextToken();
+          if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+            builder.set(device, sensor, parser.getDoubleValue());
+          } else if (token != JsonToken.VALUE_NULL) {
+            throw context.mappingException("Expected a number for sensor '" + sensor + "' in Row.");
+          }
         }
-      } else {
-        return new RowSegment(data);
       }
     }
   }
@@ -24,7 +24,7 @@ public class WritableDataPointModule extends SimpleModule {
     public void serialize(WritableDataPoint value, JsonGenerator jgen, SerializerProvider provider) throws IOException, JsonProcessingException {
       jgen.writeStartObject();
       jgen.writeStringField("key", value.getSensor().getKey());
-      jgen.writeObjectField("t", value.getTimestamp());
+      WriteRequestModule.writeTimestamp(jgen, value.getTimestamp(), new char[Iso8601.MAX_LENGTH]);
       jgen.writeObjectField("v", value.getValue());
       jgen.writeEndObject();
     }
@@ -1,31 +1,253 @@
 package com.tempoiq.json;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.Version;
 import com.fasterxml.jackson.databind.*;
+import com.fasterxml.jackson.databind.deser.std.StdScalarDeserializer;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.databind.ser.std.StdScalarSerializer;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 
+import com.tempoiq.ColumnarWriteRequest;
+import com.tempoiq.DataPoint;
+import com.tempoiq.Device;
+import com.tempoiq.DeviceWriteRequest;
+import com.tempoiq.MultiDataPoint;
+import com.tempoiq.Sensor;
+import com.tempoiq.WritableDataPoint;
 import com.tempoiq.WriteRequest;
 
 
 public class WriteRequestModule extends SimpleModule {
   public WriteRequestModule() {
     addSerializer(WriteRequest.class, new WriteRequestSerializer());
+    addSerializer(ColumnarWriteRequest.class, new ColumnarWriteRequestSerializer());
+    addSerializer(DeviceWriteRequest.class, new DeviceWriteRequestSerializer());
+    addDeserializer(WriteRequest.class, new WriteRequestDeserializer());
   }
 
+  /**
+   *  Writes a WriteRequest in the /v2/write shape:
+   *  <pre>{"device": {"sensor": [{"t": ..., "v": ...}, ...], ...}, ...}</pre>
+   *
+   *  <p>Points are grouped in a single pass by chaining the index of each point to the
+   *  next point of the same device and sensor. Only one entry per stream is kept, so no
+   *  DataPoint is copied and the body is generated straight into the output.
+   */
   private static class WriteRequestSerializer extends StdScalarSerializer<WriteRequest> {
     public WriteRequestSerializer() { super(WriteRequest.class); }
 
     @Override
     public void serialize(WriteRequest value, JsonGenerator jgen, SerializerProvider provider) throws IOException, JsonProcessingException {
-      jgen.writeObject(value.iterator());
+      char[] buffer = new char[Iso8601.MAX_LENGTH];
+      List<WritableDataPoint> points = new ArrayList<WritableDataPoint>(value.size());
+      Map<String, Map<String, int[]>> streams = new LinkedHashMap<String, Map<String, int[]>>();
+      int[] next = new int[value.size()];
+      Arrays.fill(next, -1);
+
+      for (WritableDataPoint point : value) {
+        int index = points.size();
+        points.add(point);
+
+        Map<String, int[]> sensors = streams.get(point.getDevice().getKey());
+        if (sensors == null) {
+          sensors = new LinkedHashMap<String, int[]>();
+          streams.put(point.getDevice().getKey(), sensors);
+        }
+        int[] chain = sensors.get(point.getSensor().getKey());
+        if (chain == null) {
+          sensors.put(point.getSensor().getKey(), new int[] { index, index });
+        } else {
+          next[chain[1]] = index;
+          chain[1] = index;
+        }
+      }
+
+      jgen.writeStartObject();
+      for (Map.Entry<String, Map<String, int[]>> device : streams.entrySet()) {
+        jgen.writeObjectFieldStart(device.getKey());
+        for (Map.Entry<String, int[]> sensor : device.getValue().entrySet()) {
+          jgen.writeArrayFieldStart(sensor.getKey());
+          for (int i = sensor.getValue()[0]; i != -1; i = next[i]) {
+            WritableDataPoint point = points.get(i);
+            jgen.writeStartObject();
+            writeTimestamp(jgen, point.getTimestamp(), buffer);
+            provider.defaultSerializeField("v", point.getValue(), jgen);
+            jgen.writeEndObject();
+          }
+          jgen.writeEndArray();
+        }
+        jgen.writeEndObject();
+      }
+      jgen.writeEndObject();
+    }
+  }
+
+  /**
+   *  Writes a ColumnarWriteRequest in the same /v2/write shape as a WriteRequest.
+   *
+   *  <p>The per-stream chains are kept in primitive arrays and timestamps are printed
+   *  straight from epoch millis, so no object is created per point.
+   */
+  private static class ColumnarWriteRequestSerializer extends StdScalarSerializer<ColumnarWriteRequest> {
+    public ColumnarWriteRequestSerializer() { super(ColumnarWriteRequest.class); }
+
+    @Override
+    public void serialize(ColumnarWriteRequest value, JsonGenerator jgen, SerializerProvider provider) throws IOException, JsonProcessingException {
+      char[] buffer = new char[Iso8601.MAX_LENGTH];
+      int streamCount = value.getStreamCount();
+      int[] head = new int[streamCount];
+      int[] tail = new int[streamCount];
+      int[] next = new int[value.size()];
+      Arrays.fill(head, -1);
+
+      for (int i = 0; i < value.size(); i++) {
+        int stream = value.getStream(i);
+        if (head[stream] == -1) {
+          head[stream] = i;
+        } else {
+          next[tail[stream]] = i;
+        }
+        tail[stream] = i;
+        next[i] = -1;
+      }
+
+      // Streams are interned in order of appearance; group them by device
+      Map<String, List<Integer>> devices = new LinkedHashMap<String, List<Integer>>();
+      for (int stream = 0; stream < streamCount; stream++) {
+        if (head[stream] == -1) {
+          continue;
+        }
+        List<Integer> sensors = devices.get(value.getStreamDeviceKey(stream));
+        if (sensors == null) {
+          sensors = new ArrayList<Integer>();
+          devices.put(value.getStreamDeviceKey(stream), sensors);
+        }
+        sensors.add(stream);
+      }
+
+      jgen.writeStartObject();
+      for (Map.Entry<String, List<Integer>> device : devices.entrySet()) {
+        jgen.writeObjectFieldStart(device.getKey());
+        for (int stream : device.getValue()) {
+          jgen.writeArrayFieldStart(value.getStreamSensorKey(stream));
+          for (int i = head[stream]; i != -1; i = next[i]) {
+            jgen.writeStartObject();
+            jgen.writeFieldName("t");
+            jgen.writeString(buffer, 0, Iso8601.print(value.getTimestamp(i), DateTimeZone.UTC, buffer));
+            jgen.writeNumberField("v", value.getValue(i));
+            jgen.writeEndObject();
+          }
+          jgen.writeEndArray();
+        }
+        jgen.writeEndObject();
+      }
+      jgen.writeEndObject();
+    }
+  }
+
+  /**
+   *  Writes the MultiDataPoints of one Device in the same /v2/write shape as a WriteRequest.
+   *
+   *  <p>The distinct sensor keys are collected first, then each sensor's values are
+   *  written with one pass over the MultiDataPoints. Values are read straight from the
+   *  MultiDataPoint maps, so nothing is allocated per value.
+   */
+  private static class DeviceWriteRequestSerializer extends StdScalarSerializer<DeviceWriteRequest> {
+    public DeviceWriteRequestSerializer() { super(DeviceWriteRequest.class); }
+
+    @Override
+    public void serialize(DeviceWriteRequest value, JsonGenerator jgen, SerializerProvider provider) throws IOException, JsonProcessingException {
+      char[] buffer = new char[Iso8601.MAX_LENGTH];
+      Set<String> sensors = new LinkedHashSet<String>();
+      for (MultiDataPoint point : value.getData()) {
+        sensors.addAll(point.getData().keySet());
+      }
+
+      jgen.writeStartObject();
+      if (!sensors.isEmpty()) {
+        jgen.writeObjectFieldStart(value.getDevice().getKey());
+        for (String sensor : sensors) {
+          jgen.writeArrayFieldStart(sensor);
+          for (MultiDataPoint point : value.getData()) {
+            Number number = point.getData().get(sensor);
+            if (number == null) {
+              continue;
+            }
+            jgen.writeStartObject();
+            writeTimestamp(jgen, point.getTimestamp(), buffer);
+            provider.defaultSerializeField("v", number, jgen);
+            jgen.writeEndObject();
+          }
+          jgen.writeEndArray();
+        }
+        jgen.writeEndObject();
+      }
+      jgen.writeEndObject();
+    }
+  }
+
+  /**
+   *  Reads a /v2/write body back into a WriteRequest, as when a spooled write is
+   *  replayed. Timestamps keep their instant but are read in UTC.
+   */
+  private static class WriteRequestDeserializer extends StdScalarDeserializer<WriteRequest> {
+    public WriteRequestDeserializer() { super(WriteRequest.class); }
+
+    @Override
+    public WriteRequest deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+      JsonNode node = parser.readValueAsTree();
+      WriteRequest request = new WriteRequest();
+      Iterator<Map.Entry<String, JsonNode>> devices = node.fields();
+      while (devices.hasNext()) {
+        Map.Entry<String, JsonNode> device = devices.next();
+        Iterator<Map.Entry<String, JsonNode>> sensors = device.getValue().fields();
+        while (sensors.hasNext()) {
+          Map.Entry<String, JsonNode> sensor = sensors.next();
+          List<DataPoint> points = new ArrayList<DataPoint>(sensor.getValue().size());
+          for (JsonNode point : sensor.getValue()) {
+            JsonNode t = point.get("t");
+            JsonNode v = point.get("v");
+            if (t == null || v == null || !t.isTextual() || !v.isNumber()) {
+              throw context.mappingException("Expected 't' and 'v' fields in a DataPoint.");
+            }
+            long timestamp;
+            try {
+              timestamp = Iso8601.parse(t.asText(), DateTimeZone.UTC);
+            } catch (IllegalArgumentException e) {
+              throw context.mappingException("Invalid timestamp '" + t.asText() + "' in DataPoint.");
+            }
+            points.add(new DataPoint(timestamp, DateTimeZone.UTC, v.numberValue()));
+          }
+          request.add(new Device(device.getKey()), new Sensor(sensor.getKey()), points);
+        }
+      }
+      return request;
     }
   }
 
+  /**
+   *  Writes a "t" field with the timestamp's own offset, as the DateTime serializer
+   *  would, but without going through a formatter.
+   */
+  static void writeTimestamp(JsonGenerator jgen, DateTime timestamp, char[] buffer) throws IOException {
+    jgen.writeFieldName("t");
+    jgen.writeString(buffer, 0, Iso8601.print(timestamp.getMillis(), timestamp.getZone(), buffer));
+  }
+
   @Override
   public String getModuleName() {
     return "write-request";
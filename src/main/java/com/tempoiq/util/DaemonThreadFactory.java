@@ -0,0 +1,27 @@
+package com.tempoiq.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ *  ThreadFactory for the library's background workers.
+ *
+ *  <p>Threads are named after their owner and marked as daemons so that an
+ *  unclosed Client never keeps the JVM alive.
+ *  @since 1.3.0
+ */
+public final class DaemonThreadFactory implements ThreadFactory {
+  private final String prefix;
+  private final AtomicInteger count = new AtomicInteger(0);
+
+  public DaemonThreadFactory(String name) {
+    this.prefix = String.format("tempoiq-%s-", Preconditions.checkNotNull(name));
+  }
+
+  public Thread newThread(Runnable runnable) {
+    Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  }
+}
@@ -0,0 +1,186 @@
+package com.tempoiq;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.*;
+import org.apache.http.client.HttpClient;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+
+public class BatchWriterTest {
+  private static final DateTimeZone timezone = DateTimeZone.UTC;
+  private static final Device device = new Device("device1");
+  private static final Sensor sensor = new Sensor("sensor1");
+  private static final String json = "{\"device1\": {\"device_state\": \"existing\", \"message\": null, \"success\": true}}";
+
+  private static DataPoint point(int i) {
+    return new DataPoint(new DateTime(2012, 1, 1, 0, 0, i, 0, timezone), i);
+  }
+
+  @Test
+  public void testFlushesOnMaxPoints() throws Exception {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(200, json));
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .batching(2, 1024 * 1024, 60000)
+      .build();
+    client.setHttpClient(mockClient);
+
+    BatchWriter writer = client.getBatchWriter();
+    WriteFuture first = writer.write(device, sensor, point(1));
+    WriteFuture second = writer.write(device, sensor, point(2));
+
+    Result<WriteResponse> result = second.get(5, TimeUnit.SECONDS);
+    assertEquals(State.SUCCESS, result.getState());
+    assertTrue(first.isDone());
+    verify(mockClient, times(1)).execute(any(HttpHost.class), any(HttpRequest.class), any(HttpContext.class));
+    writer.close();
+  }
+
+  @Test
+  public void testFlushesOnLinger() throws Exception {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(200, json));
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .batching(1000, 1024 * 1024, 10)
+      .build();
+    client.setHttpClient(mockClient);
+
+    WriteFuture future = client.getBatchWriter().write(device, sensor, point(1));
+    Result<WriteResponse> result = future.get(5, TimeUnit.SECONDS);
+    assertTrue(result.getValue().wasSuccessful());
+    client.getBatchWriter().close();
+  }
+
+  @Test
+  public void testRequestSpanningBatches() throws Exception {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(200, json));
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .batching(2, 1024 * 1024, 60000)
+      .build();
+    client.setHttpClient(mockClient);
+
+    WriteRequest request = new WriteRequest();
+    for (int i = 0; i < 5; i++) {
+      request.add(device, sensor, point(i));
+    }
+    BatchWriter writer = client.getBatchWriter();
+    WriteFuture future = writer.write(request);
+    writer.flush();
+
+    Result<WriteResponse> result = future.get(5, TimeUnit.SECONDS);
+    assertEquals(State.SUCCESS, result.getState());
+    verify(mockClient, times(3)).execute(any(HttpHost.class), any(HttpRequest.class), any(HttpContext.class));
+    writer.close();
+  }
+
+  @Test
+  public void testFailedBatchOfSpanningRequestIsReported() throws Exception {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(503, "unavailable"), Util.getResponse(200, json));
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .batching(1, 1024 * 1024, 60000)
+      .build();
+    client.setHttpClient(mockClient);
+
+    WriteRequest request = new WriteRequest()
+      .add(device, sensor, point(0))
+      .add(device, sensor, point(1));
+    BatchWriter writer = client.getBatchWriter();
+    WriteFuture future = writer.write(request);
+    writer.flush();
+
+    Result<WriteResponse> result = future.get(5, TimeUnit.SECONDS);
+    assertEquals(State.PARTIAL_SUCCESS, result.getState());
+    assertTrue(result.getValue().getFailures().containsKey(device.getKey()));
+    writer.close();
+  }
+
+  @Test
+  public void testFailedBatchMarksDevices() throws Exception {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(503, "unavailable"));
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .batching(1, 1024 * 1024, 60000)
+      .build();
+    client.setHttpClient(mockClient);
+
+    WriteFuture future = client.getBatchWriter().write(device, sensor, point(1));
+    Result<WriteResponse> result = future.get(5, TimeUnit.SECONDS);
+    assertEquals(State.FAILURE, result.getState());
+    assertEquals(503, result.getCode());
+  }
+
+  @Test
+  public void testLanesKeepDeviceOrder() throws Exception {
+    final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+    final AtomicInteger inFlight = new AtomicInteger(0);
+    final AtomicInteger maxInFlight = new AtomicInteger(0);
+    HttpClient mockClient = mock(HttpClient.class);
+    when(mockClient.execute(any(HttpHost.class), any(HttpRequest.class), any(HttpContext.class))).thenAnswer(new Answer<HttpResponse>() {
+      public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+        int current = inFlight.incrementAndGet();
+        synchronized(maxInFlight) {
+          maxInFlight.set(Math.max(maxInFlight.get(), current));
+        }
+        HttpEntityEnclosingRequest request = (HttpEntityEnclosingRequest)invocation.getArguments()[1];
+        bodies.add(EntityUtils.toString(request.getEntity()));
+        Thread.sleep(5);
+        inFlight.decrementAndGet();
+        return Util.getResponse(200, json);
+      }
+    });
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .batching(1, 1024 * 1024, 60000)
+      .batchLanes(4)
+      .build();
+    client.setHttpClient(mockClient);
+
+    BatchWriter writer = client.getBatchWriter();
+    for (int i = 0; i < 10; i++) {
+      for (int d = 0; d < 8; d++) {
+        writer.write(new Device("device" + d), sensor, point(i));
+      }
+    }
+    writer.flush().get(5, TimeUnit.SECONDS);
+    writer.close();
+
+    assertEquals(80, bodies.size());
+    assertTrue(maxInFlight.get() > 1);
+    assertTrue(maxInFlight.get() <= 4);
+    for (int d = 0; d < 8; d++) {
+      String prefix = "{\"device" + d + "\":";
+      int expected = 0;
+      for (String body : bodies) {
+        if (body.startsWith(prefix)) {
+          assertTrue(body.contains("\"v\":" + expected + "}"));
+          expected += 1;
+        }
+      }
+      assertEquals(10, expected);
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testRejectsWritesAfterClose() throws IOException {
+    Client client = Util.getClient(Util.getResponse(200, json));
+    BatchWriter writer = client.getBatchWriter();
+    writer.close();
+    writer.write(device, sensor, point(1));
+  }
+}
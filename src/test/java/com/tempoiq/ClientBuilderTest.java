@@ -20,4 +20,17 @@ public class ClientBuilderTest {
     assertEquals(443, client.getHost().getPort());
     assertEquals("https", client.getScheme());
   }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsTooManyRetries() {
+    new ClientBuilder().retryFailedDevices(Client.MAX_WRITE_RETRIES + 1, 0);
+  }
+
+  @Test
+  public void testRetryBackoffIsCapped() {
+    assertEquals(100, Client.retryBackoffMillis(100, 0));
+    assertEquals(400, Client.retryBackoffMillis(100, 2));
+    assertEquals(Client.MAX_RETRY_BACKOFF_MILLIS, Client.retryBackoffMillis(100, 70));
+    assertEquals(0, Client.retryBackoffMillis(0, 70));
+  }
 }
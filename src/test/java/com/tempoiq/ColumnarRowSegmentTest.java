@@ -0,0 +1,103 @@
+package com.tempoiq;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+public class ColumnarRowSegmentTest {
+  private static final DateTimeZone timezone = DateTimeZone.UTC;
+  private static final DateTime first = new DateTime(2012, 1, 1, 0, 0, 0, 0, timezone);
+  private static final DateTime second = new DateTime(2012, 1, 1, 0, 1, 0, 0, timezone);
+
+  private static ColumnarRowSegment segment() {
+    return new ColumnarRowSegment.Builder(timezone)
+      .addRow(first.getMillis())
+      .set("device1", "sensor1", 1.5)
+      .set("device2", "sensor1", 2.5)
+      .addRow(second.getMillis())
+      .set("device1", "sensor1", 3.5)
+      .build("next");
+  }
+
+  @Test
+  public void testRowViews() {
+    ColumnarRowSegment segment = segment();
+    assertEquals(2, segment.getData().size());
+    assertEquals("next", segment.getNext());
+
+    Row row = segment.getData().get(0);
+    assertEquals(first, row.getTimestamp());
+    assertEquals(1.5, row.getValue("device1", "sensor1"));
+    assertEquals(2.5, row.getValue("device2", "sensor1"));
+    assertTrue(row.hasSensor("device2", "sensor1"));
+
+    Row last = segment.getData().get(1);
+    assertEquals(second, last.getTimestamp());
+    assertEquals(3.5, last.getValue("device1", "sensor1"));
+    assertFalse(last.hasSensor("device2", "sensor1"));
+    assertNull(last.getValue("device2", "sensor1"));
+    assertNull(last.getValue("device3", "sensor1"));
+  }
+
+  @Test
+  public void testGetDouble() {
+    Row row = segment().getData().get(1);
+    assertEquals(3.5, row.getDouble("device1", "sensor1"), 0.0);
+    assertTrue(Double.isNaN(row.getDouble("device2", "sensor1")));
+    assertTrue(Double.isNaN(row.getDouble("device3", "sensor1")));
+  }
+
+  @Test
+  public void testGetValues() {
+    Map<String, Number> sensors = new HashMap<String, Number>();
+    sensors.put("sensor1", 3.5);
+    Map<String, Map<String, Number>> expected = new HashMap<String, Map<String, Number>>();
+    expected.put("device1", sensors);
+
+    assertEquals(expected, segment().getData().get(1).getValues());
+  }
+
+  @Test
+  public void testColumns() {
+    ColumnarRowSegment segment = segment();
+    assertEquals(2, segment.size());
+    assertEquals(2, segment.getColumnCount());
+    int column = segment.getColumn("device2", "sensor1");
+    assertEquals("device2", segment.getColumnDeviceKey(column));
+    assertEquals("sensor1", segment.getColumnSensorKey(column));
+    assertTrue(segment.isPresent(column, 0));
+    assertFalse(segment.isPresent(column, 1));
+    assertEquals(2.5, segment.getDouble(column, 0), 0.0);
+    assertEquals(-1, segment.getColumn("device2", "sensor2"));
+    assertEquals(second.getMillis(), segment.getTimestamp(1));
+  }
+
+  @Test
+  public void testGrowsColumns() {
+    ColumnarRowSegment.Builder builder = new ColumnarRowSegment.Builder(timezone);
+    for (int i = 0; i < 1000; i++) {
+      builder.addRow(i);
+      if (i % 3 == 0) {
+        builder.set("device1", "sensor1", i);
+      }
+    }
+    ColumnarRowSegment segment = builder.build("");
+    assertEquals(1000, segment.getData().size());
+    int i = 0;
+    for (Row row : segment) {
+      assertEquals(i % 3 == 0, row.hasSensor("device1", "sensor1"));
+      i++;
+    }
+    assertEquals(999.0, segment.getData().get(999).getValue("device1", "sensor1"));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testSetBeforeRow() {
+    new ColumnarRowSegment.Builder(timezone).set("device1", "sensor1", 1.0);
+  }
+}
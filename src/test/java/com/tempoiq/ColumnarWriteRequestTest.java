@@ -0,0 +1,51 @@
+package com.tempoiq;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+public class ColumnarWriteRequestTest {
+  private static final DateTimeZone timezone = DateTimeZone.UTC;
+
+  @Test
+  public void testInternsStreams() {
+    ColumnarWriteRequest request = new ColumnarWriteRequest()
+      .add("device1", "sensor1", 1000L, 1.0)
+      .add("device1", "sensor2", 1000L, 2.0)
+      .add("device1", "sensor1", 2000L, 3.0);
+
+    assertEquals(3, request.size());
+    assertEquals(2, request.getStreamCount());
+    assertEquals(request.getStream(0), request.getStream(2));
+    assertEquals("sensor2", request.getStreamSensorKey(request.getStream(1)));
+  }
+
+  @Test
+  public void testGrows() {
+    ColumnarWriteRequest request = new ColumnarWriteRequest(0);
+    for (int i = 0; i < 1000; i++) {
+      request.add("device1", "sensor1", i, i);
+    }
+    assertEquals(1000, request.size());
+    assertEquals(999L, request.getTimestamp(999));
+    assertEquals(999.0, request.getValue(999), 0.0);
+  }
+
+  @Test
+  public void testToWriteRequest() {
+    DateTime timestamp = new DateTime(2012, 1, 1, 0, 0, 0, 0, timezone);
+    ColumnarWriteRequest request = new ColumnarWriteRequest()
+      .add("device1", "sensor1", timestamp.getMillis(), 12.34);
+
+    WriteRequest expected = new WriteRequest()
+      .add(new Device("device1"), new Sensor("sensor1"), new DataPoint(timestamp, 12.34));
+    assertEquals(expected, request.toWriteRequest());
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testIndexOutOfBounds() {
+    new ColumnarWriteRequest().add("device1", "sensor1", 1000L, 1.0).getValue(1);
+  }
+}
@@ -1,13 +1,21 @@
 package com.tempoiq;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.http.*;
+import org.apache.http.client.HttpClient;
+import org.apache.http.protocol.HttpContext;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.junit.*;
 import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
 
 public class DataPointReadTest {
   private static final DateTimeZone timezone = DateTimeZone.UTC;
@@ -80,4 +88,208 @@ public class DataPointReadTest {
       assertEquals(1.23, dp.getValue());
     }
   }
+
+  @Test
+  public void testPrefetchedPageReads() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(200, json2), Util.getResponse(200, json3));
+    Client client = Util.getClient(mockClient);
+    DateTime start = new DateTime(2012, 1, 1, 0, 0, 0, 0, timezone);
+    DateTime stop = new DateTime(2012, 3, 1, 0, 0, 0, 0, timezone);
+
+    Selection sel = new Selection().
+      addSelector(Selector.Type.DEVICES, Selector.key(device.getKey()));
+    DataPointRowCursor cursor = client.read(sel, start, stop).withPrefetch(2);
+    Iterator<Row> rows = cursor.iterator();
+    assertTrue(rows.hasNext());
+    assertEquals(1.23, rows.next().getValue(device.getKey(), "sensor1"));
+    assertTrue(rows.hasNext());
+    assertEquals(2.23, rows.next().getValue(device.getKey(), "sensor1"));
+    assertFalse(rows.hasNext());
+  }
+
+  @Test
+  public void testColumnarPageReads() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(200, json2), Util.getResponse(200, json3));
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .columnarRows(true)
+      .build();
+    client.setHttpClient(mockClient);
+    DateTime start = new DateTime(2012, 1, 1, 0, 0, 0, 0, timezone);
+    DateTime stop = new DateTime(2012, 3, 1, 0, 0, 0, 0, timezone);
+
+    Selection sel = new Selection().
+      addSelector(Selector.Type.DEVICES, Selector.key(device.getKey()));
+    DataPointRowCursor cursor = client.read(sel, start, stop);
+    assertTrue(cursor.getFirst() instanceof ColumnarRowSegment);
+    Iterator<DataPoint> points = cursor.pointsForStream(device.getKey(), "sensor2").iterator();
+    assertTrue(points.hasNext());
+    assertEquals(1.677, points.next().getValue());
+    assertTrue(points.hasNext());
+    assertEquals(2.677, points.next().getValue());
+    assertFalse(points.hasNext());
+  }
+
+  @Test
+  public void testForEachDouble() throws IOException {
+    for (boolean columnar : new boolean[] { false, true }) {
+      HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(200, json2), Util.getResponse(200, json3));
+      Client client = new ClientBuilder()
+        .credentials(new Credentials("key", "secret"))
+        .columnarRows(columnar)
+        .build();
+      client.setHttpClient(mockClient);
+      DateTime start = new DateTime(2012, 1, 1, 0, 0, 0, 0, timezone);
+      DateTime stop = new DateTime(2012, 3, 1, 0, 0, 0, 0, timezone);
+
+      Selection sel = new Selection().
+        addSelector(Selector.Type.DEVICES, Selector.key(device.getKey()));
+      final List<String> seen = new ArrayList<String>();
+      client.read(sel, start, stop).pointsForStream(device.getKey(), "sensor2").forEachDouble(new DoublePointConsumer() {
+        public void accept(long timestamp, double value) {
+          seen.add(timestamp + "=" + value);
+        }
+      });
+      assertEquals(2, seen.size());
+      assertEquals(new DateTime(2012, 1, 1, 1, 0, 0, 0, timezone).getMillis() + "=1.677", seen.get(0));
+      assertEquals(new DateTime(2012, 2, 1, 1, 0, 0, 0, timezone).getMillis() + "=2.677", seen.get(1));
+    }
+  }
+
+  @Test
+  public void testPointsByStreamIsLazy() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(200, json2), Util.getResponse(200, json3));
+    Client client = Util.getClient(mockClient);
+    DateTime start = new DateTime(2012, 1, 1, 0, 0, 0, 0, timezone);
+    DateTime stop = new DateTime(2012, 3, 1, 0, 0, 0, 0, timezone);
+
+    Selection sel = new Selection().
+      addSelector(Selector.Type.DEVICES, Selector.key(device.getKey()));
+    Map<String, Map<String, DataPointCursor>> streams = client.read(sel, start, stop).pointsByStream();
+    verify(mockClient, times(2)).execute(any(HttpHost.class), any(HttpRequest.class), any(HttpContext.class));
+
+    assertEquals(1, streams.size());
+    assertEquals(2, streams.get(device.getKey()).size());
+    List<Number> values = new ArrayList<Number>();
+    for (DataPoint point : streams.get(device.getKey()).get("sensor2")) {
+      values.add(point.getValue());
+    }
+    assertEquals(Arrays.<Number>asList(1.677, 2.677), values);
+    // The stream pages through the read again
+    verify(mockClient, times(3)).execute(any(HttpHost.class), any(HttpRequest.class), any(HttpContext.class));
+  }
+
+  @Test
+  public void testBufferPointsByStreamReadsOnce() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(200, json2), Util.getResponse(200, json3));
+    Client client = Util.getClient(mockClient);
+    DateTime start = new DateTime(2012, 1, 1, 0, 0, 0, 0, timezone);
+    DateTime stop = new DateTime(2012, 3, 1, 0, 0, 0, 0, timezone);
+
+    Selection sel = new Selection().
+      addSelector(Selector.Type.DEVICES, Selector.key(device.getKey()));
+    Map<String, Map<String, DataPointCursor>> streams = client.read(sel, start, stop).bufferPointsByStream(100);
+    Iterator<DataPoint> points = streams.get(device.getKey()).get("sensor2").iterator();
+    assertEquals(1.677, points.next().getValue());
+    assertEquals(2.677, points.next().getValue());
+    assertFalse(points.hasNext());
+    verify(mockClient, times(2)).execute(any(HttpHost.class), any(HttpRequest.class), any(HttpContext.class));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testBufferPointsByStreamIsBounded() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(200, json2), Util.getResponse(200, json3));
+    Client client = Util.getClient(mockClient);
+    Selection sel = new Selection().
+      addSelector(Selector.Type.DEVICES, Selector.key(device.getKey()));
+    client.read(sel, new DateTime(2012, 1, 1, 0, 0, 0, 0, timezone), new DateTime(2012, 3, 1, 0, 0, 0, 0, timezone))
+      .bufferPointsByStream(3);
+  }
+
+  @Test
+  public void testForEachPoint() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(200, json2), Util.getResponse(200, json3));
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .columnarRows(true)
+      .build();
+    client.setHttpClient(mockClient);
+    DateTime start = new DateTime(2012, 1, 1, 0, 0, 0, 0, timezone);
+    DateTime stop = new DateTime(2012, 3, 1, 0, 0, 0, 0, timezone);
+
+    Selection sel = new Selection().
+      addSelector(Selector.Type.DEVICES, Selector.key(device.getKey()));
+    final List<String> seen = new ArrayList<String>();
+    client.read(sel, start, stop).forEachPoint(new DataPointConsumer() {
+      public void accept(String deviceKey, String sensorKey, DataPoint datapoint) {
+        seen.add(deviceKey + "." + sensorKey + "=" + datapoint.getValue());
+      }
+    });
+    assertEquals(4, seen.size());
+    assertTrue(seen.contains("device1.sensor1=1.23"));
+    assertTrue(seen.contains("device1.sensor2=2.677"));
+    verify(mockClient, times(2)).execute(any(HttpHost.class), any(HttpRequest.class), any(HttpContext.class));
+  }
+
+  @Test
+  public void testCachedRereads() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(200, json2), Util.getResponse(200, json3));
+    Client client = Util.getClient(mockClient);
+    DateTime start = new DateTime(2012, 1, 1, 0, 0, 0, 0, timezone);
+    DateTime stop = new DateTime(2012, 3, 1, 0, 0, 0, 0, timezone);
+
+    Selection sel = new Selection().
+      addSelector(Selector.Type.DEVICES, Selector.key(device.getKey()));
+    DataPointRowCursor cursor = client.read(sel, start, stop).cache(1024 * 1024);
+    assertEquals(1, cursor.devicesForCursor().size());
+    assertEquals(2, cursor.streamsForDevice(device.getKey()).size());
+    Iterator<DataPoint> points = cursor.pointsForStream(device.getKey(), "sensor1").iterator();
+    assertTrue(points.hasNext());
+    assertEquals(1.23, points.next().getValue());
+    assertTrue(points.hasNext());
+    assertEquals(2.23, points.next().getValue());
+    assertFalse(points.hasNext());
+    verify(mockClient, times(2)).execute(any(HttpHost.class), any(HttpRequest.class), any(HttpContext.class));
+  }
+
+  @Test
+  public void testForEachParallel() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(200, json2), Util.getResponse(200, json3));
+    Client client = Util.getClient(mockClient);
+    DateTime start = new DateTime(2012, 1, 1, 0, 0, 0, 0, timezone);
+    DateTime stop = new DateTime(2012, 3, 1, 0, 0, 0, 0, timezone);
+
+    Selection sel = new Selection().
+      addSelector(Selector.Type.DEVICES, Selector.key(device.getKey()));
+    final List<Number> values = Collections.synchronizedList(new ArrayList<Number>());
+    client.read(sel, start, stop).pointsForStream(device.getKey(), "sensor2").forEachParallel(new CursorConsumer<DataPoint>() {
+      public void accept(DataPoint point) {
+        values.add(point.getValue());
+      }
+    }, 2);
+    assertEquals(2, values.size());
+    assertTrue(values.contains(1.677));
+    assertTrue(values.contains(2.677));
+  }
+
+  @Test
+  public void testForEachParallelFailure() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(200, json2), Util.getResponse(200, json3));
+    Client client = Util.getClient(mockClient);
+    DateTime start = new DateTime(2012, 1, 1, 0, 0, 0, 0, timezone);
+    DateTime stop = new DateTime(2012, 3, 1, 0, 0, 0, 0, timezone);
+
+    Selection sel = new Selection().
+      addSelector(Selector.Type.DEVICES, Selector.key(device.getKey()));
+    try {
+      client.read(sel, start, stop).forEachParallel(new CursorConsumer<Row>() {
+        public void accept(Row row) {
+          throw new IllegalStateException("consumer failed");
+        }
+      }, 2);
+      fail("Expected the consumer's exception");
+    } catch (IllegalStateException e) {
+      assertEquals("consumer failed", e.getMessage());
+    }
+  }
 }
@@ -0,0 +1,100 @@
+package com.tempoiq;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Period;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+public class InterpolatorTest {
+  private static final DateTimeZone timezone = DateTimeZone.UTC;
+  private static final DateTime start = new DateTime(2012, 1, 1, 0, 0, 0, 0, timezone);
+  private static final DateTime stop = start.plusMinutes(40);
+
+  /** 1.0 at 0 minutes, 2.0 at 10 and 4.0 at 30. */
+  private static Cursor<DataPoint> points() {
+    final List<DataPoint> points = Arrays.asList(
+      new DataPoint(start, 1.0),
+      new DataPoint(start.plusMinutes(10), 2.0),
+      new DataPoint(start.plusMinutes(30), 4.0));
+    return new Cursor<DataPoint>() {
+      public Iterator<DataPoint> iterator() { return points.iterator(); }
+    };
+  }
+
+  private static List<Double> values(Cursor<DataPoint> cursor, List<DateTime> timestamps) {
+    List<Double> values = new ArrayList<Double>();
+    for (DataPoint point : cursor) {
+      timestamps.add(point.getTimestamp());
+      values.add(point.getValue().doubleValue());
+    }
+    return values;
+  }
+
+  @Test
+  public void testZeroOrderHold() {
+    Interpolator interpolator = new Interpolator(Interpolation.zoh(Period.minutes(5)), start, stop);
+    List<DateTime> timestamps = new ArrayList<DateTime>();
+    assertEquals(Arrays.asList(1.0, 1.0, 2.0, 2.0, 2.0, 2.0, 4.0, 4.0), values(interpolator.apply(points()), timestamps));
+    assertEquals(start, timestamps.get(0));
+    assertEquals(start.plusMinutes(35), timestamps.get(7));
+  }
+
+  @Test
+  public void testLinear() {
+    Interpolator interpolator = new Interpolator(Interpolation.linear(Period.minutes(5)), start, stop);
+    List<DateTime> timestamps = new ArrayList<DateTime>();
+    assertEquals(Arrays.asList(1.0, 1.5, 2.0, 2.5, 3.0, 3.5, 4.0), values(interpolator.apply(points()), timestamps));
+    assertEquals(start.plusMinutes(30), timestamps.get(6));
+  }
+
+  @Test
+  public void testGridBeforeFirstPoint() {
+    Interpolator interpolator = new Interpolator(Interpolation.linear(Period.minutes(4)), start.minusMinutes(8), start.plusMinutes(12));
+    List<DateTime> timestamps = new ArrayList<DateTime>();
+    List<Double> values = values(interpolator.apply(points()), timestamps);
+    assertEquals(Arrays.asList(start, start.plusMinutes(4), start.plusMinutes(8)), timestamps);
+    assertEquals(1.8, values.get(2), 1e-9);
+  }
+
+  @Test
+  public void testRows() {
+    List<Row> rows = new ArrayList<Row>();
+    for (int minutes = 0; minutes <= 30; minutes += 10) {
+      Map<String, Number> sensors = new HashMap<String, Number>();
+      sensors.put("sensor1", minutes);
+      if (minutes % 30 == 0) {
+        sensors.put("sensor2", -minutes);
+      }
+      Map<String, Map<String, Number>> values = new HashMap<String, Map<String, Number>>();
+      values.put("device1", sensors);
+      rows.add(new Row(start.plusMinutes(minutes), values));
+    }
+
+    final Map<String, List<Double>> streams = new HashMap<String, List<Double>>();
+    Interpolator interpolator = new Interpolator(Interpolation.linear(Period.minutes(15)), start, stop);
+    interpolator.forEachPoint(rows, new DataPointConsumer() {
+      public void accept(String deviceKey, String sensorKey, DataPoint datapoint) {
+        if (!streams.containsKey(sensorKey)) {
+          streams.put(sensorKey, new ArrayList<Double>());
+        }
+        streams.get(sensorKey).add(datapoint.getValue().doubleValue());
+      }
+    });
+    assertEquals(Arrays.asList(0.0, 15.0, 30.0), streams.get("sensor1"));
+    assertEquals(Arrays.asList(0.0, -15.0, -30.0), streams.get("sensor2"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsEmptyPeriod() {
+    new Interpolator(Interpolation.zoh(Period.ZERO), start, stop);
+  }
+}
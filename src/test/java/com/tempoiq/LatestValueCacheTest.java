@@ -0,0 +1,123 @@
+package com.tempoiq;
+
+import java.io.IOException;
+
+import org.apache.http.*;
+import org.apache.http.client.HttpClient;
+import org.apache.http.protocol.HttpContext;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+
+public class LatestValueCacheTest {
+  private static final DateTimeZone timezone = DateTimeZone.UTC;
+  private static final Device device = new Device("device1");
+  private static final Selection selection = new Selection().
+    addSelector(Selector.Type.DEVICES, Selector.key(device.getKey()));
+  private static final String latest = "{" +
+    "\"data\":[" +
+      "{\"t\":\"2012-01-01T01:00:00.000Z\",\"data\":{" +
+        "\"device1\":{" +
+          "\"sensor1\":1.23}}}," +
+      "{\"t\":\"2012-01-01T02:00:00.000Z\",\"data\":{" +
+        "\"device1\":{" +
+          "\"sensor2\":1.677}}}]}";
+  private static final String written = "{\"device1\": {\"device_state\": \"existing\", \"message\": null, \"success\": true}}";
+
+  private static Client client(HttpClient mockClient, long maxAgeMillis) {
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .latestValueCache(new LatestValueCache(maxAgeMillis))
+      .build();
+    client.setHttpClient(mockClient);
+    return client;
+  }
+
+  private static void verifyRequests(HttpClient mockClient, int count) throws IOException {
+    verify(mockClient, times(count)).execute(any(HttpHost.class), any(HttpRequest.class), any(HttpContext.class));
+  }
+
+  @Test
+  public void testAnswersFromMemory() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(200, latest));
+    Client client = client(mockClient, 60 * 1000);
+
+    for (int i = 0; i < 3; i++) {
+      DataPointRowCursor cursor = client.latest(selection);
+      Row first = cursor.getFirst().getData().get(0);
+      assertEquals(new DateTime(2012, 1, 1, 1, 0, 0, 0, timezone), first.getTimestamp());
+      assertEquals(1.23, first.getValue(device.getKey(), "sensor1"));
+      assertEquals(2, cursor.getFirst().getData().size());
+    }
+    verifyRequests(mockClient, 1);
+  }
+
+  @Test
+  public void testWritesThrough() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(200, latest), Util.getResponse(200, written));
+    Client client = client(mockClient, 60 * 1000);
+    client.latest(selection);
+
+    DateTime timestamp = new DateTime(2012, 1, 1, 3, 0, 0, 0, timezone);
+    WriteRequest request = new WriteRequest()
+      .add(device, new Sensor("sensor1"), new DataPoint(timestamp, 4.5));
+    assertEquals(State.SUCCESS, client.writeDataPoints(request).getState());
+
+    Row last = client.latest(selection).getFirst().getData().get(1);
+    assertEquals(timestamp, last.getTimestamp());
+    assertEquals(4.5, last.getValue(device.getKey(), "sensor1"));
+    verifyRequests(mockClient, 2);
+  }
+
+  @Test
+  public void testRefreshesWhenStale() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(200, latest), Util.getResponse(200, latest));
+    Client client = client(mockClient, 0);
+    client.latest(selection);
+    client.latest(selection);
+    verifyRequests(mockClient, 2);
+  }
+
+  @Test
+  public void testSkipsPipelines() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(200, latest), Util.getResponse(200, latest));
+    Client client = client(mockClient, 60 * 1000);
+    Pipeline pipeline = new Pipeline().aggregate(Fold.SUM);
+    client.latest(selection, pipeline);
+    client.latest(selection, pipeline);
+    verifyRequests(mockClient, 2);
+  }
+
+  @Test
+  public void testDeleteForgetsValues() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(
+      Util.getResponse(200, latest),
+      Util.getResponse(200, "{\"deleted\":1}"),
+      Util.getResponse(200, latest));
+    Client client = client(mockClient, 60 * 1000);
+    client.latest(selection);
+    client.deleteDataPoints(device, new Sensor("sensor1"), new DateTime(2012, 1, 1, 0, 0, 0, 0, timezone),
+                            new DateTime(2012, 1, 2, 0, 0, 0, 0, timezone));
+    client.latest(selection);
+    verifyRequests(mockClient, 3);
+  }
+
+  @Test
+  public void testKeepsDatabasesApart() throws IOException {
+    LatestValueCache cache = new LatestValueCache(60 * 1000);
+    HttpClient first = Util.getMockHttpClient(Util.getResponse(200, latest));
+    HttpClient second = Util.getMockHttpClient(Util.getResponse(200, latest));
+    Client one = new ClientBuilder().credentials(new Credentials("one", "secret")).latestValueCache(cache).build();
+    Client two = new ClientBuilder().credentials(new Credentials("two", "secret")).latestValueCache(cache).build();
+    one.setHttpClient(first);
+    two.setHttpClient(second);
+
+    one.latest(selection);
+    two.latest(selection);
+    verifyRequests(first, 1);
+    verifyRequests(second, 1);
+  }
+}
@@ -0,0 +1,128 @@
+package com.tempoiq;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Period;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+public class LocalPipelineTest {
+  private static final DateTimeZone timezone = DateTimeZone.UTC;
+  private static final DateTime start = new DateTime(2012, 1, 1, 0, 0, 0, 0, timezone);
+
+  private static Row row(int minutes, double sensor1, double sensor2) {
+    Map<String, Number> sensors = new HashMap<String, Number>();
+    sensors.put("sensor1", sensor1);
+    sensors.put("sensor2", sensor2);
+    Map<String, Map<String, Number>> values = new HashMap<String, Map<String, Number>>();
+    values.put("device1", sensors);
+    return new Row(start.plusMinutes(minutes), values);
+  }
+
+  /** Two hours of rows, every 20 minutes: sensor1 is 1..6, sensor2 is 10 times that. */
+  private static Cursor<Row> rows() {
+    final List<Row> rows = new ArrayList<Row>();
+    for (int i = 0; i < 6; i++) {
+      rows.add(row(i * 20, i + 1, (i + 1) * 10));
+    }
+    return new Cursor<Row>() {
+      public Iterator<Row> iterator() { return rows.iterator(); }
+    };
+  }
+
+  private static List<Row> list(Cursor<Row> cursor) {
+    List<Row> rows = new ArrayList<Row>();
+    for (Row row : cursor) {
+      rows.add(row);
+    }
+    return rows;
+  }
+
+  private static LocalPipeline hourly(Fold fold) {
+    return new LocalPipeline(new Pipeline().rollup(Period.hours(1), fold, start));
+  }
+
+  @Test
+  public void testRollup() {
+    List<Row> result = list(hourly(Fold.SUM).apply(rows()));
+    assertEquals(2, result.size());
+    assertEquals(start, result.get(0).getTimestamp());
+    assertEquals(6.0, result.get(0).getValue("device1", "sensor1"));
+    assertEquals(60.0, result.get(0).getValue("device1", "sensor2"));
+    assertEquals(start.plusHours(1), result.get(1).getTimestamp());
+    assertEquals(15.0, result.get(1).getValue("device1", "sensor1"));
+  }
+
+  @Test
+  public void testFolds() {
+    List<List<Row>> results = LocalPipeline.applyAll(rows(),
+      hourly(Fold.MEAN), hourly(Fold.VARIANCE), hourly(Fold.STDDEV), hourly(Fold.COUNT),
+      hourly(Fold.RANGE), hourly(Fold.FIRST), hourly(Fold.MULT), hourly(Fold.MIN), hourly(Fold.MAX));
+    double[] expected = { 5.0, 1.0, 1.0, 3, 2.0, 4.0, 120.0, 4.0, 6.0 };
+    for (int i = 0; i < expected.length; i++) {
+      Row last = results.get(i).get(1);
+      assertEquals(expected[i], last.getDouble("device1", "sensor1"), 1e-9);
+    }
+    assertEquals(3L, results.get(3).get(0).getValue("device1", "sensor1"));
+  }
+
+  @Test
+  public void testAggregation() {
+    List<Row> result = list(new LocalPipeline(new Pipeline().aggregate(Fold.MAX)).apply(rows()));
+    assertEquals(6, result.size());
+    assertEquals(start.plusMinutes(20), result.get(1).getTimestamp());
+    assertEquals(20.0, result.get(1).getValue(LocalPipeline.AGGREGATION_DEVICE_KEY, "max"));
+  }
+
+  @Test
+  public void testRollupThenAggregation() {
+    Pipeline pipeline = new Pipeline()
+      .rollup(Period.hours(1), Fold.SUM, start)
+      .aggregate(Fold.SUM);
+    List<Row> result = list(new LocalPipeline(pipeline).apply(rows()));
+    assertEquals(2, result.size());
+    assertEquals(66.0, result.get(0).getValue(LocalPipeline.AGGREGATION_DEVICE_KEY, "sum"));
+    assertEquals(165.0, result.get(1).getValue(LocalPipeline.AGGREGATION_DEVICE_KEY, "sum"));
+  }
+
+  @Test
+  public void testEmitsPeriodsAsRowsArrive() {
+    final List<Row> rows = new ArrayList<Row>();
+    for (Row row : rows()) {
+      rows.add(row);
+    }
+    final int[] read = { 0 };
+    Cursor<Row> counting = new Cursor<Row>() {
+      public Iterator<Row> iterator() {
+        return new Iterator<Row>() {
+          public boolean hasNext() { return read[0] < rows.size(); }
+          public Row next() { return rows.get(read[0]++); }
+          public void remove() { throw new UnsupportedOperationException(); }
+        };
+      }
+    };
+
+    Iterator<Row> result = hourly(Fold.SUM).apply(counting).iterator();
+    assertTrue(result.hasNext());
+    assertEquals(start, result.next().getTimestamp());
+    // The first period is complete once the first row of the second one is read
+    assertEquals(4, read[0]);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnsupportedFunction() {
+    Pipeline pipeline = new Pipeline();
+    pipeline.getFunctions().add(new PipelineFunction() {
+      public String getName() { return "unknown"; }
+      public List<String> getArguments() { return new ArrayList<String>(); }
+    });
+    new LocalPipeline(pipeline);
+  }
+}
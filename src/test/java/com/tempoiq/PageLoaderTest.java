@@ -88,4 +88,46 @@ public class PageLoaderTest {
         integerPageLoader.next();
       }
     }
+
+  private static List<Segment<Integer>> pages(int count) {
+    List<Segment<Integer>> segments = new ArrayList<Segment<Integer>>();
+    for (int i = 0; i < count; i++) {
+      segments.add(new Segment<Integer>(Arrays.asList(i), String.format("%s", i)));
+    }
+    return segments;
+  }
+
+  @Test
+    public void testFetchesOnDemand() {
+      IntegerPageLoader integerPageLoader = new IntegerPageLoader(pages(3));
+      integerPageLoader.next();
+      assertEquals(0, integerPageLoader.innerIndex);
+      assertTrue(integerPageLoader.hasNext());
+      assertEquals(1, integerPageLoader.innerIndex);
+    }
+
+  @Test
+    public void testPrefetchKeepsOrder() {
+      PageLoader<Integer> integerPageLoader = new IntegerPageLoader(pages(10));
+      Iterator<Integer> items = new PagingIterator<Integer>(new PrefetchingPageIterator<Integer>(integerPageLoader, 3));
+      for (int k = 0; k < 10; k++) {
+        assertTrue(items.hasNext());
+        assertEquals(Integer.valueOf(k), items.next());
+      }
+      assertFalse(items.hasNext());
+    }
+
+  @Test
+    public void testPrefetchRunsAhead() throws InterruptedException {
+      IntegerPageLoader integerPageLoader = new IntegerPageLoader(pages(10));
+      Iterator<Segment<Integer>> prefetched = new PrefetchingPageIterator<Integer>(integerPageLoader, 3);
+      assertEquals(Integer.valueOf(0), prefetched.next().getData().get(0));
+
+      long deadline = System.currentTimeMillis() + 5000;
+      while (integerPageLoader.innerIndex < 3 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(5);
+      }
+      // The first page and three more are loaded; no page beyond the depth
+      assertEquals(3, integerPageLoader.innerIndex);
+    }
 }
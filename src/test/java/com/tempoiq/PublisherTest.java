@@ -0,0 +1,127 @@
+package com.tempoiq;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.*;
+import org.apache.http.client.HttpClient;
+import org.apache.http.protocol.HttpContext;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+
+public class PublisherTest {
+  private static final DateTimeZone timezone = DateTimeZone.UTC;
+  private static final DateTime start = new DateTime(2012, 1, 1, 0, 0, 0, 0, timezone);
+  private static final DateTime stop = new DateTime(2012, 3, 1, 0, 0, 0, 0, timezone);
+  private static final Selection selection = new Selection().
+    addSelector(Selector.Type.DEVICES, Selector.key("device1"));
+
+  private static final String page1 = "{" +
+    "\"data\":[" +
+      "{\"t\":\"2012-01-01T01:00:00.000Z\",\"data\":{\"device1\":{\"sensor1\":1.0}}}," +
+      "{\"t\":\"2012-01-01T02:00:00.000Z\",\"data\":{\"device1\":{\"sensor1\":2.0}}}]," +
+    "\"next_page\":{\"next_query\":{" +
+      "\"search\":{\"select\":\"devices\",\"filters\":{\"devices\":{\"key\":\"device1\"}}}," +
+      "\"read\":{\"start\":\"2012-01-01T02:00:00.001Z\",\"stop\":\"2012-03-01T00:00:00.000Z\"}}}}";
+
+  private static final String page2 = "{" +
+    "\"data\":[" +
+      "{\"t\":\"2012-02-01T01:00:00.000Z\",\"data\":{\"device1\":{\"sensor1\":3.0}}}]}";
+
+  private static class RecordingSubscriber implements Subscriber<Row> {
+    private Subscription subscription;
+    private final List<Number> values = new ArrayList<Number>();
+    private Throwable error = null;
+    private boolean complete = false;
+
+    public void onSubscribe(Subscription subscription) { this.subscription = subscription; }
+    public void onNext(Row row) { values.add(row.getValue("device1", "sensor1")); }
+    public void onError(Throwable error) { this.error = error; }
+    public void onComplete() { this.complete = true; }
+  }
+
+  private static void verifyCalls(HttpClient mockClient, int calls) throws IOException {
+    verify(mockClient, times(calls)).execute(any(HttpHost.class), any(HttpRequest.class), any(HttpContext.class));
+  }
+
+  @Test
+  public void testFetchesOnDemand() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(200, page1), Util.getResponse(200, page2));
+    Client client = Util.getClient(mockClient);
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    client.publishRead(selection, new Pipeline(), start, stop).subscribe(subscriber);
+    verifyCalls(mockClient, 0);
+
+    subscriber.subscription.request(2);
+    assertEquals(2, subscriber.values.size());
+    verifyCalls(mockClient, 1);
+
+    subscriber.subscription.request(1);
+    assertEquals(3.0, subscriber.values.get(2));
+    assertFalse(subscriber.complete);
+    verifyCalls(mockClient, 2);
+
+    subscriber.subscription.request(1);
+    assertTrue(subscriber.complete);
+    assertNull(subscriber.error);
+    assertEquals(3, subscriber.values.size());
+  }
+
+  @Test
+  public void testRequestFromOnNext() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(200, page1), Util.getResponse(200, page2));
+    Client client = Util.getClient(mockClient);
+    RecordingSubscriber subscriber = new RecordingSubscriber() {
+      @Override
+      public void onNext(Row row) {
+        super.onNext(row);
+        super.subscription.request(1);
+      }
+    };
+    client.publishRead(selection, new Pipeline(), start, stop).subscribe(subscriber);
+    subscriber.subscription.request(1);
+    assertEquals(3, subscriber.values.size());
+    assertTrue(subscriber.complete);
+  }
+
+  @Test
+  public void testCancel() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(200, page1), Util.getResponse(200, page2));
+    Client client = Util.getClient(mockClient);
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    client.publishRead(selection, new Pipeline(), start, stop).subscribe(subscriber);
+    subscriber.subscription.request(2);
+    subscriber.subscription.cancel();
+    subscriber.subscription.request(5);
+    assertEquals(2, subscriber.values.size());
+    assertFalse(subscriber.complete);
+    verifyCalls(mockClient, 1);
+  }
+
+  @Test
+  public void testError() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(403, "denied"));
+    Client client = Util.getClient(mockClient);
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    client.publishRead(selection, new Pipeline(), start, stop).subscribe(subscriber);
+    subscriber.subscription.request(1);
+    assertTrue(subscriber.error instanceof TempoIQException);
+    assertFalse(subscriber.complete);
+  }
+
+  @Test
+  public void testInvalidRequest() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(200, page1));
+    Client client = Util.getClient(mockClient);
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    client.publishRead(selection, new Pipeline(), start, stop).subscribe(subscriber);
+    subscriber.subscription.request(0);
+    assertTrue(subscriber.error instanceof IllegalArgumentException);
+    verifyCalls(mockClient, 0);
+  }
+}
@@ -0,0 +1,124 @@
+package com.tempoiq;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.*;
+import org.apache.http.client.HttpClient;
+import org.apache.http.protocol.HttpContext;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+
+public class QueryCacheTest {
+  private static final DateTimeZone timezone = DateTimeZone.UTC;
+  private static final Selection selection = new Selection().
+    addSelector(Selector.Type.DEVICES, Selector.key("device1"));
+
+  private static final String page1 = "{" +
+    "\"data\":[" +
+      "{\"t\":\"2012-01-01T01:00:00.000Z\",\"data\":{\"device1\":{\"sensor1\":1.0}}}]," +
+    "\"next_page\":{\"next_query\":{" +
+      "\"search\":{\"select\":\"devices\",\"filters\":{\"devices\":{\"key\":\"device1\"}}}," +
+      "\"read\":{\"start\":\"2012-01-01T01:00:00.001Z\",\"stop\":\"2012-03-01T00:00:00.000Z\"}}}}";
+
+  private static final String page2 = "{" +
+    "\"data\":[" +
+      "{\"t\":\"2012-02-01T01:00:00.000Z\",\"data\":{\"device1\":{\"sensor1\":2.0}}}]}";
+
+  private static RowSegment segment(int rows) {
+    List<Row> data = new ArrayList<Row>();
+    for (int i = 0; i < rows; i++) {
+      Map<String, Number> sensors = new HashMap<String, Number>();
+      sensors.put("sensor1", i);
+      Map<String, Map<String, Number>> values = new HashMap<String, Map<String, Number>>();
+      values.put("device1", sensors);
+      data.add(new Row(new DateTime(2012, 1, 1, 0, i, 0, 0, timezone), values));
+    }
+    return new RowSegment(data, "");
+  }
+
+  private static int count(Cursor<Row> cursor) {
+    int rows = 0;
+    for (Row row : cursor) {
+      rows += 1;
+    }
+    return rows;
+  }
+
+  private static void verifyCalls(HttpClient mockClient, int calls) throws IOException {
+    verify(mockClient, times(calls)).execute(any(HttpHost.class), any(HttpRequest.class), any(HttpContext.class));
+  }
+
+  @Test
+  public void testEvictsBySize() {
+    long size = segment(1).estimateBytes();
+    LruQueryCache cache = new LruQueryCache(2 * size, 60000);
+    cache.put("a", segment(1));
+    cache.put("b", segment(1));
+    cache.get("a");
+    cache.put("c", segment(1));
+    assertEquals(2, cache.size());
+    assertNotNull(cache.get("a"));
+    assertNull(cache.get("b"));
+    assertNotNull(cache.get("c"));
+
+    cache.put("d", segment(10));
+    assertNull(cache.get("d"));
+  }
+
+  @Test
+  public void testExpires() throws InterruptedException {
+    LruQueryCache cache = new LruQueryCache(1024 * 1024, 20);
+    cache.put("a", segment(1));
+    assertNotNull(cache.get("a"));
+    Thread.sleep(40);
+    assertNull(cache.get("a"));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testRepeatedClosedRead() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(200, page1), Util.getResponse(200, page2));
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .queryCache(new LruQueryCache(1024 * 1024, 60000))
+      .build();
+    client.setHttpClient(mockClient);
+    DateTime start = new DateTime(2012, 1, 1, 0, 0, 0, 0, timezone);
+    DateTime stop = new DateTime(2012, 3, 1, 0, 0, 0, 0, timezone);
+
+    assertEquals(2, count(client.read(selection, new Pipeline(), start, stop)));
+    verifyCalls(mockClient, 2);
+    assertEquals(2, count(client.read(selection, new Pipeline(), start, stop)));
+    verifyCalls(mockClient, 2);
+
+    // A different query misses
+    client.read(selection, new Pipeline(), start, stop.plusDays(1));
+    verifyCalls(mockClient, 3);
+  }
+
+  @Test
+  public void testOpenRangeNotCached() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(200, page2));
+    LruQueryCache cache = new LruQueryCache(1024 * 1024, 60000);
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .queryCache(cache)
+      .build();
+    client.setHttpClient(mockClient);
+    DateTime start = new DateTime(2012, 1, 1, 0, 0, 0, 0, timezone);
+    DateTime stop = DateTime.now().plusHours(1);
+
+    client.read(selection, new Pipeline(), start, stop);
+    client.read(selection, new Pipeline(), start, stop);
+    verifyCalls(mockClient, 2);
+    assertEquals(0, cache.size());
+  }
+}
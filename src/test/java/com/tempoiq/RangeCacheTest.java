@@ -0,0 +1,328 @@
+package com.tempoiq;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.*;
+import org.apache.http.client.HttpClient;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Period;
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+
+public class RangeCacheTest {
+  private static final DateTimeZone timezone = DateTimeZone.UTC;
+  private static final Selection selection = new Selection().
+    addSelector(Selector.Type.DEVICES, Selector.key("device1"));
+  private static final Pattern RANGE = Pattern.compile("\"start\":\"([^\"]+)\",\"stop\":\"([^\"]+)\"");
+
+  private static DateTime day(int day) {
+    return new DateTime(2012, 1, day, 0, 0, 0, 0, timezone);
+  }
+
+  private static Row row(DateTime timestamp) {
+    Map<String, Number> sensors = new HashMap<String, Number>();
+    sensors.put("sensor1", timestamp.getDayOfMonth());
+    Map<String, Map<String, Number>> values = new HashMap<String, Map<String, Number>>();
+    values.put("device1", sensors);
+    return new Row(timestamp, values);
+  }
+
+  /**
+   *  Answers every read with one row per day of its range, and records the ranges.
+   */
+  private static HttpClient dailyRows(final List<String> ranges) throws IOException {
+    HttpClient mockClient = mock(HttpClient.class);
+    when(mockClient.execute(any(HttpHost.class), any(HttpRequest.class), any(HttpContext.class))).thenAnswer(new Answer<HttpResponse>() {
+      public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+        HttpEntityEnclosingRequest request = (HttpEntityEnclosingRequest)invocation.getArguments()[1];
+        if (!request.getRequestLine().getUri().contains("/read/")) {
+          return Util.getResponse(200, "{}");
+        }
+        Matcher matcher = RANGE.matcher(EntityUtils.toString(request.getEntity()));
+        assertTrue(matcher.find());
+        DateTime start = new DateTime(matcher.group(1), timezone);
+        DateTime stop = new DateTime(matcher.group(2), timezone);
+        ranges.add(start.getDayOfMonth() + "-" + stop.getDayOfMonth());
+
+        StringBuilder body = new StringBuilder("{\"data\":[");
+        for (DateTime t = start; t.isBefore(stop); t = t.plusDays(1)) {
+          if (t != start) {
+            body.append(",");
+          }
+          body.append(String.format("{\"t\":\"%s\",\"data\":{\"device1\":{\"sensor1\":%d}}}", t, t.getDayOfMonth()));
+        }
+        body.append("]}");
+        return Util.getResponse(200, body.toString());
+      }
+    });
+    return mockClient;
+  }
+
+  private static List<Integer> values(Cursor<Row> cursor) {
+    List<Integer> values = new ArrayList<Integer>();
+    for (Row row : cursor) {
+      values.add(row.getValue("device1", "sensor1").intValue());
+    }
+    return values;
+  }
+
+  private static List<long[]> gaps(RangeCache cache, String key, long start, long stop) {
+    List<long[]> gaps = new ArrayList<long[]>();
+    for (RangeCache.Piece piece : cache.pieces(key, start, stop)) {
+      if (!piece.isCached()) {
+        gaps.add(new long[] { piece.getStart(), piece.getStop() });
+      }
+    }
+    return gaps;
+  }
+
+  private static List<Segment<Row>> pages(Row... rows) {
+    return Collections.<Segment<Row>>singletonList(new RowSegment(Arrays.asList(rows), ""));
+  }
+
+  @Test
+  public void testGaps() {
+    RangeCache cache = new RangeCache(1024 * 1024, 0, 60 * 1000);
+    List<long[]> gaps = gaps(cache, "key", 0, 100);
+    assertEquals(1, gaps.size());
+
+    cache.add("key", 10, 20, pages(), cache.getGeneration());
+    cache.add("key", 40, 50, pages(), cache.getGeneration());
+    gaps = gaps(cache, "key", 0, 100);
+    assertEquals(3, gaps.size());
+    assertArrayEquals(new long[] { 0, 10 }, gaps.get(0));
+    assertArrayEquals(new long[] { 20, 40 }, gaps.get(1));
+    assertArrayEquals(new long[] { 50, 100 }, gaps.get(2));
+    assertEquals(0, gaps(cache, "key", 12, 18).size());
+
+    cache.add("key", 20, 40, pages(), cache.getGeneration());
+    gaps = gaps(cache, "key", 15, 60);
+    assertEquals(1, gaps.size());
+    assertArrayEquals(new long[] { 50, 60 }, gaps.get(0));
+    assertEquals(4, cache.pieces("key", 15, 60).size());
+  }
+
+  @Test
+  public void testReturnsCachedPages() {
+    RangeCache cache = new RangeCache(1024 * 1024, 0, 60 * 1000);
+    cache.add("key", day(1).getMillis(), day(3).getMillis(), pages(row(day(1)), row(day(2))), cache.getGeneration());
+
+    List<RangeCache.Piece> pieces = cache.pieces("key", day(2).getMillis(), day(3).getMillis());
+    assertEquals(1, pieces.size());
+    assertTrue(pieces.get(0).isCached());
+    Segment<Row> clipped = RangeCacheCursor.clip(pieces.get(0).getPages().get(0), day(2).getMillis(), day(3).getMillis());
+    assertEquals(1, clipped.getData().size());
+    assertEquals(day(2), clipped.getData().get(0).getTimestamp());
+  }
+
+  @Test
+  public void testClipsColumnarPages() {
+    ColumnarRowSegment.Builder builder = new ColumnarRowSegment.Builder(timezone);
+    for (int day = 1; day <= 4; day++) {
+      builder.addRow(day(day).getMillis()).set("device1", "sensor1", day);
+    }
+    ColumnarRowSegment page = builder.build("");
+    assertSame(page, RangeCacheCursor.clip(page, day(1).getMillis(), day(5).getMillis()));
+
+    Segment<Row> clipped = RangeCacheCursor.clip(page, day(2).getMillis(), day(4).getMillis());
+    assertTrue(clipped instanceof ColumnarRowSegment);
+    assertEquals(2, clipped.getData().size());
+    assertEquals(2.0, clipped.getData().get(0).getDouble("device1", "sensor1"), 0.0);
+  }
+
+  @Test
+  public void testEvictsBySize() {
+    List<Segment<Row>> pages = pages(row(day(1)));
+    RangeCache cache = new RangeCache(pages.get(0).estimateBytes(), 0, 60 * 1000);
+    cache.add("a", day(1).getMillis(), day(2).getMillis(), pages, cache.getGeneration());
+    cache.add("b", day(1).getMillis(), day(2).getMillis(), pages, cache.getGeneration());
+    assertEquals(1, gaps(cache, "a", day(1).getMillis(), day(2).getMillis()).size());
+    assertEquals(0, gaps(cache, "b", day(1).getMillis(), day(2).getMillis()).size());
+  }
+
+  @Test
+  public void testInvalidateDropsTouchedReads() {
+    RangeCache cache = new RangeCache(1024 * 1024, 0, 60 * 1000);
+    cache.add("db key", 10, 20, pages(), cache.getGeneration());
+    cache.add("db key", 40, 50, pages(), cache.getGeneration());
+    cache.add("other key", 10, 20, pages(), cache.getGeneration());
+
+    cache.invalidate("db ", 15, 15);
+    List<long[]> gaps = gaps(cache, "db key", 0, 100);
+    assertEquals(2, gaps.size());
+    assertArrayEquals(new long[] { 0, 40 }, gaps.get(0));
+    assertArrayEquals(new long[] { 50, 100 }, gaps.get(1));
+    assertEquals(0, gaps(cache, "other key", 10, 20).size());
+  }
+
+  @Test
+  public void testAddAfterInvalidateIsDiscarded() {
+    RangeCache cache = new RangeCache(1024 * 1024, 0, 60 * 1000);
+    long generation = cache.getGeneration();
+    cache.invalidate("key", 0, 100);
+    cache.add("key", 10, 20, pages(), generation);
+    assertEquals(1, gaps(cache, "key", 10, 20).size());
+  }
+
+  @Test
+  public void testExpires() throws InterruptedException {
+    RangeCache cache = new RangeCache(1024 * 1024, 0, 1);
+    cache.add("key", 10, 20, pages(), cache.getGeneration());
+    Thread.sleep(5);
+    assertEquals(1, gaps(cache, "key", 10, 20).size());
+    assertEquals(0, cache.getSize());
+  }
+
+  @Test
+  public void testWriteInvalidatesRange() throws IOException {
+    List<String> ranges = new ArrayList<String>();
+    HttpClient mockClient = dailyRows(ranges);
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .rangeCache(new RangeCache(1024 * 1024, 0, 60 * 1000))
+      .build();
+    client.setHttpClient(mockClient);
+
+    values(client.read(selection, new Pipeline(), day(1), day(5)));
+    client.writeDataPoints(new WriteRequest()
+      .add(new Device("device1"), new Sensor("sensor1"), new DataPoint(day(2).plusHours(1), 1.0)));
+    values(client.read(selection, new Pipeline(), day(1), day(5)));
+    client.deleteDataPoints(new Device("device1"), new Sensor("sensor1"), day(3), day(4));
+    values(client.read(selection, new Pipeline(), day(1), day(5)));
+    assertEquals(Arrays.asList("1-5", "1-5", "1-5"), ranges);
+  }
+
+  @Test
+  public void testWriteDuringGapReadDiscardsGap() throws IOException {
+    List<String> ranges = new ArrayList<String>();
+    HttpClient mockClient = dailyRows(ranges);
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .rangeCache(new RangeCache(1024 * 1024, 0, 60 * 1000))
+      .build();
+    client.setHttpClient(mockClient);
+
+    Iterator<Row> rows = client.read(selection, new Pipeline(), day(1), day(5)).iterator();
+    assertTrue(rows.hasNext());
+    client.writeDataPoints(new WriteRequest()
+      .add(new Device("device1"), new Sensor("sensor1"), new DataPoint(day(2).plusHours(1), 1.0)));
+    while (rows.hasNext()) {
+      rows.next();
+    }
+    values(client.read(selection, new Pipeline(), day(1), day(5)));
+    assertEquals(Arrays.asList("1-5", "1-5"), ranges);
+  }
+
+  @Test
+  public void testGetFirstReadsFirstPage() throws IOException {
+    List<String> ranges = new ArrayList<String>();
+    HttpClient mockClient = dailyRows(ranges);
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .rangeCache(new RangeCache(1024 * 1024, 0, 60 * 1000))
+      .build();
+    client.setHttpClient(mockClient);
+
+    DataPointRowCursor cursor = client.read(selection, new Pipeline(), day(1), day(5));
+    assertEquals(4, cursor.getFirst().getData().size());
+    assertEquals(4, cursor.getFirst().getData().size());
+    assertEquals(Arrays.asList("1-5"), ranges);
+  }
+
+  @Test
+  public void testSlidingWindow() throws IOException {
+    List<String> ranges = new ArrayList<String>();
+    HttpClient mockClient = dailyRows(ranges);
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .rangeCache(new RangeCache(1024 * 1024, 0, 60 * 1000))
+      .build();
+    client.setHttpClient(mockClient);
+
+    assertEquals(Arrays.asList(1, 2, 3, 4), values(client.read(selection, new Pipeline(), day(1), day(5))));
+    assertEquals(Arrays.asList(3, 4, 5, 6), values(client.read(selection, new Pipeline(), day(3), day(7))));
+    assertEquals(Arrays.asList(2, 3, 4, 5, 6), values(client.read(selection, new Pipeline(), day(2), day(7))));
+    assertEquals(Arrays.asList("1-5", "5-7"), ranges);
+  }
+
+  @Test
+  public void testGapsAreReadLazilyAndStayColumnar() throws IOException {
+    List<String> ranges = new ArrayList<String>();
+    HttpClient mockClient = dailyRows(ranges);
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .rangeCache(new RangeCache(1024 * 1024, 0, 60 * 1000))
+      .columnarRows(true)
+      .build();
+    client.setHttpClient(mockClient);
+
+    DataPointRowCursor cursor = client.read(selection, new Pipeline(), day(1), day(5));
+    assertEquals(0, ranges.size());
+    assertEquals(Arrays.asList(1, 2, 3, 4), values(cursor));
+
+    cursor = client.read(selection, new Pipeline(), day(2), day(5));
+    Iterator<Segment<Row>> pages = cursor.pages();
+    assertTrue(pages.hasNext());
+    assertTrue(pages.next() instanceof ColumnarRowSegment);
+    assertEquals(Arrays.asList(2, 3, 4), values(cursor));
+    assertEquals(Arrays.asList("1-5"), ranges);
+  }
+
+  @Test
+  public void testUnsettledTailNotCached() throws IOException {
+    List<String> ranges = new ArrayList<String>();
+    HttpClient mockClient = dailyRows(ranges);
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .rangeCache(new RangeCache(1024 * 1024, 0, 60 * 1000))
+      .build();
+    client.setHttpClient(mockClient);
+
+    DateTime start = DateTime.now(timezone).minusDays(2).withTimeAtStartOfDay();
+    DateTime stop = start.plusDays(4);
+    values(client.read(selection, new Pipeline(), start, stop));
+    assertEquals(2, ranges.size());
+    values(client.read(selection, new Pipeline(), start, stop));
+    // Only what settled since the first read and the tail past now are read again
+    assertEquals(4, ranges.size());
+    String today = String.valueOf(DateTime.now(timezone).getDayOfMonth());
+    assertTrue(ranges.get(2).startsWith(today + "-"));
+    assertTrue(ranges.get(3).startsWith(today + "-"));
+  }
+
+  @Test
+  public void testUnalignedRollupBypassesCache() throws IOException {
+    List<String> ranges = new ArrayList<String>();
+    HttpClient mockClient = dailyRows(ranges);
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .rangeCache(new RangeCache(1024 * 1024, 0, 60 * 1000))
+      .build();
+    client.setHttpClient(mockClient);
+
+    Pipeline weekly = new Pipeline().rollup(Period.days(7), Fold.SUM, day(1));
+    values(client.read(selection, weekly, day(1), day(15)));
+    values(client.read(selection, weekly, day(1), day(15)));
+    assertEquals(1, ranges.size());
+
+    values(client.read(selection, weekly, day(2), day(15)));
+    values(client.read(selection, weekly, day(2), day(15)));
+    assertEquals(3, ranges.size());
+  }
+}
@@ -0,0 +1,124 @@
+package com.tempoiq;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.client.HttpClient;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+
+public class SegmentCacheTest {
+  private static final DateTimeZone timezone = DateTimeZone.UTC;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static RowSegment segment(double value, String next) {
+    Map<String, Number> sensors = new HashMap<String, Number>();
+    sensors.put("sensor1", value);
+    Map<String, Map<String, Number>> values = new HashMap<String, Map<String, Number>>();
+    values.put("device1", sensors);
+    List<Row> rows = new ArrayList<Row>();
+    rows.add(new Row(new DateTime(2012, 1, 1, 0, 0, 0, 0, timezone), values));
+    return new RowSegment(rows, next);
+  }
+
+  private static double value(Segment<Row> segment) {
+    return segment.getData().get(0).getValue("device1", "sensor1").doubleValue();
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() {
+    long size = segment(1.0, "").estimateBytes();
+    SegmentCache<Row> cache = new SegmentCache<Row>(2 * size, null);
+    cache.put("a", segment(1.0, "b"));
+    cache.put("b", segment(2.0, "c"));
+    assertEquals(1.0, value(cache.get("a")), 0.0);
+    cache.put("c", segment(3.0, ""));
+
+    assertEquals(2, cache.getCount());
+    assertNull(cache.get("b"));
+    assertEquals(1.0, value(cache.get("a")), 0.0);
+    assertEquals(3.0, value(cache.get("c")), 0.0);
+    assertEquals(2 * size, cache.getSize());
+  }
+
+  @Test
+  public void testSpillsToDisk() throws IOException {
+    long size = segment(1.0, "").estimateBytes();
+    SegmentCache<Row> cache = new SegmentCache<Row>(size, folder.getRoot());
+    cache.put("a", segment(1.0, "b"));
+    cache.put("b", segment(2.0, "c"));
+    cache.put("c", segment(3.0, ""));
+    assertEquals(3, cache.getCount());
+    assertEquals(size, cache.getSize());
+    assertEquals(1, folder.getRoot().listFiles().length);
+
+    Segment<Row> spilled = cache.get("a");
+    assertEquals(1.0, value(spilled), 0.0);
+    assertEquals("b", spilled.getNext());
+    assertEquals(2.0, value(cache.get("b")), 0.0);
+    assertEquals(3.0, value(cache.get("c")), 0.0);
+
+    cache.clear();
+    assertEquals(0, cache.getCount());
+    assertEquals(0, folder.getRoot().listFiles().length);
+  }
+
+  private static final String page1_json = "{" +
+    "\"data\":[{\"t\":\"2012-01-01T01:00:00.000Z\",\"data\":{\"device1\":{\"sensor1\":1.23}}}]," +
+    "\"next_page\":{\"next_query\":{" +
+      "\"search\":{\"select\":\"sensors\",\"filters\":{\"devices\":{\"and\":[{\"key\":\"device1\"}]}}}," +
+      "\"read\":{\"start\":\"2012-01-01T01:00:00.001Z\",\"stop\":\"2012-01-02T00:00:00.000Z\",\"limit\":1}" +
+    "}}}";
+  private static final String page2_json = "{" +
+    "\"data\":[{\"t\":\"2012-01-01T02:00:00.000Z\",\"data\":{\"device1\":{\"sensor1\":2.23}}}]}";
+
+  @Test
+  public void testCursorDeletesSpillFile() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(200, page1_json), Util.getResponse(200, page2_json));
+    Client client = Util.getClient(mockClient);
+    Selection sel = new Selection().
+      addSelector(Selector.Type.DEVICES, Selector.key("device1"));
+    DataPointRowCursor cursor = client.read(sel, new DateTime(2012, 1, 1, 0, 0, 0, 0, timezone), new DateTime(2012, 1, 2, 0, 0, 0, 0, timezone));
+    cursor.cache(0, folder.getRoot());
+    for (Row row : cursor) { }
+    assertEquals(1, folder.getRoot().listFiles().length);
+
+    // Replacing the cache deletes the file of the old one
+    cursor.cache(0, folder.getRoot());
+    assertEquals(0, folder.getRoot().listFiles().length);
+
+    for (Row row : cursor) { }
+    assertEquals(1, folder.getRoot().listFiles().length);
+    cursor.clearCache();
+    assertEquals(0, folder.getRoot().listFiles().length);
+  }
+
+  @Test
+  public void testSpillsColumnarSegments() {
+    ColumnarRowSegment.Builder builder = new ColumnarRowSegment.Builder(timezone);
+    builder.addRow(1000L).set("device1", "sensor1", 1.5);
+    builder.addRow(2000L).set("device1", "sensor2", 2.5);
+    SegmentCache<Row> cache = new SegmentCache<Row>(0, folder.getRoot());
+    cache.put("a", builder.build(""));
+
+    assertEquals(1, cache.getCount());
+    assertEquals(0, cache.getSize());
+    assertEquals(1, folder.getRoot().listFiles().length);
+
+    ColumnarRowSegment spilled = (ColumnarRowSegment)cache.get("a");
+    assertEquals(2, spilled.size());
+    assertEquals(2, spilled.getData().size());
+    assertNull(spilled.getData().get(0).getValue("device1", "sensor2"));
+    assertEquals(2.5, spilled.getData().get(1).getValue("device1", "sensor2"));
+    assertEquals(new DateTime(2000L, timezone), spilled.getData().get(1).getTimestamp());
+  }
+}
@@ -0,0 +1,147 @@
+package com.tempoiq;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.http.*;
+import org.apache.http.client.HttpClient;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Period;
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+
+public class ShardedReadTest {
+  private static final DateTimeZone timezone = DateTimeZone.UTC;
+  private static final Device device = new Device("device1");
+
+  private static final String firstPage = "{" +
+    "\"data\":[" +
+      "{\"t\":\"2012-01-01T01:00:00.000Z\",\"data\":{\"device1\":{\"sensor1\":1.0}}}]," +
+    "\"next_page\":{\"next_query\":{" +
+      "\"search\":{\"select\":\"devices\",\"filters\":{\"devices\":{\"key\":\"device1\"}}}," +
+      "\"read\":{\"start\":\"2012-01-01T12:00:00.000Z\",\"stop\":\"2012-01-02T00:00:00.000Z\"}}}}";
+
+  private static final String secondPage = "{" +
+    "\"data\":[" +
+      "{\"t\":\"2012-01-01T12:00:00.000Z\",\"data\":{\"device1\":{\"sensor1\":2.0}}}]}";
+
+  private static final String emptyPage = "{\"data\":[]}";
+
+  private static final String lastShard = "{" +
+    "\"data\":[" +
+      "{\"t\":\"2012-01-03T05:00:00.000Z\",\"data\":{\"device1\":{\"sensor1\":3.0}}}]}";
+
+  private static DateTime time(int day, int hour) {
+    return new DateTime(2012, 1, day, hour, 0, 0, 0, timezone);
+  }
+
+  @Test
+  public void testBoundaries() {
+    List<DateTime> boundaries = ShardedRowCursor.boundaries(time(1, 0), time(5, 0), 4, null);
+    assertEquals(5, boundaries.size());
+    assertEquals(time(1, 0), boundaries.get(0));
+    assertEquals(time(2, 0), boundaries.get(1));
+    assertEquals(time(4, 0), boundaries.get(3));
+    assertEquals(time(5, 0), boundaries.get(4));
+  }
+
+  @Test
+  public void testBoundariesAlignedToRollup() {
+    Rollup rollup = new Rollup(Period.hours(1), Fold.SUM, time(1, 0));
+    List<DateTime> boundaries = ShardedRowCursor.boundaries(time(1, 0), time(1, 10), 3, rollup);
+    assertEquals(4, boundaries.size());
+    assertEquals(time(1, 3), boundaries.get(1));
+    assertEquals(time(1, 6), boundaries.get(2));
+
+    // Periods longer than a shard collapse the shards
+    Rollup daily = new Rollup(Period.days(1), Fold.SUM, time(1, 0));
+    assertEquals(2, ShardedRowCursor.boundaries(time(1, 0), time(1, 10), 3, daily).size());
+  }
+
+  @Test
+  public void testFloorToMonths() {
+    Rollup rollup = new Rollup(Period.months(1), Fold.MEAN, new DateTime(2011, 1, 1, 0, 0, 0, 0, timezone));
+    DateTime time = new DateTime(2012, 3, 15, 12, 0, 0, 0, timezone);
+    assertEquals(new DateTime(2012, 3, 1, 0, 0, 0, 0, timezone), ShardedRowCursor.floor(time, rollup));
+    DateTime before = new DateTime(2010, 11, 20, 0, 0, 0, 0, timezone);
+    assertEquals(new DateTime(2010, 11, 1, 0, 0, 0, 0, timezone), ShardedRowCursor.floor(before, rollup));
+  }
+
+  @Test
+  public void testShardedReadInOrder() throws IOException {
+    final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+    HttpClient mockClient = mock(HttpClient.class);
+    when(mockClient.execute(any(HttpHost.class), any(HttpRequest.class), any(HttpContext.class))).thenAnswer(new Answer<HttpResponse>() {
+      public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+        HttpEntityEnclosingRequest request = (HttpEntityEnclosingRequest)invocation.getArguments()[1];
+        String body = EntityUtils.toString(request.getEntity());
+        bodies.add(body);
+        if (body.contains("\"start\":\"2012-01-01T12")) {
+          return Util.getResponse(200, secondPage);
+        } else if (body.contains("\"start\":\"2012-01-01")) {
+          Thread.sleep(20);
+          return Util.getResponse(200, firstPage);
+        } else if (body.contains("\"start\":\"2012-01-02")) {
+          return Util.getResponse(200, emptyPage);
+        } else {
+          return Util.getResponse(200, lastShard);
+        }
+      }
+    });
+    Client client = Util.getClient(mockClient);
+
+    Selection sel = new Selection().
+      addSelector(Selector.Type.DEVICES, Selector.key(device.getKey()));
+    ShardedRowCursor cursor = client.readSharded(sel, new Pipeline(), time(1, 0), time(4, 0), 3);
+    assertEquals(3, cursor.getShardCount());
+    verify(mockClient, never()).execute(any(HttpHost.class), any(HttpRequest.class), any(HttpContext.class));
+
+    List<Double> values = new ArrayList<Double>();
+    for (Row row : cursor) {
+      values.add(row.getValue(device.getKey(), "sensor1").doubleValue());
+    }
+    assertEquals(3, values.size());
+    assertEquals(1.0, values.get(0), 0.0);
+    assertEquals(2.0, values.get(1), 0.0);
+    assertEquals(3.0, values.get(2), 0.0);
+    assertEquals(4, bodies.size());
+  }
+
+  @Test
+  public void testShardsAreCappedToConfigured() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(200, lastShard));
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .shardReads(2)
+      .build();
+    client.setHttpClient(mockClient);
+
+    Selection sel = new Selection().
+      addSelector(Selector.Type.DEVICES, Selector.key(device.getKey()));
+    assertEquals(2, client.readSharded(sel, new Pipeline(), time(1, 0), time(4, 0), 3).getShardCount());
+  }
+
+  @Test
+  public void testShardFailure() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(403, "denied"));
+    Client client = Util.getClient(mockClient);
+
+    Selection sel = new Selection().
+      addSelector(Selector.Type.DEVICES, Selector.key(device.getKey()));
+    try {
+      client.readSharded(sel, new Pipeline(), time(1, 0), time(4, 0), 2).iterator().hasNext();
+      fail("Expected a TempoIQException");
+    } catch (TempoIQException e) {
+      // expected
+    }
+  }
+}
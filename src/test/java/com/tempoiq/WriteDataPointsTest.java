@@ -3,18 +3,24 @@ package com.tempoiq;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
 import java.net.URISyntaxException;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.http.*;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.junit.*;
+import org.junit.rules.TemporaryFolder;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 import org.mockito.ArgumentCaptor;
@@ -85,6 +91,418 @@ public class WriteDataPointsTest {
     assertEquals(json, EntityUtils.toString(argument.getValue().getEntity(), DEFAULT_CHARSET));
   }
 
+  @Test
+  public void testColumnarBody() throws IOException {
+    HttpResponse response = Util.getResponse(200, multistatus_json);
+    HttpClient mockClient = Util.getMockHttpClient(response);
+    Client client = Util.getClient(mockClient);
+
+    ColumnarWriteRequest cwr = new ColumnarWriteRequest()
+      .add("key1", "key1", new DateTime(2012, 3, 27, 5, 0, 0, 0, timezone).getMillis(), 12.34);
+    Result<WriteResponse> result = client.writeDataPoints(cwr);
+
+    ArgumentCaptor<HttpPost> argument = ArgumentCaptor.forClass(HttpPost.class);
+    verify(mockClient).execute(any(HttpHost.class), argument.capture(), any(HttpContext.class));
+    assertEquals(json, EntityUtils.toString(argument.getValue().getEntity(), DEFAULT_CHARSET));
+  }
+
+  @Test
+  public void testCompressedBody() throws IOException {
+    HttpResponse response = Util.getResponse(200, multistatus_json);
+    HttpClient mockClient = Util.getMockHttpClient(response);
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .compressRequests(0)
+      .build();
+    client.setHttpClient(mockClient);
+
+    client.writeDataPoints(wr);
+
+    ArgumentCaptor<HttpPost> argument = ArgumentCaptor.forClass(HttpPost.class);
+    verify(mockClient).execute(any(HttpHost.class), argument.capture(), any(HttpContext.class));
+    HttpEntity entity = argument.getValue().getEntity();
+    assertEquals("gzip", entity.getContentEncoding().getValue());
+    HttpEntity decompressed = new InputStreamEntity(new GZIPInputStream(entity.getContent()), -1);
+    assertEquals(json, EntityUtils.toString(decompressed, DEFAULT_CHARSET));
+  }
+
+  @Test
+  public void testSmallBodyNotCompressed() throws IOException {
+    HttpResponse response = Util.getResponse(200, multistatus_json);
+    HttpClient mockClient = Util.getMockHttpClient(response);
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .compressRequests(1024)
+      .build();
+    client.setHttpClient(mockClient);
+
+    client.writeDataPoints(wr);
+
+    ArgumentCaptor<HttpPost> argument = ArgumentCaptor.forClass(HttpPost.class);
+    verify(mockClient).execute(any(HttpHost.class), argument.capture(), any(HttpContext.class));
+    assertNull(argument.getValue().getEntity().getContentEncoding());
+  }
+
+  @Test
+  public void testSplitWrite() throws IOException {
+    String device2_json = "{\"key2\": {\"device_state\": \"existing\", \"message\": null, \"success\": true}}";
+    HttpClient mockClient = Util.getMockHttpClient(
+      Util.getResponse(200, multistatus_json),
+      Util.getResponse(200, device2_json));
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .splitWrites(1, 1024 * 1024, 1)
+      .build();
+    client.setHttpClient(mockClient);
+
+    WriteRequest request = new WriteRequest()
+      .add(new Device("device-1"), new Sensor("key1"), new DataPoint(new DateTime(2012, 3, 27, 5, 0, 0, 0, timezone), 12.34))
+      .add(new Device("key2"), new Sensor("key1"), new DataPoint(new DateTime(2012, 3, 27, 5, 0, 0, 0, timezone), 12.34));
+    Result<WriteResponse> result = client.writeDataPoints(request);
+
+    verify(mockClient, times(2)).execute(any(HttpHost.class), any(HttpRequest.class), any(HttpContext.class));
+    assertEquals(State.SUCCESS, result.getState());
+    assertEquals(2, result.getValue().getExisting().size() + result.getValue().getModified().size());
+  }
+
+  @Test
+  public void testSplitWritePartialFailure() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(
+      Util.getResponse(200, multistatus_json),
+      Util.getResponse(503, "unavailable"));
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .splitWrites(1, 1024 * 1024, 1)
+      .build();
+    client.setHttpClient(mockClient);
+
+    WriteRequest request = new WriteRequest()
+      .add(new Device("device-1"), new Sensor("key1"), new DataPoint(new DateTime(2012, 3, 27, 5, 0, 0, 0, timezone), 12.34))
+      .add(new Device("key2"), new Sensor("key1"), new DataPoint(new DateTime(2012, 3, 27, 5, 0, 0, 0, timezone), 12.34));
+    Result<WriteResponse> result = client.writeDataPoints(request);
+
+    assertEquals(State.PARTIAL_SUCCESS, result.getState());
+    assertTrue(result.getValue().getFailures().containsKey("key2"));
+    assertFalse(result.getValue().getFailures().containsKey("device-1"));
+  }
+
+  @Test
+  public void testSplitDeviceKeepsFailure() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(
+      Util.getResponse(503, "unavailable"),
+      Util.getResponse(200, device1_json));
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .splitWrites(1, 1024 * 1024, 1)
+      .build();
+    client.setHttpClient(mockClient);
+
+    WriteRequest request = new WriteRequest()
+      .add(new Device("device-1"), new Sensor("key1"), new DataPoint(new DateTime(2012, 3, 27, 5, 0, 0, 0, timezone), 12.34))
+      .add(new Device("device-1"), new Sensor("key1"), new DataPoint(new DateTime(2012, 3, 27, 5, 0, 1, 0, timezone), 56.78));
+    Result<WriteResponse> result = client.writeDataPoints(request);
+
+    verify(mockClient, times(2)).execute(any(HttpHost.class), any(HttpRequest.class), any(HttpContext.class));
+    assertEquals(State.PARTIAL_SUCCESS, result.getState());
+    assertTrue(result.getValue().getFailures().containsKey("device-1"));
+  }
+
+  @Test
+  public void testSplitDeviceFailureIsRetried() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(
+      Util.getResponse(503, "unavailable"),
+      Util.getResponse(200, device1_json),
+      Util.getResponse(200, device1_json),
+      Util.getResponse(200, device1_json));
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .splitWrites(1, 1024 * 1024, 1)
+      .retryFailedDevices(1, 0)
+      .build();
+    client.setHttpClient(mockClient);
+
+    WriteRequest request = new WriteRequest()
+      .add(new Device("device-1"), new Sensor("key1"), new DataPoint(new DateTime(2012, 3, 27, 5, 0, 0, 0, timezone), 12.34))
+      .add(new Device("device-1"), new Sensor("key1"), new DataPoint(new DateTime(2012, 3, 27, 5, 0, 1, 0, timezone), 56.78));
+    Result<WriteResponse> result = client.writeDataPoints(request);
+
+    // Both points of the device are resent, again in two chunks
+    verify(mockClient, times(4)).execute(any(HttpHost.class), any(HttpRequest.class), any(HttpContext.class));
+    assertEquals(State.SUCCESS, result.getState());
+  }
+
+  private static final String device1_json = "{\"device-1\": {\"device_state\": \"existing\", \"message\": null, \"success\": true}}";
+
+  private static final String partial_json = "{" +
+    "\"device-1\": {\"device_state\": \"modified\", \"message\": null, \"success\": true}," +
+    "\"key2\": {\"device_state\": \"existing\", \"message\": \"timeout\", \"success\": false}" +
+    "}";
+  private static final String retried_json = "{\"key2\": {\"device_state\": \"existing\", \"message\": null, \"success\": true}}";
+
+  private static final WriteRequest two_devices = new WriteRequest()
+    .add(new Device("device-1"), new Sensor("key1"), new DataPoint(new DateTime(2012, 3, 27, 5, 0, 0, 0, timezone), 12.34))
+    .add(new Device("key2"), new Sensor("key1"), new DataPoint(new DateTime(2012, 3, 27, 5, 0, 0, 0, timezone), 56.78));
+
+  @Test
+  public void testRetryFailedDevices() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(
+      Util.getResponse(207, partial_json),
+      Util.getResponse(200, retried_json));
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .retryFailedDevices(2, 0)
+      .build();
+    client.setHttpClient(mockClient);
+
+    Result<WriteResponse> result = client.writeDataPoints(two_devices);
+
+    ArgumentCaptor<HttpPost> argument = ArgumentCaptor.forClass(HttpPost.class);
+    verify(mockClient, times(2)).execute(any(HttpHost.class), argument.capture(), any(HttpContext.class));
+    String retried = EntityUtils.toString(argument.getAllValues().get(1).getEntity(), DEFAULT_CHARSET);
+    assertEquals("{\"key2\":{\"key1\":[{\"t\":\"2012-03-27T05:00:00.000Z\",\"v\":56.78}]}}", retried);
+
+    assertEquals(State.SUCCESS, result.getState());
+    assertTrue(result.getValue().getFailures().isEmpty());
+    assertEquals(2, result.getValue().getStatuses().size());
+    assertEquals(0, result.getValue().getUnwritten().size());
+  }
+
+  @Test
+  public void testRetryFailedDevicesExhausted() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(
+      Util.getResponse(207, partial_json),
+      Util.getResponse(503, "unavailable"));
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .retryFailedDevices(1, 0)
+      .build();
+    client.setHttpClient(mockClient);
+
+    Result<WriteResponse> result = client.writeDataPoints(two_devices);
+
+    verify(mockClient, times(2)).execute(any(HttpHost.class), any(HttpPost.class), any(HttpContext.class));
+    assertEquals(State.PARTIAL_SUCCESS, result.getState());
+    assertTrue(result.getValue().getFailures().containsKey("key2"));
+    assertEquals(1, result.getValue().getUnwritten().size());
+    assertEquals("key2", result.getValue().getUnwritten().iterator().next().getDevice().getKey());
+  }
+
+  @Test
+  public void testColumnarWriteIsRetried() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(
+      Util.getResponse(207, partial_json),
+      Util.getResponse(200, retried_json));
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .retryFailedDevices(2, 0)
+      .build();
+    client.setHttpClient(mockClient);
+
+    ColumnarWriteRequest request = new ColumnarWriteRequest()
+      .add("device-1", "key1", new DateTime(2012, 3, 27, 5, 0, 0, 0, timezone).getMillis(), 12.34)
+      .add("key2", "key1", new DateTime(2012, 3, 27, 5, 0, 0, 0, timezone).getMillis(), 56.78);
+    Result<WriteResponse> result = client.writeDataPoints(request);
+
+    verify(mockClient, times(2)).execute(any(HttpHost.class), any(HttpPost.class), any(HttpContext.class));
+    assertEquals(State.SUCCESS, result.getState());
+    assertEquals(0, result.getValue().getUnwritten().size());
+  }
+
+  @Test
+  public void testRetryFailedDevicesAllFail() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(503, "unavailable"));
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .retryFailedDevices(1, 0)
+      .build();
+    client.setHttpClient(mockClient);
+
+    Result<WriteResponse> result = client.writeDataPoints(two_devices);
+
+    verify(mockClient, times(2)).execute(any(HttpHost.class), any(HttpPost.class), any(HttpContext.class));
+    assertEquals(State.FAILURE, result.getState());
+    assertEquals(503, result.getCode());
+    assertEquals(2, result.getValue().getFailures().size());
+    assertEquals(2, result.getValue().getUnwritten().size());
+  }
+
+  @Test
+  public void testNoRetryOnClientError() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(403, "forbidden"));
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .retryFailedDevices(3, 0)
+      .build();
+    client.setHttpClient(mockClient);
+
+    Result<WriteResponse> result = client.writeDataPoints(two_devices);
+
+    verify(mockClient, times(1)).execute(any(HttpHost.class), any(HttpPost.class), any(HttpContext.class));
+    assertEquals(State.FAILURE, result.getState());
+    assertEquals(403, result.getCode());
+  }
+
+  @Test
+  public void testMultiDataPointBody() throws IOException {
+    HttpResponse response = Util.getResponse(200, multistatus_json);
+    HttpClient mockClient = Util.getMockHttpClient(response);
+    Client client = Util.getClient(mockClient);
+
+    Map<String, Number> first = new LinkedHashMap<String, Number>();
+    first.put("temp", 12.5);
+    first.put("humidity", 40);
+    Map<String, Number> second = new LinkedHashMap<String, Number>();
+    second.put("humidity", 41);
+    second.put("pressure", 1013.2);
+    List<MultiDataPoint> data = Arrays.asList(
+      new MultiDataPoint(new DateTime(2012, 3, 27, 5, 0, 0, 0, timezone), first),
+      new MultiDataPoint(new DateTime(2012, 3, 27, 5, 1, 0, 0, timezone), second));
+    client.writeDataPoints(new Device("device-1"), data);
+
+    HttpPost request = (HttpPost)Util.captureRequest(mockClient);
+    String body = EntityUtils.toString(request.getEntity(), DEFAULT_CHARSET);
+    String expected = "{\"device-1\":{" +
+      "\"temp\":[{\"t\":\"2012-03-27T05:00:00.000Z\",\"v\":12.5}]," +
+      "\"humidity\":[{\"t\":\"2012-03-27T05:00:00.000Z\",\"v\":40},{\"t\":\"2012-03-27T05:01:00.000Z\",\"v\":41}]," +
+      "\"pressure\":[{\"t\":\"2012-03-27T05:01:00.000Z\",\"v\":1013.2}]" +
+      "}}";
+    assertEquals(expected, body);
+    assertEquals(Json.dumps(new DeviceWriteRequest(new Device("device-1"), data).toWriteRequest()), body);
+  }
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testSpoolOnOutage() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(
+      Util.getResponse(503, "unavailable"),
+      Util.getResponse(503, "unavailable"),
+      Util.getResponse(200, multistatus_json));
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .spoolWrites(folder.getRoot(), 1024 * 1024, SpoolSync.ALWAYS)
+      .spoolRetryInterval(10)
+      .build();
+    client.setHttpClient(mockClient);
+
+    Result<WriteResponse> result = client.writeDataPoints(wr);
+    assertEquals(State.SUCCESS, result.getState());
+    assertEquals(202, result.getCode());
+
+    ArgumentCaptor<HttpPost> argument = ArgumentCaptor.forClass(HttpPost.class);
+    verify(mockClient, timeout(5000).times(3)).execute(any(HttpHost.class), argument.capture(), any(HttpContext.class));
+    String replayed = EntityUtils.toString(argument.getAllValues().get(2).getEntity(), DEFAULT_CHARSET);
+    assertEquals(json, replayed);
+  }
+
+  @Test
+  public void testSpoolResendsFailedDevices() throws IOException {
+    String partial_json = "{\"key1\": {\"device_state\": \"existing\", \"message\": null, \"success\": true}," +
+      "\"key2\": {\"device_state\": \"existing\", \"message\": \"error\", \"success\": false}}";
+    HttpClient mockClient = Util.getMockHttpClient(
+      Util.getResponse(503, "unavailable"),
+      Util.getResponse(207, partial_json),
+      Util.getResponse(200, multistatus_json));
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .spoolWrites(folder.getRoot(), 1024 * 1024, SpoolSync.ALWAYS)
+      .spoolRetryInterval(10)
+      .build();
+    client.setHttpClient(mockClient);
+
+    WriteRequest request = new WriteRequest()
+      .add(new Device("key1"), new Sensor("key1"), new DataPoint(new DateTime(2012, 3, 27, 5, 0, 0, 0, timezone), 12.34))
+      .add(new Device("key2"), new Sensor("key1"), new DataPoint(new DateTime(2012, 3, 27, 5, 0, 0, 0, timezone), 56.78));
+    Result<WriteResponse> result = client.writeDataPoints(request);
+    assertEquals(202, result.getCode());
+
+    ArgumentCaptor<HttpPost> argument = ArgumentCaptor.forClass(HttpPost.class);
+    verify(mockClient, timeout(5000).times(3)).execute(any(HttpHost.class), argument.capture(), any(HttpContext.class));
+    String resent = EntityUtils.toString(argument.getAllValues().get(2).getEntity(), DEFAULT_CHARSET);
+    assertEquals("{\"key2\":{\"key1\":[{\"t\":\"2012-03-27T05:00:00.000Z\",\"v\":56.78}]}}", resent);
+  }
+
+  @Test
+  public void testSpoolReportsRejectedWrite() throws Exception {
+    HttpClient mockClient = Util.getMockHttpClient(
+      Util.getResponse(503, "unavailable"),
+      Util.getResponse(400, "bad request"));
+    final List<Integer> codes = new CopyOnWriteArrayList<Integer>();
+    final List<String> bodies = new CopyOnWriteArrayList<String>();
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .spoolWrites(folder.getRoot(), 1024 * 1024, SpoolSync.ALWAYS)
+      .spoolRetryInterval(10)
+      .spoolListener(new SpoolListener() {
+        public void dropped(byte[] body, Result<WriteResponse> result) {
+          bodies.add(new String(body, DEFAULT_CHARSET));
+          codes.add(result.getCode());
+        }
+      })
+      .build();
+    client.setHttpClient(mockClient);
+
+    Result<WriteResponse> result = client.writeDataPoints(wr);
+    assertEquals(202, result.getCode());
+
+    for (int i = 0; i < 500 && codes.isEmpty(); i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(Arrays.asList(400), codes);
+    assertEquals(Arrays.asList(json), bodies);
+  }
+
+  @Test
+  public void testCloseKeepsSpooledWrites() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(503, "unavailable"));
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .spoolWrites(folder.getRoot(), 1024 * 1024, SpoolSync.ALWAYS)
+      .spoolRetryInterval(60 * 1000)
+      .build();
+    client.setHttpClient(mockClient);
+
+    assertEquals(202, client.writeDataPoints(wr).getCode());
+    client.close();
+
+    WriteSpool spool = new WriteSpool(folder.getRoot(), 1024 * 1024, SpoolSync.ALWAYS);
+    assertEquals(1, spool.getRecordCount());
+    assertEquals(json, new String(spool.peek(), DEFAULT_CHARSET));
+    spool.close();
+  }
+
+  @Test
+  public void testSpooledWriteIsCachedAsLatest() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(503, "unavailable"));
+    LatestValueCache cache = new LatestValueCache(60 * 1000);
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .spoolWrites(folder.getRoot(), 1024 * 1024, SpoolSync.ALWAYS)
+      .spoolRetryInterval(60 * 1000)
+      .latestValueCache(cache)
+      .build();
+    client.setHttpClient(mockClient);
+
+    assertEquals(202, client.writeDataPoints(wr).getCode());
+    assertEquals(1, cache.getStreamCount());
+    client.close();
+  }
+
+  @Test
+  public void testNoSpoolOnClientError() throws IOException {
+    HttpClient mockClient = Util.getMockHttpClient(Util.getResponse(403, "forbidden"));
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .spoolWrites(folder.getRoot(), 1024 * 1024, SpoolSync.ALWAYS)
+      .build();
+    client.setHttpClient(mockClient);
+
+    Result<WriteResponse> result = client.writeDataPoints(wr);
+    assertEquals(403, result.getCode());
+    assertEquals(0, folder.getRoot().listFiles().length);
+  }
+
   @Test
   public void testWriteResponse() throws IOException {
     WriteResponse resp = Json.loads(multistatus_json, WriteResponse.class);
@@ -0,0 +1,105 @@
+package com.tempoiq;
+
+import java.io.IOException;
+
+import org.apache.http.*;
+import org.apache.http.client.HttpClient;
+import org.apache.http.protocol.HttpContext;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+
+public class WriteLimiterTest {
+
+  @Test
+  public void testBacksOffOnOverload() throws InterruptedException {
+    WriteLimiter limiter = new WriteLimiter(8, 1000);
+    long start = limiter.acquire();
+    limiter.release(start, 503, 0);
+    assertEquals(6, limiter.getLimit());
+  }
+
+  @Test
+  public void testCountsOneCutPerWindow() throws InterruptedException {
+    WriteLimiter limiter = new WriteLimiter(8, 1000);
+    long first = limiter.acquire();
+    long second = limiter.acquire();
+    limiter.release(first, 429, 0);
+    limiter.release(second, 429, 0);
+    assertEquals(6, limiter.getLimit());
+  }
+
+  @Test
+  public void testGrowsBackOnSuccess() throws InterruptedException {
+    WriteLimiter limiter = new WriteLimiter(4, 1000);
+    limiter.release(limiter.acquire(), 503, 0);
+    assertEquals(3, limiter.getLimit());
+    for (int i = 0; i < 4; i++) {
+      limiter.release(limiter.acquire(), 200, 0);
+    }
+    assertEquals(4, limiter.getLimit());
+  }
+
+  @Test
+  public void testIgnoresClientErrors() throws InterruptedException {
+    WriteLimiter limiter = new WriteLimiter(4, 1000);
+    limiter.release(limiter.acquire(), 400, 0);
+    assertEquals(4, limiter.getLimit());
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  @Test
+  public void testHonorsRetryAfter() throws InterruptedException {
+    WriteLimiter limiter = new WriteLimiter(4, 1000);
+    limiter.release(limiter.acquire(), 429, 100);
+
+    long before = System.nanoTime();
+    limiter.acquire();
+    assertTrue(System.nanoTime() - before >= 90 * 1000 * 1000);
+  }
+
+  @Test
+  public void testRateCeiling() throws InterruptedException {
+    WriteLimiter limiter = new WriteLimiter(1, 20);
+    limiter.release(limiter.acquire(), 200, 0);
+
+    long before = System.nanoTime();
+    limiter.release(limiter.acquire(), 200, 0);
+    limiter.release(limiter.acquire(), 200, 0);
+    assertTrue(System.nanoTime() - before >= 90 * 1000 * 1000);
+  }
+
+  @Test
+  public void testParseRetryAfter() {
+    long now = new DateTime(2014, 3, 1, 12, 0, 0, 0, DateTimeZone.UTC).getMillis();
+    assertEquals(120000, Executor.parseRetryAfter("120", now));
+    assertEquals(30000, Executor.parseRetryAfter("Sat, 01 Mar 2014 12:00:30 GMT", now));
+    assertEquals(0, Executor.parseRetryAfter("Sat, 01 Mar 2014 11:00:00 GMT", now));
+    assertEquals(0, Executor.parseRetryAfter("soon", now));
+  }
+
+  @Test
+  public void testClientReadsRetryAfter() throws IOException, InterruptedException {
+    HttpResponse throttled = Util.getResponse(429, "slow down");
+    throttled.setHeader("Retry-After", "1");
+    HttpClient mockClient = Util.getMockHttpClient(throttled);
+    Client client = new ClientBuilder()
+      .credentials(new Credentials("key", "secret"))
+      .limitWrites(4, 1000)
+      .build();
+    client.setHttpClient(mockClient);
+
+    WriteRequest request = new WriteRequest()
+      .add(new Device("key1"), new Sensor("key1"), new DataPoint(new DateTime(2012, 3, 27, 5, 0, 0, 0, DateTimeZone.UTC), 12.34));
+    Result<WriteResponse> result = client.writeDataPoints(request);
+    assertEquals(429, result.getCode());
+
+    long before = System.nanoTime();
+    client.writeDataPoints(request);
+    assertTrue(System.nanoTime() - before >= 900 * 1000 * 1000);
+    verify(mockClient, times(2)).execute(any(HttpHost.class), any(HttpRequest.class), any(HttpContext.class));
+  }
+}
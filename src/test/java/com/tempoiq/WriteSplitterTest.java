@@ -0,0 +1,76 @@
+package com.tempoiq;
+
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+public class WriteSplitterTest {
+  private static final DateTimeZone timezone = DateTimeZone.UTC;
+  private static final Sensor sensor = new Sensor("sensor1");
+
+  private static WriteRequest request(String[] devices, int pointsPerDevice) {
+    WriteRequest request = new WriteRequest();
+    for (String key : devices) {
+      for (int i = 0; i < pointsPerDevice; i++) {
+        request.add(new Device(key), sensor, new DataPoint(new DateTime(2012, 1, 1, 0, 0, i, 0, timezone), i));
+      }
+    }
+    return request;
+  }
+
+  @Test
+  public void testKeepsDevicesTogether() {
+    WriteRequest request = request(new String[] { "a", "b", "c" }, 2);
+    List<WriteRequest> chunks = new WriteSplitter(5, Long.MAX_VALUE).split(request);
+
+    assertEquals(2, chunks.size());
+    assertEquals(4, chunks.get(0).size());
+    assertEquals(2, chunks.get(1).size());
+    for (WritableDataPoint point : chunks.get(1)) {
+      assertEquals("c", point.getDevice().getKey());
+    }
+  }
+
+  @Test
+  public void testSplitsOversizedDevice() {
+    WriteRequest request = request(new String[] { "a" }, 5);
+    List<WriteRequest> chunks = new WriteSplitter(2, Long.MAX_VALUE).split(request);
+
+    assertEquals(3, chunks.size());
+    assertEquals(1, chunks.get(2).size());
+  }
+
+  @Test
+  public void testRunsKeepDeviceChunksTogether() {
+    WriteRequest request = request(new String[] { "a", "b" }, 3);
+    request.add(new Device("c"), sensor, new DataPoint(new DateTime(2012, 1, 1, 0, 0, 0, 0, timezone), 0));
+    List<WriteRequest> chunks = new WriteSplitter(2, Long.MAX_VALUE).split(request);
+    List<List<WriteRequest>> runs = WriteSplitter.runs(chunks);
+
+    // [a a] [a] | [b b] [b c]
+    assertEquals(4, chunks.size());
+    assertEquals(2, runs.size());
+    assertEquals(2, runs.get(0).size());
+    assertEquals(2, runs.get(1).size());
+  }
+
+  @Test
+  public void testSplitsOnBytes() {
+    WriteRequest request = request(new String[] { "a", "b" }, 1);
+    long onePoint = WriteSplitter.estimateBytes(request.iterator().next());
+    List<WriteRequest> chunks = new WriteSplitter(100, onePoint).split(request);
+
+    assertEquals(2, chunks.size());
+  }
+
+  @Test
+  public void testExceedsLimits() {
+    WriteSplitter splitter = new WriteSplitter(2, Long.MAX_VALUE);
+    assertFalse(splitter.exceedsLimits(request(new String[] { "a" }, 2)));
+    assertTrue(splitter.exceedsLimits(request(new String[] { "a" }, 3)));
+  }
+}
@@ -0,0 +1,129 @@
+package com.tempoiq;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+
+public class WriteSpoolTest {
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(UTF8);
+  }
+
+  private static String string(byte[] value) {
+    return new String(value, UTF8);
+  }
+
+  @Test
+  public void testDrainsInOrder() throws IOException {
+    WriteSpool spool = new WriteSpool(folder.getRoot(), 1024 * 1024, SpoolSync.ALWAYS);
+    assertTrue(spool.isEmpty());
+    assertNull(spool.peek());
+
+    assertTrue(spool.append(bytes("one")));
+    assertTrue(spool.append(bytes("two")));
+    assertEquals(2, spool.getRecordCount());
+
+    assertEquals("one", string(spool.peek()));
+    assertEquals("one", string(spool.peek()));
+    spool.remove();
+    assertEquals("two", string(spool.peek()));
+    spool.remove();
+
+    assertTrue(spool.isEmpty());
+    assertNull(spool.peek());
+    assertEquals(0, spool.getSize());
+    assertEquals(0, folder.getRoot().listFiles().length);
+  }
+
+  @Test
+  public void testRollsSegments() throws IOException {
+    WriteSpool spool = new WriteSpool(folder.getRoot(), 1024 * 1024, 20, SpoolSync.SEGMENT);
+    for (int i = 0; i < 5; i++) {
+      assertTrue(spool.append(bytes("record-" + i)));
+    }
+    assertEquals(5, folder.getRoot().listFiles().length);
+
+    for (int i = 0; i < 5; i++) {
+      assertEquals("record-" + i, string(spool.peek()));
+      spool.remove();
+    }
+    assertTrue(spool.isEmpty());
+    assertEquals(0, folder.getRoot().listFiles().length);
+  }
+
+  @Test
+  public void testRespectsMaxBytes() throws IOException {
+    WriteSpool spool = new WriteSpool(folder.getRoot(), 20, SpoolSync.NEVER);
+    assertTrue(spool.append(bytes("0123456789")));
+    assertFalse(spool.append(bytes("0123456789")));
+    assertEquals(1, spool.getRecordCount());
+    assertEquals(18, spool.getSize());
+  }
+
+  @Test
+  public void testRecoversAfterReopen() throws IOException {
+    WriteSpool spool = new WriteSpool(folder.getRoot(), 1024 * 1024, SpoolSync.ALWAYS);
+    spool.append(bytes("one"));
+    spool.append(bytes("two"));
+    spool.peek();
+    spool.remove();
+    spool.close();
+
+    WriteSpool reopened = new WriteSpool(folder.getRoot(), 1024 * 1024, SpoolSync.ALWAYS);
+    // Progress within a segment is not persisted; drained records are resent
+    assertEquals(2, reopened.getRecordCount());
+    reopened.append(bytes("three"));
+
+    assertEquals("one", string(reopened.peek()));
+    reopened.remove();
+    assertEquals("two", string(reopened.peek()));
+    reopened.remove();
+    assertEquals("three", string(reopened.peek()));
+    reopened.remove();
+    assertTrue(reopened.isEmpty());
+  }
+
+  @Test
+  public void testIgnoresTornRecord() throws IOException {
+    WriteSpool spool = new WriteSpool(folder.getRoot(), 1024 * 1024, SpoolSync.ALWAYS);
+    spool.append(bytes("one"));
+    spool.append(bytes("two"));
+    spool.close();
+
+    File segment = folder.getRoot().listFiles()[0];
+    RandomAccessFile file = new RandomAccessFile(segment, "rw");
+    file.setLength(file.length() - 1);
+    file.close();
+
+    WriteSpool reopened = new WriteSpool(folder.getRoot(), 1024 * 1024, SpoolSync.ALWAYS);
+    assertEquals(1, reopened.getRecordCount());
+    assertEquals("one", string(reopened.peek()));
+    reopened.remove();
+    assertNull(reopened.peek());
+  }
+
+  @Test
+  public void testIgnoresForeignFiles() throws IOException {
+    WriteSpool spool = new WriteSpool(folder.getRoot(), 1024 * 1024, SpoolSync.ALWAYS);
+    spool.append(bytes("one"));
+    spool.close();
+    folder.newFile("spool-old.log");
+    folder.newFile("spool-.log");
+
+    WriteSpool reopened = new WriteSpool(folder.getRoot(), 1024 * 1024, SpoolSync.ALWAYS);
+    assertEquals(1, reopened.getRecordCount());
+    assertEquals("one", string(reopened.peek()));
+    assertTrue(new File(folder.getRoot(), "spool-old.log").exists());
+  }
+}
@@ -0,0 +1,62 @@
+package com.tempoiq.json;
+
+import java.util.Random;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.ISODateTimeFormat;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+public class Iso8601Test {
+  private static final DateTimeZone[] zones = {
+    DateTimeZone.UTC,
+    DateTimeZone.forID("America/Chicago"),
+    DateTimeZone.forID("Asia/Kolkata"),
+    DateTimeZone.forOffsetHoursMinutes(-9, -30)
+  };
+
+  @Test
+  public void testParse() {
+    DateTimeZone zone = DateTimeZone.UTC;
+    assertEquals(new DateTime(2012, 1, 1, 0, 0, 1, 0, zone).getMillis(), Iso8601.parse("2012-01-01T00:00:01.000Z", zone));
+    assertEquals(new DateTime(2012, 1, 1, 6, 0, 1, 0, zone).getMillis(), Iso8601.parse("2012-01-01T00:00:01.000-06:00", zone));
+    assertEquals(new DateTime(2012, 1, 1, 6, 0, 1, 0, zone).getMillis(), Iso8601.parse("2012-01-01T00:00:01-0600", zone));
+    assertEquals(new DateTime(2012, 2, 29, 23, 59, 59, 120, zone).getMillis(), Iso8601.parse("2012-02-29T23:59:59.12Z", zone));
+    assertEquals(new DateTime(1969, 12, 31, 23, 59, 59, 999, zone).getMillis(), Iso8601.parse("1969-12-31T23:59:59.999999Z", zone));
+  }
+
+  @Test
+  public void testParseWithoutOffsetUsesZone() {
+    DateTimeZone zone = DateTimeZone.forID("America/Chicago");
+    assertEquals(new DateTime(2012, 1, 1, 0, 0, 1, 0, zone).getMillis(), Iso8601.parse("2012-01-01T00:00:01.000", zone));
+    assertEquals(new DateTime(2012, 1, 1, 0, 0, 0, 0, zone).getMillis(), Iso8601.parse("2012-01-01", zone));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testParseInvalid() {
+    Iso8601.parse("2012-02-30T00:00:00.000Z", DateTimeZone.UTC);
+  }
+
+  @Test
+  public void testPrint() {
+    assertEquals("2012-01-01T00:00:01.000Z", Iso8601.print(new DateTime(2012, 1, 1, 0, 0, 1, 0, DateTimeZone.UTC).getMillis()));
+    DateTimeZone zone = DateTimeZone.forID("America/Chicago");
+    assertEquals("2012-01-01T00:00:01.000-06:00", Iso8601.print(new DateTime(2012, 1, 1, 0, 0, 1, 0, zone).getMillis(), zone));
+  }
+
+  @Test
+  public void testMatchesJoda() {
+    Random random = new Random(17);
+    char[] buffer = new char[Iso8601.MAX_LENGTH];
+    for (int i = 0; i < 10000; i++) {
+      // Roughly 1690 to 2250, including offsets in seconds before standard time
+      long millis = random.nextLong() % (1L << 43);
+      DateTimeZone zone = zones[i % zones.length];
+      String expected = ISODateTimeFormat.dateTime().withZone(zone).print(millis);
+      assertEquals(expected, new String(buffer, 0, Iso8601.print(millis, zone, buffer)));
+      assertEquals(millis, Iso8601.parse(expected, DateTimeZone.UTC));
+    }
+  }
+}
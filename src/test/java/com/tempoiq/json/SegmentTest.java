@@ -1,11 +1,16 @@
 package com.tempoiq.json;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import com.fasterxml.jackson.databind.JsonMappingException;
 import org.apache.http.*;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.junit.*;
 import com.tempoiq.Segment;
+import com.tempoiq.ColumnarRowSegment;
+import com.tempoiq.Row;
 import com.tempoiq.RowSegment;
 import static org.junit.Assert.*;
 
@@ -54,4 +59,53 @@ public class SegmentTest {
     RowSegment deserialized = Json.loads(json2, RowSegment.class);
     assertEquals(expected, deserialized.getNext());
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testDeserializeRows() throws IOException {
+    final String json = "{" +
+      "\"meta\":{\"ignored\":[1,2,{\"x\":null}]}," +
+      "\"data\":[" +
+        "{\"data\":{\"device1\":{\"sensor1\":1.5,\"sensor2\":7}},\"t\":\"2012-01-01T01:00:00.000Z\"}," +
+        "{\"t\":\"2012-01-01T02:00:00.000Z\",\"data\":{\"device1\":{\"sensor1\":null},\"device2\":{\"sensor1\":-2.25}}}]}";
+    RowSegment deserialized = Json.loads(json, RowSegment.class);
+
+    assertEquals(2, deserialized.getData().size());
+    assertEquals("", deserialized.getNext());
+    Row first = deserialized.getData().get(0);
+    assertEquals(new DateTime(2012, 1, 1, 1, 0, 0, 0, DateTimeZone.UTC), first.getTimestamp());
+    assertEquals(1.5, first.getValue("device1", "sensor1"));
+    assertEquals(7, first.getValue("device1", "sensor2"));
+    Row second = deserialized.getData().get(1);
+    assertTrue(second.hasSensor("device1", "sensor1"));
+    assertNull(second.getValue("device1", "sensor1"));
+    assertEquals(-2.25, second.getValue("device2", "sensor1"));
+  }
+
+  @Test
+  public void testDeserializeFromStream() throws IOException {
+    InputStream body = new ByteArrayInputStream(json2.getBytes("UTF-8"));
+    RowSegment deserialized = Json.load(body, RowSegment.class);
+    assertEquals(1, deserialized.getData().size());
+    assertEquals(1.677, deserialized.getData().get(0).getValue("device1", "sensor2"));
+    assertTrue(deserialized.getNext().startsWith("{\"search\":"));
+  }
+
+  @Test(expected = JsonMappingException.class)
+  public void testDeserializeMissingData() throws IOException {
+    Json.loads("{\"next_page\":{\"next_query\":{}}}", RowSegment.class);
+  }
+
+  @Test
+  public void testDeserializeColumnar() throws IOException {
+    ColumnarRowSegment columnar = Json.loads(json2, ColumnarRowSegment.class);
+    RowSegment rows = Json.loads(json2, RowSegment.class);
+
+    assertEquals(rows.getNext(), columnar.getNext());
+    assertEquals(rows.getData().size(), columnar.getData().size());
+    Row row = columnar.getData().get(0);
+    assertEquals(rows.getData().get(0).getTimestamp(), row.getTimestamp());
+    assertEquals(1.23, row.getValue("device1", "sensor1"));
+    assertEquals(1.677, row.getValue("device1", "sensor2"));
+    assertEquals(2, columnar.getColumnCount());
+  }
+}
@@ -8,6 +8,7 @@ import org.junit.*;
 import static org.junit.Assert.*;
 import org.junit.rules.ExpectedException;
 
+import com.tempoiq.ColumnarWriteRequest;
 import com.tempoiq.DataPoint;
 import com.tempoiq.Device;
 import com.tempoiq.Sensor;
@@ -37,4 +38,48 @@ public class WriteRequestTest {
     String expected = "{\"key1\":{\"key1\":[{\"t\":\"2012-01-01T00:00:01.000-06:00\",\"v\":12.34}]}}";
     assertEquals(expected, Json.dumps(wr.asMap()));
   }
+
+  @Test
+  public void testSerializeGroupsStreams() throws IOException {
+    DateTimeZone timezone = DateTimeZone.UTC;
+    DataPoint dp1 = new DataPoint(new DateTime(2012, 1, 1, 0, 0, 1, 0, timezone), 1);
+    DataPoint dp2 = new DataPoint(new DateTime(2012, 1, 1, 0, 0, 2, 0, timezone), 2);
+    DataPoint dp3 = new DataPoint(new DateTime(2012, 1, 1, 0, 0, 3, 0, timezone), 3);
+    WriteRequest wr = new WriteRequest()
+      .add(device, sensor, dp1)
+      .add(new Device("key2"), sensor, dp2)
+      .add(device, sensor, dp3);
+
+    String expected = "{" +
+      "\"key1\":{\"key1\":[{\"t\":\"2012-01-01T00:00:01.000Z\",\"v\":1},{\"t\":\"2012-01-01T00:00:03.000Z\",\"v\":3}]}," +
+      "\"key2\":{\"key1\":[{\"t\":\"2012-01-01T00:00:02.000Z\",\"v\":2}]}}";
+    assertEquals(expected, Json.dumps(wr));
+  }
+
+  @Test
+  public void testSerializeMatchesMap() throws IOException {
+    DateTimeZone timezone = DateTimeZone.forID("America/Chicago");
+    DataPoint dp = new DataPoint(new DateTime(2012, 1, 1, 0, 0, 1, 0, timezone), 12.34);
+    WriteRequest wr = new WriteRequest().add(device, sensor, dp);
+
+    assertEquals(Json.dumps(wr.asMap()), Json.dumps(wr));
+  }
+
+  @Test
+  public void testSerializeColumnar() throws IOException {
+    DateTimeZone timezone = DateTimeZone.UTC;
+    DataPoint dp1 = new DataPoint(new DateTime(2012, 1, 1, 0, 0, 1, 0, timezone), 12.34);
+    DataPoint dp2 = new DataPoint(new DateTime(2012, 1, 1, 0, 0, 2, 0, timezone), 23.45);
+    Device device2 = new Device("key2");
+    WriteRequest wr = new WriteRequest()
+      .add(device, sensor, dp1)
+      .add(device2, sensor, dp2)
+      .add(device, sensor, dp2);
+    ColumnarWriteRequest cwr = new ColumnarWriteRequest(1)
+      .add(device, sensor, dp1)
+      .add(device2, sensor, dp2)
+      .add(device, sensor, dp2);
+
+    assertEquals(Json.dumps(wr), Json.dumps(cwr));
+  }
 }